@@ -0,0 +1,127 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Head;
+
+/*
+ * Measures the space saved by compressing property maps and adjacency lists,
+ * and what it costs to encode and decode them, to help choose which tables to
+ * compress and from which size. Needs no RAMCloud cluster.
+ *
+ * Usage: CompressionBenchmark [threshold] [iterations]
+ */
+public class CompressionBenchmark {
+
+  private static final String[] LABELS = { "knows", "likes", "follows", "created" };
+
+  public static void main(String[] args) {
+    int threshold = args.length > 0 ? Integer.parseInt(args[0]) : 512;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+    Random random = new Random(42);
+
+    System.out.println("threshold=" + threshold + " iterations=" + iterations);
+    for(int size: new int[] { 4, 16, 64 })
+      benchmarkPropertyMap(propertyMap(size, random), threshold, iterations);
+    for(int degree: new int[] { 16, 128, 1024 })
+      benchmarkHead(head(degree, random), threshold, iterations);
+    for(int degree: new int[] { 128, 1024 })
+      benchmarkPage(head(degree, random).entries, threshold, iterations);
+  }
+
+  private static Map<String, Object> propertyMap(int size, Random random) {
+    Map<String, Object> map = new HashMap<String, Object>();
+    for(int i = 0; i < size; i++) {
+      if(i % 3 == 0)
+        map.put("name" + i, "user-" + random.nextInt(100000) + "@example.com");
+      else if(i % 3 == 1)
+        map.put("weight" + i, random.nextDouble());
+      else
+        map.put("since" + i, (long) random.nextInt(100000));
+    }
+    return map;
+  }
+
+  private static Head head(int degree, Random random) {
+    Head head = new Head();
+    while(head.entries.size() < degree)
+      head.entries.add(new Entry(random.nextInt(degree * 10), random.nextBoolean(), LABELS[random.nextInt(LABELS.length)]));
+    return head;
+  }
+
+  private static void benchmarkPropertyMap(Map<String, Object> map, int threshold, int iterations) {
+    byte[] raw = RamCloudElement.getPropertyMapBytes(map);
+    byte[] compressed = RamCloudCompression.compress(raw, threshold);
+
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      RamCloudCompression.compress(RamCloudElement.getPropertyMapBytes(map), threshold);
+    long encode = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      RamCloudElement.getPropertyMap(compressed);
+    long decode = System.nanoTime() - start;
+
+    report("property map, " + map.size() + " properties", raw.length, compressed.length, encode, decode, iterations);
+  }
+
+  private static void benchmarkHead(Head head, int threshold, int iterations) {
+    byte[] raw = RamCloudAdjacency.encodeHead(head);
+    byte[] compressed = RamCloudAdjacency.encodeHead(head, threshold);
+
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      RamCloudAdjacency.encodeHead(head, threshold);
+    long encode = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      RamCloudAdjacency.decodeHead(compressed);
+    long decode = System.nanoTime() - start;
+
+    report("inline adjacency list, " + head.entries.size() + " edges", raw.length, compressed.length, encode, decode, iterations);
+  }
+
+  private static void benchmarkPage(TreeSet<Entry> entries, int threshold, int iterations) {
+    byte[] raw = RamCloudAdjacency.encodePage(entries, RamCloudCompression.DISABLED);
+    byte[] compressed = RamCloudAdjacency.encodePage(entries, threshold);
+
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      RamCloudAdjacency.encodePage(entries, threshold);
+    long encode = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for(int i = 0; i < iterations; i++)
+      RamCloudAdjacency.decodePage(compressed);
+    long decode = System.nanoTime() - start;
+
+    report("adjacency page, " + entries.size() + " edges", raw.length, compressed.length, encode, decode, iterations);
+  }
+
+  private static void report(String what, int rawBytes, int storedBytes, long encodeNanos, long decodeNanos, int iterations) {
+    System.out.println(String.format("%-36s raw=%7d stored=%7d ratio=%5.2f encode=%8.1fus decode=%8.1fus",
+                                     what, rawBytes, storedBytes, (double) rawBytes / storedBytes,
+                                     encodeNanos / 1000.0 / iterations, decodeNanos / 1000.0 / iterations));
+  }
+}
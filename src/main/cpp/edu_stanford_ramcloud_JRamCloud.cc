@@ -13,6 +13,11 @@
  * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
  */
 
+#include <algorithm>
+#include <cstring>
+#include <string>
+#include <vector>
+
 #include <RamCloud.h>
 #include <TableEnumerator.h>
 #include <Object.h>
@@ -95,6 +100,163 @@ class JByteArrayGetter {
     const jsize length;
 };
 
+/**
+ * This class holds the requests of a multiWrite, along with the jbyteArrays
+ * their keys and values point into, and cleans up when the destructor is
+ * called.
+ */
+class MultiWriteRequests {
+  public:
+    MultiWriteRequests(JNIEnv* env,
+                       jlongArray jTableIds,
+                       jobjectArray jKeys,
+                       jobjectArray jValues)
+        : env(env)
+        , jTableIds(jTableIds)
+        , tableIds(env->GetLongArrayElements(jTableIds, 0))
+        , keys()
+        , values()
+        , requests()
+    {
+        check_null(tableIds, "GetLongArrayElements failed");
+
+        jsize count = env->GetArrayLength(jKeys);
+        env->EnsureLocalCapacity(2 * count);
+        for (jsize i = 0; i < count; i++) {
+            keys.push_back(new JByteArrayGetter(env,
+                reinterpret_cast<jbyteArray>(env->GetObjectArrayElement(jKeys, i))));
+            values.push_back(new JByteArrayGetter(env,
+                reinterpret_cast<jbyteArray>(env->GetObjectArrayElement(jValues, i))));
+            requests.push_back(new MultiWriteObject(tableIds[i],
+                                                    keys[i]->pointer,
+                                                    static_cast<uint16_t>(keys[i]->length),
+                                                    values[i]->pointer,
+                                                    values[i]->length));
+        }
+    }
+
+    ~MultiWriteRequests()
+    {
+        for (size_t i = 0; i < requests.size(); i++) {
+            delete requests[i];
+            delete keys[i];
+            delete values[i];
+        }
+        env->ReleaseLongArrayElements(jTableIds, tableIds, JNI_ABORT);
+    }
+
+  private:
+    JNIEnv* env;
+    jlongArray jTableIds;
+    jlong* tableIds;
+    std::vector<JByteArrayGetter*> keys;
+    std::vector<JByteArrayGetter*> values;
+
+  public:
+    std::vector<MultiWriteObject*> requests;
+};
+
+/**
+ * This class holds the table ids and keys of a multiRead or multiRemove,
+ * along with the jbyteArrays the keys point into, and cleans up when the
+ * destructor is called.
+ */
+class MultiKeys {
+  public:
+    MultiKeys(JNIEnv* env, jlongArray jTableIds, jobjectArray jKeys)
+        : env(env)
+        , jTableIds(jTableIds)
+        , tableIds(env->GetLongArrayElements(jTableIds, 0))
+        , keys()
+    {
+        check_null(tableIds, "GetLongArrayElements failed");
+
+        jsize count = env->GetArrayLength(jKeys);
+        env->EnsureLocalCapacity(count);
+        for (jsize i = 0; i < count; i++) {
+            keys.push_back(new JByteArrayGetter(env,
+                reinterpret_cast<jbyteArray>(env->GetObjectArrayElement(jKeys, i))));
+        }
+    }
+
+    ~MultiKeys()
+    {
+        for (size_t i = 0; i < keys.size(); i++)
+            delete keys[i];
+        env->ReleaseLongArrayElements(jTableIds, tableIds, JNI_ABORT);
+    }
+
+  private:
+    JNIEnv* env;
+    jlongArray jTableIds;
+
+  public:
+    jlong* tableIds;
+    std::vector<JByteArrayGetter*> keys;
+};
+
+/**
+ * This class wraps a TableEnumerator and skips the objects whose data does
+ * not contain every one of a set of byte strings, so that only matching
+ * objects are copied into Java. It looks one object ahead to answer
+ * hasNext(); the object's buffer stays valid until the enumerator is
+ * advanced again.
+ */
+class FilteredTableEnumerator {
+  public:
+    FilteredTableEnumerator(RamCloud& ramcloud, uint64_t tableId)
+        : needles()
+        , enumerator(ramcloud, tableId)
+        , buffered(false)
+        , bufferedSize(0)
+        , bufferedObject(NULL)
+    {
+    }
+
+    bool
+    hasNext()
+    {
+        while (!buffered && enumerator.hasNext()) {
+            enumerator.next(&bufferedSize, &bufferedObject);
+            Object object(bufferedObject, bufferedSize);
+            buffered = matches(object);
+        }
+        return buffered;
+    }
+
+    bool
+    next(uint32_t* size, const void** object)
+    {
+        if (!hasNext())
+            return false;
+        *size = bufferedSize;
+        *object = bufferedObject;
+        buffered = false;
+        return true;
+    }
+
+    std::vector<std::string> needles;
+
+  private:
+    bool
+    matches(Object& object)
+    {
+        const char* data = static_cast<const char*>(object.getData());
+        const char* end = data + object.getDataLength();
+
+        for (size_t i = 0; i < needles.size(); i++) {
+            if (std::search(data, end, needles[i].begin(), needles[i].end()) == end)
+                return false;
+        }
+        return true;
+    }
+
+    TableEnumerator enumerator;
+    bool buffered;
+    uint32_t bufferedSize;
+    const void* bufferedObject;
+};
+
 static RamCloud*
 getRamCloud(JNIEnv* env, jobject jRamCloud)
 {
@@ -103,12 +265,36 @@ getRamCloud(JNIEnv* env, jobject jRamCloud)
     return reinterpret_cast<RamCloud*>(env->GetLongField(jRamCloud, fieldId));
 }
 
-static TableEnumerator*
+static FilteredTableEnumerator*
 getTableEnumerator(JNIEnv* env, jobject jTableEnumerator)
 {
     jclass cls = env->GetObjectClass(jTableEnumerator);
     jfieldID fieldId = env->GetFieldID(cls, "tableEnumeratorObjectPointer", "J");
-    return reinterpret_cast<TableEnumerator*>(env->GetLongField(jTableEnumerator, fieldId));    
+    return reinterpret_cast<FilteredTableEnumerator*>(env->GetLongField(jTableEnumerator, fieldId));    
+}
+
+/*
+ * Copies the fields of a JRamCloud.RejectRules into the given RejectRules.
+ * A null jRejectRules rejects nothing.
+ */
+static void
+getRejectRules(JNIEnv* env, jobject jRejectRules, RejectRules* rules)
+{
+    memset(rules, 0, sizeof(*rules));
+    if (jRejectRules == NULL)
+        return;
+
+    jclass cls = env->GetObjectClass(jRejectRules);
+    rules->givenVersion = env->GetLongField(jRejectRules,
+        env->GetFieldID(cls, "givenVersion", "J"));
+    rules->doesntExist = env->GetBooleanField(jRejectRules,
+        env->GetFieldID(cls, "doesntExist", "Z"));
+    rules->exists = env->GetBooleanField(jRejectRules,
+        env->GetFieldID(cls, "exists", "Z"));
+    rules->versionLeGiven = env->GetBooleanField(jRejectRules,
+        env->GetFieldID(cls, "versionLeGiven", "Z"));
+    rules->versionNeGiven = env->GetBooleanField(jRejectRules,
+        env->GetFieldID(cls, "versionNeGiven", "Z"));
 }
 
 static void
@@ -283,14 +469,31 @@ JNICALL Java_edu_stanford_ramcloud_JRamCloud_read__J_3B(JNIEnv *env,
                                   jobject jRamCloud,
                                   jlong jTableId,
                                   jbyteArray jKey)
+{
+    return Java_edu_stanford_ramcloud_JRamCloud_read__J_3BLJRamCloud_RejectRules_2(env, jRamCloud, jTableId, jKey, NULL);
+}
+
+/*
+ * Class:     edu_stanford_ramcloud_JRamCloud
+ * Method:    read
+ * Signature: (J[BLJRamCloud/RejectRules;)LJRamCloud/Object;
+ */
+JNIEXPORT jobject
+JNICALL Java_edu_stanford_ramcloud_JRamCloud_read__J_3BLJRamCloud_RejectRules_2(JNIEnv *env,
+                                                          jobject jRamCloud,
+                                                          jlong jTableId,
+                                                          jbyteArray jKey,
+                                                          jobject jRejectRules)
 {
     RamCloud* ramcloud = getRamCloud(env, jRamCloud);
     JByteArrayGetter key(env, jKey);
+    RejectRules rules;
+    getRejectRules(env, jRejectRules, &rules);
     
     Buffer buffer;
     uint64_t version;
     try {
-        ramcloud->read(jTableId, key.pointer, key.length, &buffer, NULL, &version);
+        ramcloud->read(jTableId, key.pointer, key.length, &buffer, &rules, &version);
     } EXCEPTION_CATCHER(NULL);
 
     jbyteArray jValue = env->NewByteArray(buffer.getTotalLength());
@@ -316,22 +519,6 @@ JNICALL Java_edu_stanford_ramcloud_JRamCloud_read__J_3B(JNIEnv *env,
                           static_cast<jlong>(version));
 }
 
-/*
- * Class:     edu_stanford_ramcloud_JRamCloud
- * Method:    read
- * Signature: (J[BLJRamCloud/RejectRules;)LJRamCloud/Object;
- */
-JNIEXPORT jobject
-JNICALL Java_edu_stanford_ramcloud_JRamCloud_read__J_3BLJRamCloud_RejectRules_2(JNIEnv *env,
-                                                          jobject jRamCloud,
-                                                          jlong jTableId,
-                                                          jbyteArray jKey,
-                                                          jobject jRejectRules)
-{
-    // XXX-- implement me by generalising the other read() method.
-    return NULL;
-}
-
 /*
  * Class:     edu_stanford_ramcloud_JRamCloud
  * Method:    remove
@@ -364,12 +551,13 @@ JNICALL Java_edu_stanford_ramcloud_JRamCloud_remove__J_3BLJRamCloud_RejectRules_
                                                            jbyteArray jKey,
                                                            jobject jRejectRules)
 {
-    // XXX- handle RejectRules
     RamCloud* ramcloud = getRamCloud(env, jRamCloud);
     JByteArrayGetter key(env, jKey);
+    RejectRules rules;
+    getRejectRules(env, jRejectRules, &rules);
     uint64_t version;
     try {
-        ramcloud->remove(jTableId, key.pointer, key.length, NULL, &version);
+        ramcloud->remove(jTableId, key.pointer, key.length, &rules, &version);
     } EXCEPTION_CATCHER(-1);
     return static_cast<jlong>(version);
 }
@@ -413,35 +601,202 @@ JNICALL Java_edu_stanford_ramcloud_JRamCloud_write__J_3B_3BLJRamCloud_RejectRule
                                                            jbyteArray jValue,
                                                            jobject jRejectRules)
 {
-    // XXX- handle RejectRules
     RamCloud* ramcloud = getRamCloud(env, jRamCloud);
     JByteArrayGetter key(env, jKey);
     JByteArrayGetter value(env, jValue);
+    RejectRules rules;
+    getRejectRules(env, jRejectRules, &rules);
     uint64_t version;
     try {
         ramcloud->write(jTableId,
                         key.pointer, key.length,
                         value.pointer, value.length,
-                        NULL,
+                        &rules,
                         &version);
     } EXCEPTION_CATCHER(-1);
     return static_cast<jlong>(version);
 }
 
+/*
+ * Class:     edu_stanford_ramcloud_JRamCloud
+ * Method:    multiWrite
+ * Signature: ([J[[B[[B)V
+ */
+JNIEXPORT void
+JNICALL Java_edu_stanford_ramcloud_JRamCloud_multiWrite(JNIEnv *env,
+                                      jobject jRamCloud,
+                                      jlongArray jTableIds,
+                                      jobjectArray jKeys,
+                                      jobjectArray jValues)
+{
+    RamCloud* ramcloud = getRamCloud(env, jRamCloud);
+    MultiWriteRequests requests(env, jTableIds, jKeys, jValues);
+
+    if (requests.requests.empty())
+        return;
+
+    try {
+        ramcloud->multiWrite(&requests.requests[0],
+                             static_cast<uint32_t>(requests.requests.size()));
+
+        // Report the first object that could not be written
+        for (size_t i = 0; i < requests.requests.size(); i++) {
+            if (requests.requests[i]->status != STATUS_OK)
+                ClientException::throwException(HERE, requests.requests[i]->status);
+        }
+    } EXCEPTION_CATCHER();
+}
+
+/*
+ * Class:     edu_stanford_ramcloud_JRamCloud
+ * Method:    multiRead
+ * Signature: ([J[[B)[LJRamCloud/Object;
+ */
+JNIEXPORT jobjectArray
+JNICALL Java_edu_stanford_ramcloud_JRamCloud_multiRead(JNIEnv *env,
+                                     jobject jRamCloud,
+                                     jlongArray jTableIds,
+                                     jobjectArray jKeys)
+{
+    RamCloud* ramcloud = getRamCloud(env, jRamCloud);
+    MultiKeys keys(env, jTableIds, jKeys);
+    size_t count = keys.keys.size();
+
+    std::vector<Tub<Buffer> > values(count);
+    std::vector<MultiReadObject> objects;
+    std::vector<MultiReadObject*> requests;
+    objects.reserve(count);
+    for (size_t i = 0; i < count; i++) {
+        objects.push_back(MultiReadObject(keys.tableIds[i],
+                                          keys.keys[i]->pointer,
+                                          static_cast<uint16_t>(keys.keys[i]->length),
+                                          &values[i]));
+        requests.push_back(&objects[i]);
+    }
+
+    try {
+        if (count > 0) {
+            ramcloud->multiRead(&requests[0], static_cast<uint32_t>(count));
+        }
+
+        // Objects that do not exist are returned as nulls; report the first
+        // other failure
+        for (size_t i = 0; i < count; i++) {
+            if (objects[i].status != STATUS_OK &&
+                objects[i].status != STATUS_OBJECT_DOESNT_EXIST)
+                ClientException::throwException(HERE, objects[i].status);
+        }
+    } EXCEPTION_CATCHER(NULL);
+
+    jclass cls = env->FindClass(PACKAGE_PATH "JRamCloud$Object");
+    check_null(cls, "FindClass failed");
+
+    jmethodID methodId = env->GetMethodID(cls,
+                                          "<init>",
+                                          "(L" PACKAGE_PATH "JRamCloud;[B[BJ)V");
+    check_null(methodId, "GetMethodID failed");
+
+    jobjectArray jObjects = env->NewObjectArray(static_cast<jsize>(count), cls, NULL);
+    check_null(jObjects, "NewObjectArray failed");
+
+    for (size_t i = 0; i < count; i++) {
+        if (objects[i].status != STATUS_OK)
+            continue;
+
+        Buffer* buffer = values[i].get();
+        jbyteArray jValue = env->NewByteArray(buffer->getTotalLength());
+        check_null(jValue, "NewByteArray failed");
+        {
+            JByteArrayGetter value(env, jValue);
+            buffer->copy(0, buffer->getTotalLength(), value.pointer);
+        }
+
+        jobject jKey = env->GetObjectArrayElement(jKeys, static_cast<jsize>(i));
+        jobject jObject = env->NewObject(cls,
+                                         methodId,
+                                         jRamCloud,
+                                         jKey,
+                                         jValue,
+                                         static_cast<jlong>(objects[i].version));
+        check_null(jObject, "NewObject failed");
+        env->SetObjectArrayElement(jObjects, static_cast<jsize>(i), jObject);
+
+        // Keep the local references down for large batches
+        env->DeleteLocalRef(jObject);
+        env->DeleteLocalRef(jKey);
+        env->DeleteLocalRef(jValue);
+    }
+
+    return jObjects;
+}
+
+/*
+ * Class:     edu_stanford_ramcloud_JRamCloud
+ * Method:    multiRemove
+ * Signature: ([J[[B)V
+ */
+JNIEXPORT void
+JNICALL Java_edu_stanford_ramcloud_JRamCloud_multiRemove(JNIEnv *env,
+                                       jobject jRamCloud,
+                                       jlongArray jTableIds,
+                                       jobjectArray jKeys)
+{
+    RamCloud* ramcloud = getRamCloud(env, jRamCloud);
+    MultiKeys keys(env, jTableIds, jKeys);
+    size_t count = keys.keys.size();
+
+    if (count == 0)
+        return;
+
+    std::vector<MultiRemoveObject> objects;
+    std::vector<MultiRemoveObject*> requests;
+    objects.reserve(count);
+    for (size_t i = 0; i < count; i++) {
+        objects.push_back(MultiRemoveObject(keys.tableIds[i],
+                                            keys.keys[i]->pointer,
+                                            static_cast<uint16_t>(keys.keys[i]->length)));
+        requests.push_back(&objects[i]);
+    }
+
+    try {
+        ramcloud->multiRemove(&requests[0], static_cast<uint32_t>(count));
+
+        // Removing an object that does not exist is not an error, as with
+        // remove(); report the first other failure
+        for (size_t i = 0; i < count; i++) {
+            if (objects[i].status != STATUS_OK &&
+                objects[i].status != STATUS_OBJECT_DOESNT_EXIST)
+                ClientException::throwException(HERE, objects[i].status);
+        }
+    } EXCEPTION_CATCHER();
+}
+
 /*
  * Class:     edu_stanford_ramcloud_JRamCloud_TableEnumerator
  * Method:    init
- * Signature: (J)V
+ * Signature: (J[[B)J
  */
 JNIEXPORT jlong JNICALL Java_edu_stanford_ramcloud_JRamCloud_00024TableEnumerator_init(JNIEnv *env, 
                                                                                       jobject jTableEnumerator, 
-                                                                                      jlong jTableId)
+                                                                                      jlong jTableId,
+                                                                                      jobjectArray jValueSubstrings)
 {
     jclass cls = env->GetObjectClass(jTableEnumerator);
     jfieldID fieldId = env->GetFieldID(cls, "ramCloudObjectPointer", "J");
     RamCloud* ramcloud = reinterpret_cast<RamCloud*>(env->GetLongField(jTableEnumerator, fieldId));
   
-    return reinterpret_cast<jlong>(new TableEnumerator(*ramcloud, jTableId));
+    FilteredTableEnumerator* tableEnum = new FilteredTableEnumerator(*ramcloud, jTableId);
+
+    jsize count = env->GetArrayLength(jValueSubstrings);
+    for (jsize i = 0; i < count; i++) {
+        jbyteArray jValueSubstring = static_cast<jbyteArray>(env->GetObjectArrayElement(jValueSubstrings, i));
+        JByteArrayGetter valueSubstring(env, jValueSubstring);
+        tableEnum->needles.push_back(std::string(static_cast<const char*>(valueSubstring.pointer),
+                                                 valueSubstring.length));
+        env->DeleteLocalRef(jValueSubstring);
+    }
+
+    return reinterpret_cast<jlong>(tableEnum);
 }
 
 /*
@@ -452,7 +807,7 @@ JNIEXPORT jlong JNICALL Java_edu_stanford_ramcloud_JRamCloud_00024TableEnumerato
 JNIEXPORT jboolean JNICALL Java_edu_stanford_ramcloud_JRamCloud_00024TableEnumerator_hasNext( JNIEnv *env, 
                                                                                               jobject jTableEnumerator)
 {
-    TableEnumerator* tableEnum = getTableEnumerator(env, jTableEnumerator);
+    FilteredTableEnumerator* tableEnum = getTableEnumerator(env, jTableEnumerator);
     return static_cast<jboolean>(tableEnum->hasNext());
 }
 
@@ -464,15 +819,14 @@ JNIEXPORT jboolean JNICALL Java_edu_stanford_ramcloud_JRamCloud_00024TableEnumer
 JNIEXPORT jobject JNICALL Java_edu_stanford_ramcloud_JRamCloud_00024TableEnumerator_next( JNIEnv *env, 
                                                                                           jobject jTableEnumerator)
 {
-    TableEnumerator* tableEnum = getTableEnumerator(env, jTableEnumerator);
+    FilteredTableEnumerator* tableEnum = getTableEnumerator(env, jTableEnumerator);
+    uint32_t size = 0;
+    const void* buffer = 0;
 
-    if(tableEnum->hasNext()) 
+    if(tableEnum->next(&size, &buffer)) 
     {
-        uint32_t size = 0;
-        const void* buffer = 0;
         uint64_t version = 0;
 
-        tableEnum->next(&size, &buffer);
         Object object(buffer, size);
 
         jbyteArray jKey = env->NewByteArray(object.getKeyLength());
@@ -0,0 +1,1361 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.tinkerpop.blueprints.Direction;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * The adjacency list of a vertex, as stored in the vertex table.
+ *
+ * Every head object starts with the vertex's in/out degree and per-label edge
+ * counts, followed by a RamCloudBloomFilter over its entries, so that degree
+ * queries and most negative edge lookups only need to decode a few bytes.
+ *
+ * With the graph's merged vertex layout, the vertex's serialized property map
+ * is stored as the very first section of the head object instead of in the
+ * vertex property table, so that a vertex lives in a single object:
+ *
+ *   (format|WITH_PROPERTIES, pl, properties, counts, ... )
+ *
+ * Small adjacency lists are stored inline in a single "head" object under the
+ * vertex's key:
+ *
+ *   (format=INLINE, count, (n,f,ll,l), (n,f,ll,l), ... )
+ *
+ * Entries of edges with a small property map carry that map inline, flagged
+ * in f and appended to the entry as (pl, properties), in the lists of both
+ * endpoints. Edges whose map is larger than the graph's inline edge property
+ * threshold only carry a flag saying that it is in the edge property table.
+ *
+ * If the graph projects vertex properties, every entry also carries a copy of
+ * those properties of its neighbor, appended as (jl, projection), so that
+ * neighbors can be listed together with e.g. their names from a single read.
+ * RamCloudVertex keeps the copies in sync when a projected property changes.
+ *
+ * Once the encoded list grows beyond MAX_INLINE_BYTES the entries are sorted
+ * and split across fixed-size page objects, keyed by (vertex_id, page_id), and
+ * the head object becomes a one level B-tree style directory of those pages:
+ *
+ *   (format=PAGED, next_page_id, page_count, (p,b,c,first), (p,b,c,first), ... )
+ *
+ * An edge insert or removal on a paged vertex then only rewrites the pages it
+ * falls into plus the (small) directory, instead of the whole list. Pages that
+ * grow beyond MAX_PAGE_BYTES are split into half-full new ones, and a paged
+ * list that shrinks back below half of MAX_INLINE_BYTES is collapsed into an
+ * inline one again. Pages a head no longer names are removed after it is
+ * written.
+ *
+ * If the graph compresses the vertex table, inline entry lists and pages of at
+ * least the compression threshold are deflated (see RamCloudCompression). A
+ * compressed inline list is flagged in the format byte and stored as
+ * (raw_length, compressed_length, deflated), while a compressed page starts
+ * with a count of -1 followed by a compressed value. The format, counts and
+ * Bloom filter are never compressed, so that summaries stay cheap to decode.
+ *
+ * Mutations of a paged list are not applied to its pages right away. Instead
+ * each batch of added or removed entries is appended as a small delta record,
+ * keyed by (vertex_id, sequence number), and the head only tracks the
+ * sequence number of the first pending record and how many are pending:
+ *
+ *   (op, count, (n,f,ll,l), (n,f,ll,l), ... )
+ *
+ * Sequence numbers keep increasing across compactions, so that a reader
+ * holding an older head never merges a newer record logged under the same
+ * key into its stale pages; it fails to read its own instead, and retries.
+ *
+ * Readers merge the base pages with the pending deltas in order. Once the
+ * number of pending deltas reaches the graph's delta log threshold, the vertex
+ * is handed to the RamCloudAdjacencyCompactor, which folds the deltas into the
+ * pages in the background. Inline lists are small by construction and are
+ * always rewritten in place.
+ */
+public class RamCloudAdjacency {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  protected static final Charset LABEL_CHARSET = Charset.forName("UTF-8");
+
+  protected static final byte FORMAT_INLINE = 1;
+  protected static final byte FORMAT_PAGED = 2;
+  protected static final byte FORMAT_MASK = 0x0F;
+  protected static final byte FORMAT_WITH_PROPERTIES = 0x10;
+  protected static final byte FORMAT_COMPRESSED = 0x20;
+
+  private static final int COMPRESSED_PAGE = -1;
+
+  protected static final byte FLAG_OUTGOING = 0x01;
+  protected static final byte FLAG_PROPERTIES = 0x02;
+  protected static final byte FLAG_SPILLED_PROPERTIES = 0x04;
+  protected static final byte FLAG_PROJECTION = 0x08;
+
+  protected static final byte KEY_PAGE = 'p';
+  protected static final byte KEY_DELTA = 'd';
+
+  protected static final byte DELTA_ADD = 1;
+  protected static final byte DELTA_REMOVE = 2;
+  protected static final byte DELTA_UPDATE = 3;
+  protected static final byte DELTA_PROJECT = 4;
+
+  private static final int MAX_READ_ATTEMPTS = 3;
+
+  protected static final int MAX_INLINE_BYTES = 16 * 1024;
+  protected static final int MAX_PAGE_BYTES = 16 * 1024;
+
+  private long vertexId;
+  private byte[] rcKey;
+  private RamCloudGraph graph;
+
+  public RamCloudAdjacency(long vertexId, byte[] rcKey, RamCloudGraph graph) {
+    this.vertexId = vertexId;
+    this.rcKey = rcKey;
+    this.graph = graph;
+  }
+
+  /*
+   * A single (neighbor, direction, label) entry of an adjacency list. Entries
+   * are ordered by neighbor id first so that pages cover contiguous ranges of
+   * neighbors. The edge's properties are carried along, but are not part of
+   * the entry's identity.
+   */
+  public static class Entry implements Comparable<Entry> {
+    public final long neighborId;
+    public final boolean outgoing;
+    public final String label;
+    public final byte[] properties;
+    public final boolean spilled;
+    public final byte[] projection;
+
+    private byte[] labelBytes;
+
+    public Entry(long neighborId, boolean outgoing, String label) {
+      this(neighborId, outgoing, label, null, false, null);
+    }
+
+    public Entry(long neighborId, boolean outgoing, String label, byte[] properties, boolean spilled) {
+      this(neighborId, outgoing, label, properties, spilled, null);
+    }
+
+    /*
+     * properties is the edge's serialized property map if it is stored inline,
+     * and spilled says whether it is stored in the edge property table
+     * instead. Edges without properties have neither. projection is the
+     * serialized map of the neighbor's projected properties, if any.
+     */
+    public Entry(long neighborId, boolean outgoing, String label, byte[] properties, boolean spilled, byte[] projection) {
+      this.neighborId = neighborId;
+      this.outgoing = outgoing;
+      this.label = label;
+      this.properties = properties;
+      this.spilled = spilled;
+      this.projection = projection;
+      this.labelBytes = label.getBytes(LABEL_CHARSET);
+    }
+
+    public Entry withProperties(byte[] properties, boolean spilled) {
+      return new Entry(neighborId, outgoing, label, properties, spilled, projection);
+    }
+
+    public Entry withProjection(byte[] projection) {
+      return new Entry(neighborId, outgoing, label, properties, spilled, projection);
+    }
+
+    public boolean hasSameProperties(Entry other) {
+      return spilled == other.spilled && Arrays.equals(properties, other.properties);
+    }
+
+    protected int encodedSize() {
+      return 8 + 1 + 2 + labelBytes.length + (properties == null ? 0 : 4 + properties.length) + (projection == null ? 0 : 4 + projection.length);
+    }
+
+    protected void encode(ByteBuffer buffer) {
+      byte flags = outgoing ? FLAG_OUTGOING : 0;
+      if(properties != null)
+        flags |= FLAG_PROPERTIES;
+      if(spilled)
+        flags |= FLAG_SPILLED_PROPERTIES;
+      if(projection != null)
+        flags |= FLAG_PROJECTION;
+
+      buffer.putLong(neighborId);
+      buffer.put(flags);
+      buffer.putShort((short) labelBytes.length);
+      buffer.put(labelBytes);
+      if(properties != null) {
+        buffer.putInt(properties.length);
+        buffer.put(properties);
+      }
+      if(projection != null) {
+        buffer.putInt(projection.length);
+        buffer.put(projection);
+      }
+    }
+
+    protected static Entry decode(ByteBuffer buffer) {
+      long neighborId = buffer.getLong();
+      byte flags = buffer.get();
+      byte[] labelBytes = new byte[buffer.getShort() & 0xFFFF];
+      buffer.get(labelBytes);
+      byte[] properties = null;
+      if((flags & FLAG_PROPERTIES) != 0) {
+        properties = new byte[buffer.getInt()];
+        buffer.get(properties);
+      }
+      byte[] projection = null;
+      if((flags & FLAG_PROJECTION) != 0) {
+        projection = new byte[buffer.getInt()];
+        buffer.get(projection);
+      }
+      return new Entry(neighborId, (flags & FLAG_OUTGOING) != 0, new String(labelBytes, LABEL_CHARSET), properties, (flags & FLAG_SPILLED_PROPERTIES) != 0, projection);
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      if(neighborId != other.neighborId)
+        return neighborId < other.neighborId ? -1 : 1;
+      if(outgoing != other.outgoing)
+        return outgoing ? 1 : -1;
+      return label.compareTo(other.label);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null)
+        return false;
+      if (getClass() != obj.getClass())
+        return false;
+      Entry other = (Entry) obj;
+      return neighborId == other.neighborId && outgoing == other.outgoing && label.equals(other.label);
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + (int) (neighborId ^ (neighborId >>> 32));
+      result = prime * result + (outgoing ? 1231 : 1237);
+      result = prime * result + label.hashCode();
+      return result;
+    }
+
+    @Override
+    public String toString() {
+      return "Entry [neighborId=" + neighborId + ", outgoing=" + outgoing + ", label=" + label + ", spilled=" + spilled + "]";
+    }
+  }
+
+  /*
+   * Directory record describing one page of a paged adjacency list.
+   */
+  protected static class Page {
+    int pageId;
+    int bytes;
+    int count;
+    Entry first;
+
+    Page(int pageId) {
+      this.pageId = pageId;
+    }
+  }
+
+  /*
+   * Decoded contents of the head object. Exactly one of entries (inline) or
+   * pages (paged) is in use, depending on the format.
+   */
+  protected static class Head {
+    byte format = FORMAT_INLINE;
+    TreeSet<Entry> entries = new TreeSet<Entry>();
+    List<Page> pages = new ArrayList<Page>();
+    int nextPageId = 0;
+    int firstDelta = 0;
+    int deltaCount = 0;
+    int outDegree = 0;
+    int inDegree = 0;
+    TreeMap<String, int[]> labelCounts = new TreeMap<String, int[]>();
+    RamCloudBloomFilter bloomFilter = new RamCloudBloomFilter(0);
+    byte[] properties = null;
+
+    boolean isPaged() {
+      return format == FORMAT_PAGED;
+    }
+
+    /*
+     * Adjusts the degree and label counts for an entry that was added
+     * (change = 1) or removed (change = -1).
+     */
+    void count(Entry entry, int change) {
+      int[] counts = labelCounts.get(entry.label);
+
+      if(counts == null) {
+        counts = new int[2];
+        labelCounts.put(entry.label, counts);
+      }
+
+      if(entry.outgoing) {
+        outDegree += change;
+        counts[0] += change;
+      } else {
+        inDegree += change;
+        counts[1] += change;
+      }
+
+      if(counts[0] == 0 && counts[1] == 0)
+        labelCounts.remove(entry.label);
+    }
+
+    long getDegree(Direction direction, String... labels) {
+      if(labels.length == 0) {
+        return (direction.equals(Direction.IN) ? 0 : outDegree) +
+               (direction.equals(Direction.OUT) ? 0 : inDegree);
+      }
+
+      long degree = 0;
+      for(String label: new HashSet<String>(Arrays.asList(labels))) {
+        int[] counts = labelCounts.get(label);
+        if(counts != null) {
+          degree += (direction.equals(Direction.IN) ? 0 : counts[0]) +
+                    (direction.equals(Direction.OUT) ? 0 : counts[1]);
+        }
+      }
+      return degree;
+    }
+  }
+
+  /*
+   * A pending batch of additions or removals to a paged adjacency list.
+   */
+  protected static class Delta {
+    byte op;
+    TreeSet<Entry> entries;
+
+    Delta(byte op, TreeSet<Entry> entries) {
+      this.op = op;
+      this.entries = entries;
+    }
+  }
+
+  /*
+   * Encoding and decoding
+   */
+  protected static int encodedSize(Collection<Entry> entries) {
+    int size = 0;
+    for(Entry entry: entries)
+      size += entry.encodedSize();
+    return size;
+  }
+
+  protected static byte[] encodeEntries(Collection<Entry> entries) {
+    ByteBuffer buffer = ByteBuffer.allocate(4 + encodedSize(entries)).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(entries.size());
+    for(Entry entry: entries)
+      entry.encode(buffer);
+    return buffer.array();
+  }
+
+  protected static TreeSet<Entry> decodeEntries(ByteBuffer buffer) {
+    TreeSet<Entry> entries = new TreeSet<Entry>();
+    int count = buffer.getInt();
+    for(int i = 0; i < count; i++)
+      entries.add(Entry.decode(buffer));
+    return entries;
+  }
+
+  protected static byte[] encodeHead(Head head) {
+    return encodeHead(head, RamCloudCompression.DISABLED);
+  }
+
+  protected static byte[] encodeHead(Head head, int compressionThreshold) {
+    byte[] counts = encodeCounts(head);
+    int propertiesSize = head.properties == null ? 0 : 4 + head.properties.length;
+
+    if(!head.isPaged()) {
+      byte[] entries = encodeEntries(head.entries);
+      boolean compressed = false;
+
+      if(entries.length >= compressionThreshold) {
+        byte[] deflated = RamCloudCompression.deflate(entries, 0, entries.length);
+        if(4 + 4 + deflated.length < entries.length) {
+          entries = ByteBuffer.allocate(4 + 4 + deflated.length).order(ByteOrder.LITTLE_ENDIAN)
+                              .putInt(entries.length)
+                              .putInt(deflated.length)
+                              .put(deflated)
+                              .array();
+          compressed = true;
+        }
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(1 + propertiesSize + counts.length + head.bloomFilter.encodedSize() + entries.length).order(ByteOrder.LITTLE_ENDIAN);
+      encodeFormat(buffer, head, compressed);
+      buffer.put(counts);
+      head.bloomFilter.encode(buffer);
+      buffer.put(entries);
+      return buffer.array();
+    }
+
+    int size = 1 + propertiesSize + counts.length + head.bloomFilter.encodedSize() + 4 + 4 + 4 + 4;
+    for(Page page: head.pages)
+      size += 4 + 4 + 4 + page.first.encodedSize();
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    encodeFormat(buffer, head, false);
+    buffer.put(counts);
+    head.bloomFilter.encode(buffer);
+    buffer.putInt(head.firstDelta);
+    buffer.putInt(head.deltaCount);
+    buffer.putInt(head.nextPageId);
+    buffer.putInt(head.pages.size());
+    for(Page page: head.pages) {
+      buffer.putInt(page.pageId);
+      buffer.putInt(page.bytes);
+      buffer.putInt(page.count);
+      page.first.encode(buffer);
+    }
+    return buffer.array();
+  }
+
+  protected static Head decodeHead(byte[] value) {
+    Head head = new Head();
+
+    // Vertices are created with an empty adjacency object
+    if(value.length == 0)
+      return head;
+
+    ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+    byte format = decodeFormat(buffer, head);
+    decodeCounts(buffer, head);
+    head.bloomFilter = RamCloudBloomFilter.decode(buffer);
+    if(!head.isPaged() && (format & FORMAT_COMPRESSED) != 0) {
+      int rawLength = buffer.getInt();
+      int compressedLength = buffer.getInt();
+      byte[] entries = RamCloudCompression.inflate(value, buffer.position(), compressedLength, rawLength);
+      head.entries = decodeEntries(ByteBuffer.wrap(entries).order(ByteOrder.LITTLE_ENDIAN));
+    } else if(!head.isPaged()) {
+      head.entries = decodeEntries(buffer);
+    } else {
+      head.firstDelta = buffer.getInt();
+      head.deltaCount = buffer.getInt();
+      head.nextPageId = buffer.getInt();
+      int pageCount = buffer.getInt();
+      for(int i = 0; i < pageCount; i++) {
+        Page page = new Page(buffer.getInt());
+        page.bytes = buffer.getInt();
+        page.count = buffer.getInt();
+        page.first = Entry.decode(buffer);
+        head.pages.add(page);
+      }
+    }
+    return head;
+  }
+
+  /*
+   * The degree and per-label counts come right after the format byte, so
+   * that they can be decoded without touching the rest of the head:
+   *
+   *   (out_degree, in_degree, label_count, (ll,l,out,in), (ll,l,out,in), ... )
+   */
+  protected static byte[] encodeCounts(Head head) {
+    int size = 4 + 4 + 4;
+    for(String label: head.labelCounts.keySet())
+      size += 2 + label.getBytes(LABEL_CHARSET).length + 4 + 4;
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(head.outDegree);
+    buffer.putInt(head.inDegree);
+    buffer.putInt(head.labelCounts.size());
+    for(Map.Entry<String, int[]> labelCount: head.labelCounts.entrySet()) {
+      byte[] labelBytes = labelCount.getKey().getBytes(LABEL_CHARSET);
+      buffer.putShort((short) labelBytes.length);
+      buffer.put(labelBytes);
+      buffer.putInt(labelCount.getValue()[0]);
+      buffer.putInt(labelCount.getValue()[1]);
+    }
+    return buffer.array();
+  }
+
+  protected static void decodeCounts(ByteBuffer buffer, Head head) {
+    head.outDegree = buffer.getInt();
+    head.inDegree = buffer.getInt();
+    int labelCount = buffer.getInt();
+    for(int i = 0; i < labelCount; i++) {
+      byte[] labelBytes = new byte[buffer.getShort() & 0xFFFF];
+      buffer.get(labelBytes);
+      head.labelCounts.put(new String(labelBytes, LABEL_CHARSET), new int[] { buffer.getInt(), buffer.getInt() });
+    }
+  }
+
+  /*
+   * Decodes only the format, counts and Bloom filter of a head object.
+   */
+  protected static Head decodeHeadSummary(byte[] value) {
+    Head head = new Head();
+
+    if(value.length == 0)
+      return head;
+
+    ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+    decodeFormat(buffer, head);
+    decodeCounts(buffer, head);
+    head.bloomFilter = RamCloudBloomFilter.decode(buffer);
+    return head;
+  }
+
+  /*
+   * Decodes only the property section of a head object written with the
+   * merged vertex layout, or returns null if it has none.
+   */
+  protected static byte[] decodeProperties(byte[] value) {
+    if(value.length == 0)
+      return null;
+
+    Head head = new Head();
+    decodeFormat(ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN), head);
+    return head.properties;
+  }
+
+  private static void encodeFormat(ByteBuffer buffer, Head head, boolean compressed) {
+    byte format = compressed ? (byte) (head.format | FORMAT_COMPRESSED) : head.format;
+
+    if(head.properties == null) {
+      buffer.put(format);
+    } else {
+      buffer.put((byte) (format | FORMAT_WITH_PROPERTIES));
+      buffer.putInt(head.properties.length);
+      buffer.put(head.properties);
+    }
+  }
+
+  /*
+   * Decodes the format byte and property section into the head, returning
+   * the raw format byte with its flags.
+   */
+  private static byte decodeFormat(ByteBuffer buffer, Head head) {
+    byte format = buffer.get();
+    head.format = (byte) (format & FORMAT_MASK);
+    if((format & FORMAT_WITH_PROPERTIES) != 0) {
+      head.properties = new byte[buffer.getInt()];
+      buffer.get(head.properties);
+    }
+    return format;
+  }
+
+  protected static byte[] encodePage(Collection<Entry> entries, int compressionThreshold) {
+    byte[] value = encodeEntries(entries);
+    byte[] compressed = RamCloudCompression.compress(value, compressionThreshold);
+
+    if(compressed == value)
+      return value;
+
+    return ByteBuffer.allocate(4 + compressed.length).order(ByteOrder.LITTLE_ENDIAN)
+                     .putInt(COMPRESSED_PAGE)
+                     .put(compressed)
+                     .array();
+  }
+
+  protected static TreeSet<Entry> decodePage(byte[] value) {
+    ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+
+    if(buffer.getInt(0) != COMPRESSED_PAGE)
+      return decodeEntries(buffer);
+
+    byte[] compressed = new byte[value.length - 4];
+    System.arraycopy(value, 4, compressed, 0, compressed.length);
+    return decodeEntries(ByteBuffer.wrap(RamCloudCompression.decompress(compressed)).order(ByteOrder.LITTLE_ENDIAN));
+  }
+
+  protected static byte[] encodeDelta(Delta delta) {
+    byte[] entries = encodeEntries(delta.entries);
+    return ByteBuffer.allocate(1 + entries.length).order(ByteOrder.LITTLE_ENDIAN)
+                     .put(delta.op)
+                     .put(entries)
+                     .array();
+  }
+
+  protected static Delta decodeDelta(byte[] value) {
+    ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+    byte op = buffer.get();
+    return new Delta(op, decodeEntries(buffer));
+  }
+
+  /*
+   * Folds a sequence of deltas into the net set of entries to add and to
+   * remove, plus at most one delta per kind of update. Later deltas win over
+   * earlier ones for the same entry. Updates of entries that were removed are
+   * dropped, and an entry updated after being added is both added and
+   * updated, since the add is a no-op if the base list already had it.
+   */
+  protected static void foldDeltas(List<Delta> deltas, Collection<Entry> entriesToAdd, Collection<Entry> entriesToRemove, List<Delta> updates) {
+    Map<Entry, Byte> netOps = new HashMap<Entry, Byte>();
+    Map<Entry, Entry> netAdds = new HashMap<Entry, Entry>();
+    Map<Entry, Entry> netPropertyUpdates = new HashMap<Entry, Entry>();
+    Map<Entry, Entry> netProjectionUpdates = new HashMap<Entry, Entry>();
+
+    for(Delta delta: deltas) {
+      for(Entry entry: delta.entries) {
+        Byte netOp = netOps.get(entry);
+        if(delta.op == DELTA_ADD) {
+          netOps.put(entry, DELTA_ADD);
+          netAdds.put(entry, entry);
+        } else if(delta.op == DELTA_REMOVE) {
+          netOps.put(entry, DELTA_REMOVE);
+          netAdds.remove(entry);
+          netPropertyUpdates.remove(entry);
+          netProjectionUpdates.remove(entry);
+        } else if(netOp == null || netOp != DELTA_REMOVE) {
+          if(netOp == null)
+            netOps.put(entry, delta.op);
+          if(delta.op == DELTA_UPDATE)
+            netPropertyUpdates.put(entry, entry);
+          else
+            netProjectionUpdates.put(entry, entry);
+        }
+      }
+    }
+
+    for(Map.Entry<Entry, Byte> change: netOps.entrySet()) {
+      if(change.getValue() == DELTA_ADD)
+        entriesToAdd.add(netAdds.get(change.getKey()));
+      else if(change.getValue() == DELTA_REMOVE)
+        entriesToRemove.add(change.getKey());
+    }
+    if(!netPropertyUpdates.isEmpty())
+      updates.add(new Delta(DELTA_UPDATE, new TreeSet<Entry>(netPropertyUpdates.values())));
+    if(!netProjectionUpdates.isEmpty())
+      updates.add(new Delta(DELTA_PROJECT, new TreeSet<Entry>(netProjectionUpdates.values())));
+  }
+
+  protected static boolean isUpdate(byte op) {
+    return op == DELTA_UPDATE || op == DELTA_PROJECT;
+  }
+
+  /*
+   * Returns the entry of the set that is equal to the given one, along with
+   * its properties, or null if there is none.
+   */
+  protected static Entry lookup(TreeSet<Entry> entries, Entry entry) {
+    Entry found = entries.ceiling(entry);
+    return found != null && found.equals(entry) ? found : null;
+  }
+
+  /*
+   * Returns the stored entry with the part that the given update op changes
+   * taken from the change: the edge's properties for DELTA_UPDATE, the
+   * neighbor's projected properties for DELTA_PROJECT.
+   */
+  protected static Entry merge(Entry stored, Entry change, byte op) {
+    if(op == DELTA_PROJECT)
+      return stored.withProjection(change.projection);
+    else
+      return stored.withProperties(change.properties, change.spilled);
+  }
+
+  /*
+   * Applies an update to the equal entry of the set, if there is one and the
+   * update changes it. Returns whether anything changed.
+   */
+  protected static boolean replace(TreeSet<Entry> entries, Entry entry, byte op) {
+    Entry found = lookup(entries, entry);
+
+    if(found == null)
+      return false;
+
+    Entry merged = merge(found, entry, op);
+
+    if(merged.hasSameProperties(found) && Arrays.equals(merged.projection, found.projection))
+      return false;
+
+    entries.remove(found);
+    entries.add(merged);
+    return true;
+  }
+
+  /*
+   * Splits a sorted set of entries into consecutive chunks of at most
+   * maxBytes encoded bytes each.
+   */
+  protected static List<List<Entry>> split(Collection<Entry> entries, int maxBytes) {
+    List<List<Entry>> chunks = new ArrayList<List<Entry>>();
+    List<Entry> chunk = new ArrayList<Entry>();
+    int chunkBytes = 0;
+
+    for(Entry entry: entries) {
+      if(!chunk.isEmpty() && chunkBytes + entry.encodedSize() > maxBytes) {
+        chunks.add(chunk);
+        chunk = new ArrayList<Entry>();
+        chunkBytes = 0;
+      }
+      chunk.add(entry);
+      chunkBytes += entry.encodedSize();
+    }
+
+    if(!chunk.isEmpty())
+      chunks.add(chunk);
+
+    return chunks;
+  }
+
+  /*
+   * Returns the index of the page in the directory that the given entry falls
+   * into, i.e. the last page whose first entry is not greater than it.
+   */
+  protected static int findPage(List<Page> pages, Entry entry) {
+    int low = 0;
+    int high = pages.size() - 1;
+    while(low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if(pages.get(mid).first.compareTo(entry) <= 0)
+        low = mid;
+      else
+        high = mid - 1;
+    }
+    return low;
+  }
+
+  /*
+   * RAMCloud accessors
+   */
+  protected byte[] subKey(byte kind, int number) {
+    return ByteBuffer.allocate(rcKey.length + 1 + 4).order(ByteOrder.LITTLE_ENDIAN)
+                     .put(rcKey)
+                     .put(kind)
+                     .putInt(number)
+                     .array();
+  }
+
+  protected byte[] readHeadValue() {
+    try {
+      return graph.rcClient.read(graph.vertTableId, rcKey).value;
+    } catch(Exception e) {
+      logger.log(Level.WARNING, toString() + ": Error reading vertex table entry: " + e.toString());
+      return null;
+    }
+  }
+
+  protected Head readHead() {
+    byte[] value = readHeadValue();
+
+    if(value == null)
+      return null;
+
+    return decodeHead(value);
+  }
+
+  protected void writeHead(Head head) {
+    graph.rcClient.write(graph.vertTableId, rcKey, encodeHead(head, graph.getCompressionThreshold(graph.vertTableId)));
+  }
+
+  protected TreeSet<Entry> readPage(Page page) {
+    JRamCloud.Object pageEntry = graph.rcClient.read(graph.vertTableId, subKey(KEY_PAGE, page.pageId));
+    return decodePage(pageEntry.value);
+  }
+
+  protected void writePage(Page page, Collection<Entry> entries) {
+    page.bytes = encodedSize(entries);
+    page.count = entries.size();
+    Entry first = entries.iterator().next();
+    page.first = new Entry(first.neighborId, first.outgoing, first.label);
+    graph.rcClient.write(graph.vertTableId, subKey(KEY_PAGE, page.pageId), encodePage(entries, graph.getCompressionThreshold(graph.vertTableId)));
+  }
+
+  protected void removePage(Page page) {
+    graph.rcClient.remove(graph.vertTableId, subKey(KEY_PAGE, page.pageId));
+  }
+
+  protected List<Delta> readDeltas(Head head) {
+    List<Delta> deltas = new ArrayList<Delta>();
+    for(int i = 0; i < head.deltaCount; i++)
+      deltas.add(decodeDelta(graph.rcClient.read(graph.vertTableId, subKey(KEY_DELTA, head.firstDelta + i)).value));
+    return deltas;
+  }
+
+  protected void removeDeltas(int firstDelta, int deltaCount) {
+    for(int i = 0; i < deltaCount; i++)
+      graph.rcClient.remove(graph.vertTableId, subKey(KEY_DELTA, firstDelta + i));
+  }
+
+  /*
+   * Adjacency list operations
+   */
+  public void create(byte[] properties) {
+    Head head = new Head();
+    head.properties = properties;
+    writeHead(head);
+  }
+
+  /*
+   * Encodes the head of a new list holding the given entries, for callers
+   * that write it along with other objects (see RamCloudBulkLoader). The
+   * pages of lists too large to be inline are written right away.
+   */
+  protected byte[] encodeNew(byte[] properties, Collection<Entry> entries) {
+    Head head = new Head();
+    head.properties = properties;
+
+    for(Entry entry: entries) {
+      if(head.entries.add(entry))
+        head.count(entry, 1);
+    }
+    head.bloomFilter = RamCloudBloomFilter.build(head.entries);
+    if(encodedSize(head.entries) > MAX_INLINE_BYTES)
+      paginate(head);
+
+    return encodeHead(head, graph.getCompressionThreshold(graph.vertTableId));
+  }
+
+  /*
+   * Removes the given entries from an inline head, for callers that read and
+   * write heads in batches (see RamCloudBatchRemover). Returns whether any
+   * entry was removed, in which case the head needs writing back.
+   */
+  protected static boolean removeInline(Head head, Collection<Entry> entriesToRemove) {
+    boolean changed = false;
+
+    for(Entry entry: entriesToRemove) {
+      if(head.entries.remove(entry)) {
+        head.count(entry, -1);
+        changed = true;
+      }
+    }
+    if(changed)
+      head.bloomFilter = RamCloudBloomFilter.build(head.entries);
+
+    return changed;
+  }
+
+  /*
+   * Property section accessors for the merged vertex layout.
+   */
+  public byte[] getProperties() {
+    byte[] value = readHeadValue();
+
+    if(value == null)
+      return null;
+
+    return decodeProperties(value);
+  }
+
+  public void setProperties(byte[] properties) {
+    synchronized(graph.getAdjacencyLock(vertexId)) {
+      Head head = readHead();
+
+      if(head == null)
+        return;
+
+      head.properties = properties;
+      writeHead(head);
+    }
+  }
+
+  public List<Entry> getEntries() {
+    // A concurrent compaction may remove the deltas named by the head we read,
+    // in which case we simply start over with the compacted head
+    for(int attempt = 1; ; attempt++) {
+      Head head = readHead();
+
+      if(head == null)
+        return null;
+
+      if(!head.isPaged())
+        return new ArrayList<Entry>(head.entries);
+
+      try {
+        TreeSet<Entry> entries = new TreeSet<Entry>();
+        for(Page page: head.pages)
+          entries.addAll(readPage(page));
+
+        for(Delta delta: readDeltas(head)) {
+          if(delta.op == DELTA_ADD) {
+            entries.addAll(delta.entries);
+          } else if(delta.op == DELTA_REMOVE) {
+            entries.removeAll(delta.entries);
+          } else {
+            for(Entry entry: delta.entries)
+              replace(entries, entry, delta.op);
+          }
+        }
+
+        return new ArrayList<Entry>(entries);
+      } catch(Exception e) {
+        if(attempt == MAX_READ_ATTEMPTS) {
+          logger.log(Level.WARNING, toString() + ": Error reading adjacency pages: " + e.toString());
+          return null;
+        }
+      }
+    }
+  }
+
+  public long getDegree(Direction direction, String... labels) {
+    byte[] value = readHeadValue();
+
+    if(value == null)
+      return 0;
+
+    return decodeHeadSummary(value).getDegree(direction, labels);
+  }
+
+  /*
+   * Checks whether the list contains the given entry. Most misses are
+   * answered by the Bloom filter in the head alone; otherwise only the page
+   * the entry would fall into (plus any pending deltas) is read.
+   */
+  public boolean contains(Entry entry) {
+    return find(entry) != null;
+  }
+
+  /*
+   * Returns the stored entry equal to the given one, including the edge's
+   * properties, or null if the list does not contain it. Costs the same reads
+   * as contains().
+   */
+  public Entry find(Entry entry) {
+    for(int attempt = 1; ; attempt++) {
+      byte[] value = readHeadValue();
+
+      if(value == null)
+        return null;
+
+      if(!decodeHeadSummary(value).bloomFilter.mightContain(entry))
+        return null;
+
+      Head head = decodeHead(value);
+
+      if(!head.isPaged())
+        return lookup(head.entries, entry);
+
+      try {
+        Entry found = lookup(readPage(head.pages.get(findPage(head.pages, entry))), entry);
+        for(Delta delta: readDeltas(head)) {
+          Entry change = lookup(delta.entries, entry);
+          if(change == null)
+            continue;
+          if(delta.op == DELTA_ADD && found == null)
+            found = change;
+          else if(delta.op == DELTA_REMOVE)
+            found = null;
+          else if(isUpdate(delta.op) && found != null)
+            found = merge(found, change, delta.op);
+        }
+        return found;
+      } catch(Exception e) {
+        if(attempt == MAX_READ_ATTEMPTS) {
+          logger.log(Level.WARNING, toString() + ": Error reading adjacency pages: " + e.toString());
+          return null;
+        }
+      }
+    }
+  }
+
+  public void setEntries(Collection<Entry> entries) {
+    synchronized(graph.getAdjacencyLock(vertexId)) {
+      Head oldHead = readHead();
+      Head head = new Head();
+
+      if(oldHead != null) {
+        head.properties = oldHead.properties;
+        head.firstDelta = oldHead.firstDelta + oldHead.deltaCount;
+      }
+
+      for(Entry entry: entries) {
+        if(head.entries.add(entry))
+          head.count(entry, 1);
+      }
+      head.bloomFilter = RamCloudBloomFilter.build(head.entries);
+      if(encodedSize(head.entries) > MAX_INLINE_BYTES)
+        paginate(head);
+
+      writeHead(head);
+
+      if(oldHead != null && oldHead.isPaged()) {
+        for(Page page: oldHead.pages) {
+          if(!containsPage(head, page.pageId))
+            removePage(page);
+        }
+        removeDeltas(oldHead.firstDelta, oldHead.deltaCount);
+      }
+    }
+  }
+
+  public boolean addEntries(Collection<Entry> entriesToAdd) {
+    return update(DELTA_ADD, entriesToAdd);
+  }
+
+  public boolean removeEntries(Collection<Entry> entriesToRemove) {
+    return update(DELTA_REMOVE, entriesToRemove);
+  }
+
+  /*
+   * Replaces the properties of the given entries, if the list has them.
+   */
+  public boolean updateEntries(Collection<Entry> entriesToUpdate) {
+    return update(DELTA_UPDATE, entriesToUpdate);
+  }
+
+  /*
+   * Replaces the neighbor projections of the given entries, if the list has
+   * them.
+   */
+  public boolean projectEntries(Collection<Entry> entriesToProject) {
+    return update(DELTA_PROJECT, entriesToProject);
+  }
+
+  /*
+   * Folds all pending deltas of a paged list into its pages. Called by the
+   * RamCloudAdjacencyCompactor.
+   */
+  public void compact() {
+    synchronized(graph.getAdjacencyLock(vertexId)) {
+      Head head = readHead();
+
+      if(head == null || head.deltaCount == 0)
+        return;
+
+      List<Entry> entriesToAdd = new ArrayList<Entry>();
+      List<Entry> entriesToRemove = new ArrayList<Entry>();
+      List<Delta> updates = new ArrayList<Delta>();
+      List<Delta> deltas = readDeltas(head);
+      foldDeltas(deltas, entriesToAdd, entriesToRemove, updates);
+
+      // The counts were adjusted when each delta was logged. Take those
+      // adjustments back and let apply() count what actually changed in the
+      // pages.
+      for(Delta delta: deltas) {
+        if(isUpdate(delta.op))
+          continue;
+        for(Entry entry: delta.entries)
+          head.count(entry, delta.op == DELTA_ADD ? -1 : 1);
+      }
+
+      int firstDelta = head.firstDelta;
+      int deltaCount = head.deltaCount;
+      head.firstDelta += deltaCount;
+      head.deltaCount = 0;
+      apply(head, entriesToAdd, entriesToRemove, updates, true);
+      removeDeltas(firstDelta, deltaCount);
+
+      logger.log(Level.FINER, toString() + ": Compacted " + deltaCount + " deltas");
+    }
+  }
+
+  public void remove() {
+    synchronized(graph.getAdjacencyLock(vertexId)) {
+      Head head = readHead();
+
+      if(head != null && head.isPaged()) {
+        for(Page page: head.pages)
+          removePage(page);
+        removeDeltas(head.firstDelta, head.deltaCount);
+      }
+
+      graph.rcClient.remove(graph.vertTableId, rcKey);
+    }
+  }
+
+  /*
+   * Helpers
+   */
+  protected boolean update(byte op, Collection<Entry> entries) {
+    synchronized(graph.getAdjacencyLock(vertexId)) {
+      Head head = readHead();
+
+      if(head == null)
+        return false;
+
+      if(!head.isPaged() || graph.getDeltaLogThreshold() <= 0) {
+        List<Entry> none = new ArrayList<Entry>();
+        List<Delta> updates = new ArrayList<Delta>();
+        if(isUpdate(op))
+          updates.add(new Delta(op, new TreeSet<Entry>(entries)));
+        return apply(head, op == DELTA_ADD ? entries : none, op == DELTA_REMOVE ? entries : none, updates, false);
+      }
+
+      // Paged lists just log the change, leaving the pages alone. Only the
+      // entries it actually changes are logged, so that the counts and the
+      // result are exact. Large changes, such as a bulk load's, are logged
+      // as several deltas of at most a page each, as a single one could
+      // outgrow any object.
+      TreeSet<Entry> changes = filterByPresence(head, entries, op != DELTA_ADD);
+
+      if(changes.isEmpty())
+        return false;
+
+      for(List<Entry> chunk: split(changes, MAX_PAGE_BYTES)) {
+        Delta delta = new Delta(op, new TreeSet<Entry>(chunk));
+        graph.rcClient.write(graph.vertTableId, subKey(KEY_DELTA, head.firstDelta + head.deltaCount), encodeDelta(delta));
+        head.deltaCount++;
+        for(Entry entry: delta.entries) {
+          if(isUpdate(op))
+            continue;
+          head.count(entry, op == DELTA_ADD ? 1 : -1);
+          if(op == DELTA_ADD)
+            head.bloomFilter.add(entry);
+        }
+      }
+      writeHead(head);
+
+      if(head.deltaCount >= graph.getDeltaLogThreshold() || head.outDegree + head.inDegree > head.bloomFilter.getCapacity())
+        graph.getAdjacencyCompactor().schedule(vertexId);
+
+      return true;
+    }
+  }
+
+  /*
+   * Returns those of the given entries that are in the paged list, or those
+   * that are not. Each page involved and the pending deltas are read once,
+   * and entries the Bloom filter rules out not at all. Called with the lock
+   * held, so the head is current.
+   */
+  private TreeSet<Entry> filterByPresence(Head head, Collection<Entry> entries, boolean present) {
+    TreeSet<Entry> filtered = new TreeSet<Entry>();
+    List<Entry> candidates = new ArrayList<Entry>();
+
+    for(Entry entry: entries) {
+      if(head.bloomFilter.mightContain(entry))
+        candidates.add(entry);
+      else if(!present)
+        filtered.add(entry);
+    }
+
+    if(candidates.isEmpty())
+      return filtered;
+
+    List<Delta> deltas = readDeltas(head);
+
+    for(Map.Entry<Page, List<Entry>> pageEntries: groupByPage(head, candidates).entrySet()) {
+      TreeSet<Entry> stored = readPage(pageEntries.getKey());
+
+      for(Entry entry: pageEntries.getValue()) {
+        boolean found = stored.contains(entry);
+        for(Delta delta: deltas) {
+          if(delta.op == DELTA_ADD && delta.entries.contains(entry))
+            found = true;
+          else if(delta.op == DELTA_REMOVE && delta.entries.contains(entry))
+            found = false;
+        }
+        if(found == present)
+          filtered.add(entry);
+      }
+    }
+
+    return filtered;
+  }
+
+  /*
+   * Applies the given removals, additions and update deltas, in that order,
+   * to the base list, rewriting the touched pages. The head is written if
+   * anything changed, or if force is set. Returns whether any entry was
+   * added, removed or updated.
+   */
+  protected boolean apply(Head head, Collection<Entry> entriesToAdd, Collection<Entry> entriesToRemove, List<Delta> updates, boolean force) {
+    if(!head.isPaged()) {
+      boolean changed = false;
+      boolean updated = false;
+      for(Entry entry: entriesToRemove) {
+        if(head.entries.remove(entry)) {
+          head.count(entry, -1);
+          changed = true;
+        }
+      }
+      for(Entry entry: entriesToAdd) {
+        if(head.entries.add(entry)) {
+          head.count(entry, 1);
+          changed = true;
+        }
+      }
+      for(Delta update: updates) {
+        for(Entry entry: update.entries) {
+          if(replace(head.entries, entry, update.op))
+            updated = true;
+        }
+      }
+      if(changed)
+        head.bloomFilter = RamCloudBloomFilter.build(head.entries);
+      if(encodedSize(head.entries) > MAX_INLINE_BYTES)
+        paginate(head);
+      if(changed || updated || force)
+        writeHead(head);
+      return changed || updated;
+    }
+
+    boolean changed = false;
+    List<Page> emptyPages = new ArrayList<Page>();
+    Map<Page, List<Entry>> pageToAddsMap = groupByPage(head, entriesToAdd);
+    Map<Page, List<Entry>> pageToRemovesMap = groupByPage(head, entriesToRemove);
+    List<Map<Page, List<Entry>>> pageToUpdatesMaps = new ArrayList<Map<Page, List<Entry>>>();
+    Set<Page> touchedPages = new HashSet<Page>(pageToAddsMap.keySet());
+    touchedPages.addAll(pageToRemovesMap.keySet());
+    for(Delta update: updates) {
+      Map<Page, List<Entry>> pageToUpdatesMap = groupByPage(head, update.entries);
+      pageToUpdatesMaps.add(pageToUpdatesMap);
+      touchedPages.addAll(pageToUpdatesMap.keySet());
+    }
+
+    for(Page page: touchedPages) {
+      TreeSet<Entry> pageEntries = readPage(page);
+      boolean pageChanged = false;
+
+      if(pageToRemovesMap.containsKey(page)) {
+        for(Entry entry: pageToRemovesMap.get(page)) {
+          if(pageEntries.remove(entry)) {
+            head.count(entry, -1);
+            pageChanged = true;
+          }
+        }
+      }
+      if(pageToAddsMap.containsKey(page)) {
+        for(Entry entry: pageToAddsMap.get(page)) {
+          if(pageEntries.add(entry)) {
+            head.count(entry, 1);
+            head.bloomFilter.add(entry);
+            pageChanged = true;
+          }
+        }
+      }
+      for(int i = 0; i < updates.size(); i++) {
+        if(!pageToUpdatesMaps.get(i).containsKey(page))
+          continue;
+        for(Entry entry: pageToUpdatesMaps.get(i).get(page)) {
+          if(replace(pageEntries, entry, updates.get(i).op))
+            pageChanged = true;
+        }
+      }
+
+      if(!pageChanged)
+        continue;
+      changed = true;
+
+      if(pageEntries.isEmpty()) {
+        emptyPages.add(page);
+      } else if(encodedSize(pageEntries) <= MAX_PAGE_BYTES) {
+        writePage(page, pageEntries);
+      } else {
+        // Split the overflowing page into half-full chunks, each written to a
+        // freshly allocated page in its place in the directory. Batched
+        // additions, such as a folded delta log, can grow a page far past
+        // twice its size. The old page is removed only once the head no
+        // longer names it, so that readers holding the old head fail on it
+        // and retry, instead of missing the entries that moved.
+        List<List<Entry>> chunks = split(pageEntries, MAX_PAGE_BYTES / 2);
+        int index = head.pages.indexOf(page);
+        head.pages.remove(index);
+        for(int i = 0; i < chunks.size(); i++) {
+          Page newPage = new Page(head.nextPageId++);
+          writePage(newPage, chunks.get(i));
+          head.pages.add(index + i, newPage);
+        }
+        emptyPages.add(page);
+      }
+    }
+
+    if(!changed && !force)
+      return false;
+
+    head.pages.removeAll(emptyPages);
+
+    int totalBytes = 0;
+    for(Page page: head.pages)
+      totalBytes += page.bytes;
+
+    if(totalBytes <= MAX_INLINE_BYTES / 2 && head.deltaCount == 0) {
+      // Collapse the remaining pages back into an inline list
+      Head inlineHead = new Head();
+      inlineHead.properties = head.properties;
+      inlineHead.outDegree = head.outDegree;
+      inlineHead.inDegree = head.inDegree;
+      inlineHead.labelCounts = head.labelCounts;
+      for(Page page: head.pages)
+        inlineHead.entries.addAll(readPage(page));
+      inlineHead.bloomFilter = RamCloudBloomFilter.build(inlineHead.entries);
+      writeHead(inlineHead);
+      emptyPages.addAll(head.pages);
+    } else {
+      if(head.outDegree + head.inDegree > head.bloomFilter.getCapacity() && head.deltaCount == 0) {
+        // Rebuild the Bloom filter once the list has outgrown it. Capacity
+        // doubles each time, so the full read is amortized over the inserts.
+        List<Entry> entries = new ArrayList<Entry>();
+        for(Page page: head.pages)
+          entries.addAll(readPage(page));
+        head.bloomFilter = RamCloudBloomFilter.build(entries);
+      }
+      writeHead(head);
+    }
+
+    for(Page page: emptyPages)
+      removePage(page);
+
+    return changed;
+  }
+
+  private void paginate(Head head) {
+    // Leave half of each page free so that the next inserts do not
+    // immediately split it again
+    for(List<Entry> chunk: split(head.entries, MAX_PAGE_BYTES / 2)) {
+      Page page = new Page(head.nextPageId++);
+      writePage(page, chunk);
+      head.pages.add(page);
+    }
+    head.entries.clear();
+    head.format = FORMAT_PAGED;
+  }
+
+  private static Map<Page, List<Entry>> groupByPage(Head head, Collection<Entry> entries) {
+    Map<Page, List<Entry>> pageToEntriesMap = new HashMap<Page, List<Entry>>();
+
+    for(Entry entry: entries) {
+      Page page = head.pages.get(findPage(head.pages, entry));
+      List<Entry> pageEntries = pageToEntriesMap.get(page);
+
+      if(pageEntries == null)
+        pageEntries = new ArrayList<Entry>();
+
+      pageEntries.add(entry);
+      pageToEntriesMap.put(page, pageEntries);
+    }
+
+    return pageToEntriesMap;
+  }
+
+  private static boolean containsPage(Head head, int pageId) {
+    for(Page page: head.pages) {
+      if(page.pageId == pageId)
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudAdjacency [vertexId=" + vertexId + "]";
+  }
+}
@@ -0,0 +1,96 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Background thread that folds the delta logs of paged adjacency lists back
+ * into their pages once they have grown past the graph's threshold.
+ */
+public class RamCloudAdjacencyCompactor implements Runnable {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private RamCloudGraph graph;
+  private BlockingQueue<Long> queue = new LinkedBlockingQueue<Long>();
+  private Set<Long> scheduled = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+  private Thread thread;
+  private volatile boolean stopped = false;
+
+  public RamCloudAdjacencyCompactor(RamCloudGraph graph) {
+    this.graph = graph;
+  }
+
+  public synchronized void start() {
+    if(thread != null)
+      return;
+
+    thread = new Thread(this, "RamCloudAdjacencyCompactor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void shutdown() {
+    if(thread == null)
+      return;
+
+    stopped = true;
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  public void schedule(long vertexId) {
+    if(scheduled.add(vertexId))
+      queue.add(vertexId);
+  }
+
+  public int getBacklog() {
+    return queue.size();
+  }
+
+  @Override
+  public void run() {
+    while(!stopped) {
+      Long vertexId;
+
+      try {
+        vertexId = queue.take();
+      } catch(InterruptedException e) {
+        break;
+      }
+
+      scheduled.remove(vertexId);
+
+      try {
+        new RamCloudVertex(vertexId, graph).getAdjacency().compact();
+      } catch(Exception e) {
+        logger.log(Level.WARNING, "Failed to compact adjacency list of vertex " + vertexId + ": " + e.toString());
+      }
+    }
+  }
+}
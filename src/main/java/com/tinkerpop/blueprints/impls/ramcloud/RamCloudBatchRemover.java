@@ -0,0 +1,578 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Head;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Removes adjacency list entries and edge properties in batches. Taking an
+ * entry out of each neighbor's list one at a time is a read and a write per
+ * neighbor, plus a remove per edge with a property table entry. Instead, the
+ * lists to change are grouped by adjacency lock stripe, and each group is
+ *
+ *   - read with multi-reads of BATCH_OBJECTS heads, holding only the lock of
+ *     its stripe, so that groups never wait on each other
+ *   - updated in memory, inline lists only: the entries of paged lists live
+ *     in pages the head does not hold, so those go through removeEntries()
+ *   - written back with multi-writes, skipping the lists left unchanged
+ *
+ * Edge property table entries are read in batches for the out of line
+ * values they reference, then removed with multi-removes. The groups and
+ * property batches are spread over the graph's removal threads.
+ *
+ * Removing many vertices or edges at once (see RamCloudGraph.removeVertices()
+ * and removeEdges()) merges the entries to remove by list first, so that
+ * each remaining list is rewritten once however many of its edges go, and
+ * the removed vertices' own lists are dropped whole rather than updated.
+ */
+public class RamCloudBatchRemover {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int BATCH_OBJECTS = 1000;
+
+  private RamCloudGraph graph;
+
+  private Map<Long, List<Entry>> entriesByVertex = new HashMap<Long, List<Entry>>();
+  // Property maps whose out of line values to release
+  private List<byte[]> releasedPropertyMaps = new ArrayList<byte[]>();
+  private List<byte[]> spilledEdgeKeys = new ArrayList<byte[]>();
+
+  // Lists to remove whole, and whether they are paged
+  private Map<Long, Boolean> removedLists = new HashMap<Long, Boolean>();
+  private List<byte[]> vertexPropertyKeys = new ArrayList<byte[]>();
+  private Map<String, Map<Long, Number>> columnClears = new HashMap<String, Map<Long, Number>>();
+
+  // Edges between vertices being removed, by key, while they are read
+  private Map<ByteBuffer, Entry> internalEdges = new HashMap<ByteBuffer, Entry>();
+
+  private long vertexDelta = 0;
+  private Map<String, Long> edgeDeltas = new HashMap<String, Long>();
+
+  protected RamCloudBatchRemover(RamCloudGraph graph) {
+    this.graph = graph;
+  }
+
+  public void removeEntry(long vertexId, Entry entry) {
+    List<Entry> entries = entriesByVertex.get(vertexId);
+
+    if(entries == null) {
+      entries = new ArrayList<Entry>();
+      entriesByVertex.put(vertexId, entries);
+    }
+
+    entries.add(entry);
+  }
+
+  /*
+   * Removes the stored properties of an edge, given either of its entries,
+   * which carry its inline properties or say whether they were spilled to
+   * the edge property table.
+   */
+  public void removeEdgeProperties(byte[] edgeKey, Entry entry) {
+    if(entry.properties != null)
+      releasedPropertyMaps.add(entry.properties);
+    else if(entry.spilled)
+      spilledEdgeKeys.add(edgeKey);
+  }
+
+  /*
+   * Removes an edge from the lists of both its vertices, with its stored
+   * properties, and counts it. Edges read from an adjacency list know their
+   * properties already; others are looked up, and skipped if they do not
+   * exist. Returns whether the edge was.
+   */
+  public boolean removeEdge(RamCloudEdge edge) {
+    RamCloudVertex outVertex = (RamCloudVertex) edge.getVertex(Direction.OUT);
+    RamCloudVertex inVertex = (RamCloudVertex) edge.getVertex(Direction.IN);
+    Entry entry = edge.getEntry();
+
+    if(entry == null)
+      return false;
+
+    removeEntry(outVertex.id, new Entry(inVertex.id, true, edge.getLabel()));
+    removeEntry(inVertex.id, new Entry(outVertex.id, false, edge.getLabel()));
+    removeEdgeProperties(RamCloudEdge.edgeToRcKey(outVertex, inVertex, edge.getLabel()), entry);
+    count(0, edge.getLabel());
+    return true;
+  }
+
+  /*
+   * Removes the given vertices with all their edges, and counts them. Their
+   * lists are read in batches, on the removal threads, to find their edges.
+   * Edges between two of the vertices are removed once, however many of
+   * their lists have them; the entries of the remaining neighbors are merged
+   * by neighbor.
+   * Returns how many of the vertices exist.
+   */
+  public long removeVertices(final Set<Long> vertexIds) {
+    List<Callable<RamCloudBatchRemover>> tasks = new ArrayList<Callable<RamCloudBatchRemover>>();
+
+    for(final List<Long> batch: split(new ArrayList<Long>(vertexIds))) {
+      tasks.add(new Callable<RamCloudBatchRemover>() {
+        @Override
+        public RamCloudBatchRemover call() {
+          RamCloudBatchRemover remover = new RamCloudBatchRemover(graph);
+          remover.readVertices(batch, vertexIds);
+          return remover;
+        }
+      });
+    }
+
+    long found = 0;
+    Map<ByteBuffer, Entry> internalEdges = new HashMap<ByteBuffer, Entry>();
+
+    for(RamCloudBatchRemover remover: execute(tasks)) {
+      found -= remover.vertexDelta;
+      internalEdges.putAll(remover.internalEdges);
+      merge(remover);
+    }
+
+    for(Map.Entry<ByteBuffer, Entry> edge: internalEdges.entrySet()) {
+      removeEdgeProperties(edge.getKey().array(), edge.getValue());
+      count(0, edge.getValue().label);
+    }
+    return found;
+  }
+
+  /**
+   * Applies all the removals, returning once they are written. Entries are
+   * taken out of the remaining lists first, and only then are the removed
+   * elements' lists, properties and values dropped, so that nothing is left
+   * pointing at them. If any batch fails, the failure is thrown once the
+   * others of its step are done, and nothing is counted: after a failure in
+   * the first step, removing the same elements again completes the removal
+   * and counts it once. A failure while dropping may leave the counts off
+   * until they are rebuilt.
+   */
+  public void run() {
+    List<Callable<Void>> detachTasks = new ArrayList<Callable<Void>>();
+    List<Callable<Void>> dropTasks = new ArrayList<Callable<Void>>();
+    final Map<Object, List<Long>> vertexIdsByLock = new HashMap<Object, List<Long>>();
+    final Map<Object, List<Long>> removedListsByLock = new HashMap<Object, List<Long>>();
+
+    for(Long vertexId: entriesByVertex.keySet())
+      group(vertexIdsByLock, vertexId);
+    for(Long vertexId: removedLists.keySet())
+      group(removedListsByLock, vertexId);
+
+    for(final Map.Entry<Object, List<Long>> group: vertexIdsByLock.entrySet()) {
+      detachTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          synchronized(group.getKey()) {
+            for(List<Long> batch: split(group.getValue()))
+              removeEntries(batch);
+          }
+          return null;
+        }
+      });
+    }
+
+    for(final Map.Entry<Object, List<Long>> group: removedListsByLock.entrySet()) {
+      dropTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          synchronized(group.getKey()) {
+            for(List<Long> batch: split(group.getValue()))
+              removeLists(batch);
+          }
+          return null;
+        }
+      });
+    }
+
+    for(final List<byte[]> batch: split(releasedPropertyMaps)) {
+      dropTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(byte[] properties: batch)
+            releaseBlobs(properties);
+          return null;
+        }
+      });
+    }
+
+    for(final List<byte[]> batch: split(spilledEdgeKeys)) {
+      dropTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          removeEdgeProperties(batch);
+          return null;
+        }
+      });
+    }
+
+    for(final List<byte[]> batch: split(vertexPropertyKeys)) {
+      dropTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          remove(graph.vertPropTableId, batch);
+          return null;
+        }
+      });
+    }
+
+    for(final Map.Entry<String, Map<Long, Number>> column: columnClears.entrySet()) {
+      dropTasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          graph.getVertexColumn(column.getKey()).setAll(column.getValue());
+          return null;
+        }
+      });
+    }
+
+    execute(detachTasks);
+    execute(dropTasks);
+
+    if(vertexDelta != 0 || !edgeDeltas.isEmpty())
+      graph.getCounters().add(Thread.currentThread().getId(), vertexDelta, edgeDeltas);
+
+    entriesByVertex.clear();
+    releasedPropertyMaps.clear();
+    spilledEdgeKeys.clear();
+    removedLists.clear();
+    vertexPropertyKeys.clear();
+    columnClears.clear();
+    vertexDelta = 0;
+    edgeDeltas.clear();
+  }
+
+  /*
+   * Runs the tasks, on the removal threads unless there is only one, and
+   * returns their results. The first failure is thrown after all tasks
+   * finished.
+   */
+  private <T> List<T> execute(List<Callable<T>> tasks) {
+    List<T> results = new ArrayList<T>();
+
+    // Small removals are not worth a handoff to the removal threads
+    if(tasks.size() == 1) {
+      try {
+        results.add(tasks.get(0).call());
+      } catch(RuntimeException e) {
+        throw e;
+      } catch(Exception e) {
+        throw new RuntimeException(toString() + ": Failed to remove a batch", e);
+      }
+      return results;
+    }
+
+    if(tasks.isEmpty())
+      return results;
+
+    List<Future<T>> futures;
+    Throwable failure = null;
+
+    try {
+      futures = graph.getRemovalWorkers().invokeAll(tasks);
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(toString() + ": Interrupted while removing", e);
+    }
+
+    for(Future<T> future: futures) {
+      try {
+        results.add(future.get());
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(toString() + ": Interrupted while removing", e);
+      } catch(ExecutionException e) {
+        if(failure == null)
+          failure = e.getCause();
+        else
+          logger.log(Level.WARNING, toString() + ": Failed to remove a batch: " + e.getCause().toString());
+      }
+    }
+
+    if(failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    if(failure != null)
+      throw new RuntimeException(toString() + ": Failed to remove a batch", failure);
+
+    return results;
+  }
+
+  /*
+   * Reads a batch of the vertices being removed, with their properties
+   * unless they are stored in the heads, and records what removing them
+   * takes. vertexIds are all the vertices being removed.
+   */
+  private void readVertices(List<Long> batch, Set<Long> vertexIds) {
+    boolean merged = graph.isMergedVertexLayout();
+    int count = batch.size();
+    long[] tableIds = new long[merged ? count : 2 * count];
+    byte[][] keys = new byte[tableIds.length][];
+
+    for(int i = 0; i < count; i++) {
+      tableIds[i] = graph.vertTableId;
+      keys[i] = RamCloudVertex.idToRcKey(batch.get(i));
+      if(!merged) {
+        tableIds[count + i] = graph.vertPropTableId;
+        keys[count + i] = keys[i];
+      }
+    }
+
+    JRamCloud.Object[] objects = graph.rcClient.multiRead(tableIds, keys);
+
+    for(int i = 0; i < count; i++) {
+      long vertexId = batch.get(i);
+
+      // Vertices removed since the scan are left alone
+      if(objects[i] == null)
+        continue;
+
+      Head head = RamCloudAdjacency.decodeHead(objects[i].value);
+      List<Entry> entries = head.isPaged() ? new RamCloudVertex(vertexId, graph).getAdjacency().getEntries() : new ArrayList<Entry>(head.entries);
+      byte[] properties = merged ? head.properties : (objects[count + i] == null ? null : objects[count + i].value);
+
+      removedLists.put(vertexId, head.isPaged());
+      if(!merged)
+        vertexPropertyKeys.add(keys[i]);
+      if(properties != null)
+        releaseVertexProperties(vertexId, properties);
+      count(-1, null);
+
+      // Removing the list without its neighbors' entries would leave those
+      // pointing at a vertex that is gone
+      if(entries == null)
+        throw new IllegalStateException(toString() + ": Failed to read the edges of vertex " + vertexId);
+
+      for(Entry entry: entries) {
+        RamCloudVertex vertex = new RamCloudVertex(vertexId, graph);
+        RamCloudVertex neighbor = new RamCloudVertex(entry.neighborId, graph);
+        byte[] edgeKey = entry.outgoing ? RamCloudEdge.edgeToRcKey(vertex, neighbor, entry.label) : RamCloudEdge.edgeToRcKey(neighbor, vertex, entry.label);
+
+        // Edges between removed vertices, including loops, are usually in
+        // both lists, but only in one if a failed removal detached the other
+        // side already, so they are collected once by key
+        if(vertexIds.contains(entry.neighborId)) {
+          internalEdges.put(ByteBuffer.wrap(edgeKey), entry);
+          continue;
+        }
+
+        removeEntry(entry.neighborId, new Entry(vertexId, !entry.outgoing, entry.label));
+        removeEdgeProperties(edgeKey, entry);
+        count(0, entry.label);
+      }
+    }
+  }
+
+  /*
+   * Removes a batch of whole lists sharing a lock stripe, whose lock the
+   * caller holds. Paged lists have pages and deltas to remove as well.
+   */
+  private void removeLists(List<Long> vertexIds) {
+    List<byte[]> keys = new ArrayList<byte[]>();
+
+    for(Long vertexId: vertexIds) {
+      if(removedLists.get(vertexId))
+        new RamCloudVertex(vertexId, graph).getAdjacency().remove();
+      else
+        keys.add(RamCloudVertex.idToRcKey(vertexId));
+    }
+
+    remove(graph.vertTableId, keys);
+  }
+
+  private void remove(long tableId, List<byte[]> keys) {
+    long[] tableIds = new long[keys.size()];
+
+    for(int i = 0; i < tableIds.length; i++)
+      tableIds[i] = tableId;
+
+    graph.rcClient.multiRemove(tableIds, keys.toArray(new byte[keys.size()][]));
+  }
+
+  /*
+   * Records the out of line values of a removed vertex to release, and its
+   * column values to clear.
+   */
+  private void releaseVertexProperties(long vertexId, byte[] properties) {
+    Map<String, Object> map = RamCloudElement.getPropertyMap(properties);
+
+    if(map == null)
+      return;
+
+    releasedPropertyMaps.add(properties);
+    for(String key: map.keySet()) {
+      if(graph.getColumnarVertexProperties().contains(key))
+        clearColumn(key, vertexId);
+    }
+  }
+
+  private void clearColumn(String key, long vertexId) {
+    Map<Long, Number> clears = columnClears.get(key);
+
+    if(clears == null) {
+      clears = new HashMap<Long, Number>();
+      columnClears.put(key, clears);
+    }
+
+    clears.put(vertexId, null);
+  }
+
+  /*
+   * Counts a change of vertexDelta vertices, and of one edge with the given
+   * label, if any.
+   */
+  private void count(long vertexDelta, String label) {
+    this.vertexDelta += vertexDelta;
+
+    if(label != null) {
+      Long delta = edgeDeltas.get(label);
+      edgeDeltas.put(label, delta == null ? -1 : delta - 1);
+    }
+  }
+
+  private void merge(RamCloudBatchRemover other) {
+    for(Map.Entry<Long, List<Entry>> entries: other.entriesByVertex.entrySet()) {
+      for(Entry entry: entries.getValue())
+        removeEntry(entries.getKey(), entry);
+    }
+    releasedPropertyMaps.addAll(other.releasedPropertyMaps);
+    spilledEdgeKeys.addAll(other.spilledEdgeKeys);
+    removedLists.putAll(other.removedLists);
+    vertexPropertyKeys.addAll(other.vertexPropertyKeys);
+    for(Map.Entry<String, Map<Long, Number>> column: other.columnClears.entrySet()) {
+      for(Long vertexId: column.getValue().keySet())
+        clearColumn(column.getKey(), vertexId);
+    }
+
+    vertexDelta += other.vertexDelta;
+    for(Map.Entry<String, Long> delta: other.edgeDeltas.entrySet()) {
+      Long total = edgeDeltas.get(delta.getKey());
+      edgeDeltas.put(delta.getKey(), total == null ? delta.getValue() : total + delta.getValue());
+    }
+  }
+
+  private void group(Map<Object, List<Long>> vertexIdsByLock, long vertexId) {
+    Object lock = graph.getAdjacencyLock(vertexId);
+    List<Long> vertexIds = vertexIdsByLock.get(lock);
+
+    if(vertexIds == null) {
+      vertexIds = new ArrayList<Long>();
+      vertexIdsByLock.put(lock, vertexIds);
+    }
+
+    vertexIds.add(vertexId);
+  }
+
+  /*
+   * Removes the entries of a batch of lists sharing a lock stripe, whose
+   * lock the caller holds.
+   */
+  private void removeEntries(List<Long> vertexIds) {
+    long[] tableIds = new long[vertexIds.size()];
+    byte[][] keys = new byte[vertexIds.size()][];
+
+    for(int i = 0; i < keys.length; i++) {
+      tableIds[i] = graph.vertTableId;
+      keys[i] = RamCloudVertex.idToRcKey(vertexIds.get(i));
+    }
+
+    JRamCloud.Object[] heads = graph.rcClient.multiRead(tableIds, keys);
+    List<byte[]> changedKeys = new ArrayList<byte[]>();
+    List<byte[]> changedHeads = new ArrayList<byte[]>();
+    int compressionThreshold = graph.getCompressionThreshold(graph.vertTableId);
+
+    for(int i = 0; i < keys.length; i++) {
+      // Lists removed since are left alone, as removeEntries() would
+      if(heads[i] == null)
+        continue;
+
+      Head head = RamCloudAdjacency.decodeHead(heads[i].value);
+      List<Entry> entries = entriesByVertex.get(vertexIds.get(i));
+
+      // Entries removed already are left alone, whatever the list's format
+      if(head.isPaged()) {
+        new RamCloudVertex(vertexIds.get(i), graph).getAdjacency().removeEntries(entries);
+      } else if(RamCloudAdjacency.removeInline(head, entries)) {
+        changedKeys.add(keys[i]);
+        changedHeads.add(RamCloudAdjacency.encodeHead(head, compressionThreshold));
+      }
+    }
+
+    if(changedKeys.isEmpty())
+      return;
+
+    long[] changedTableIds = new long[changedKeys.size()];
+    for(int i = 0; i < changedTableIds.length; i++)
+      changedTableIds[i] = graph.vertTableId;
+
+    graph.rcClient.multiWrite(changedTableIds, changedKeys.toArray(new byte[changedKeys.size()][]), changedHeads.toArray(new byte[changedHeads.size()][]));
+  }
+
+  /*
+   * Removes a batch of edge property table entries, along with the out of
+   * line values they reference.
+   */
+  private void removeEdgeProperties(List<byte[]> edgeKeys) {
+    long[] tableIds = new long[edgeKeys.size()];
+    byte[][] keys = edgeKeys.toArray(new byte[edgeKeys.size()][]);
+
+    for(int i = 0; i < tableIds.length; i++)
+      tableIds[i] = graph.edgePropTableId;
+
+    for(JRamCloud.Object properties: graph.rcClient.multiRead(tableIds, keys)) {
+      if(properties != null)
+        releaseBlobs(properties.value);
+    }
+
+    graph.rcClient.multiRemove(tableIds, keys);
+  }
+
+  private void releaseBlobs(byte[] properties) {
+    Map<String, Object> map = RamCloudElement.getPropertyMap(properties);
+
+    if(map == null)
+      return;
+
+    for(Object value: map.values())
+      RamCloudBlob.release(graph, value);
+  }
+
+  private static <T> List<List<T>> split(List<T> list) {
+    List<List<T>> batches = new ArrayList<List<T>>();
+
+    for(int from = 0; from < list.size(); from += BATCH_OBJECTS)
+      batches.add(list.subList(from, Math.min(from + BATCH_OBJECTS, list.size())));
+
+    return batches;
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+}
@@ -0,0 +1,322 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Reference to a large property value stored out of line in the blob table,
+ * split across objects of at most CHUNK_BYTES each, keyed by
+ *
+ *   (prop_table_id, kl, element_key, property_key, generation, chunk_number)
+ *
+ * The reference takes the value's place in the element's property map, so
+ * that reading the element's other properties does not fetch the value.
+ * Values are stored as raw bytes if they are byte arrays, and serialized
+ * otherwise.
+ *
+ * Every value gets a random generation of its own, so that writing a new
+ * value never touches the chunks of the current one: readers holding the
+ * old reference keep reading the old value, and a write that fails halfway
+ * leaves it intact. The old chunks are released once the property map
+ * references the new value.
+ */
+public class RamCloudBlob implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  protected static final int CHUNK_BYTES = 512 * 1024;
+
+  private byte[] rcKey;
+  private long length;
+  private boolean serialized;
+
+  protected RamCloudBlob(byte[] rcKey, long length, boolean serialized) {
+    this.rcKey = rcKey;
+    this.length = length;
+    this.serialized = serialized;
+  }
+
+  /*
+   * A key for a new value of the given property, in a fresh generation.
+   */
+  protected static byte[] blobKey(long rcPropTableId, byte[] rcPropTableKey, String propertyKey) {
+    byte[] propertyKeyBytes = propertyKey.getBytes(RamCloudAdjacency.LABEL_CHARSET);
+    return ByteBuffer.allocate(8 + 4 + rcPropTableKey.length + propertyKeyBytes.length + 8).order(ByteOrder.LITTLE_ENDIAN)
+                     .putLong(rcPropTableId)
+                     .putInt(rcPropTableKey.length)
+                     .put(rcPropTableKey)
+                     .put(propertyKeyBytes)
+                     .putLong(ThreadLocalRandom.current().nextLong())
+                     .array();
+  }
+
+  protected static byte[] chunkKey(byte[] rcKey, int chunk) {
+    return ByteBuffer.allocate(rcKey.length + 4).order(ByteOrder.LITTLE_ENDIAN)
+                     .put(rcKey)
+                     .putInt(chunk)
+                     .array();
+  }
+
+  /*
+   * Returns the value's raw bytes if it should be stored out of line, or null
+   * if it is small enough to stay in the property map.
+   */
+  protected static byte[] toLargeValueBytes(Object value, int threshold) {
+    if(value instanceof byte[])
+      return ((byte[]) value).length > threshold ? (byte[]) value : null;
+
+    // Serialized strings take at most three bytes per character
+    if(value instanceof String && ((String) value).length() * 3 <= threshold)
+      return null;
+    if(value instanceof Number || value instanceof Boolean || value instanceof Character)
+      return null;
+
+    byte[] bytes = serialize(value);
+    return bytes != null && bytes.length > threshold ? bytes : null;
+  }
+
+  /*
+   * Stores the given value, if it is larger than the graph's blob threshold,
+   * and returns a reference to it. Returns the value itself otherwise.
+   */
+  protected static Object store(RamCloudGraph graph, byte[] rcKey, Object value) {
+    byte[] bytes = toLargeValueBytes(value, graph.getBlobThreshold());
+
+    if(bytes == null)
+      return value;
+
+    ChunkOutputStream out = new ChunkOutputStream(graph, rcKey);
+    out.write(bytes, 0, bytes.length);
+    out.close();
+    return new RamCloudBlob(rcKey, bytes.length, !(value instanceof byte[]));
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  protected int getChunkCount() {
+    return (int) ((length + CHUNK_BYTES - 1) / CHUNK_BYTES);
+  }
+
+  /*
+   * Reads back the whole value.
+   */
+  public Object getValue(RamCloudGraph graph) {
+    byte[] bytes = new byte[(int) length];
+    int offset = 0;
+
+    for(int chunk = 0; chunk < getChunkCount(); chunk++) {
+      byte[] chunkBytes = graph.rcClient.read(graph.blobTableId, chunkKey(rcKey, chunk)).value;
+      System.arraycopy(chunkBytes, 0, bytes, offset, chunkBytes.length);
+      offset += chunkBytes.length;
+    }
+
+    return serialized ? deserialize(bytes) : bytes;
+  }
+
+  /*
+   * Streams the value's bytes, reading one chunk at a time. For values that
+   * are not byte arrays these are the bytes of the serialized value.
+   */
+  public InputStream getInputStream(RamCloudGraph graph) {
+    return new ChunkInputStream(graph, rcKey, getChunkCount());
+  }
+
+  protected void remove(RamCloudGraph graph) {
+    for(int chunk = 0; chunk < getChunkCount(); chunk++)
+      graph.rcClient.remove(graph.blobTableId, chunkKey(rcKey, chunk));
+  }
+
+  /*
+   * Releases the chunks of a value no longer referenced, if it is stored out
+   * of line.
+   */
+  protected static void release(RamCloudGraph graph, Object oldValue) {
+    if(oldValue instanceof RamCloudBlob)
+      ((RamCloudBlob) oldValue).remove(graph);
+  }
+
+  private static byte[] serialize(Object value) {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      ObjectOutputStream oot = new ObjectOutputStream(baos);
+      oot.writeObject(value);
+      oot.close();
+      return baos.toByteArray();
+    } catch(IOException e) {
+      logger.log(Level.WARNING, "Got an exception while serializing property value: " + e.toString());
+      return null;
+    }
+  }
+
+  private static Object deserialize(byte[] bytes) {
+    try {
+      return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    } catch(IOException e) {
+      logger.log(Level.WARNING, "Got an exception while deserializing property value: " + e.toString());
+      return null;
+    } catch(ClassNotFoundException e) {
+      logger.log(Level.WARNING, "Got an exception while deserializing property value: " + e.toString());
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudBlob [length=" + length + ", serialized=" + serialized + "]";
+  }
+
+  /*
+   * Writes the bytes written to it as consecutive chunks, each one as soon as
+   * it is full.
+   */
+  protected static class ChunkOutputStream extends OutputStream {
+    private RamCloudGraph graph;
+    private byte[] rcKey;
+    private byte[] buffer = new byte[CHUNK_BYTES];
+    private int buffered = 0;
+    private int chunk = 0;
+    private long length = 0;
+    private boolean closed = false;
+
+    protected ChunkOutputStream(RamCloudGraph graph, byte[] rcKey) {
+      this.graph = graph;
+      this.rcKey = rcKey;
+    }
+
+    @Override
+    public void write(int b) {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      while(len > 0) {
+        int n = Math.min(len, CHUNK_BYTES - buffered);
+        System.arraycopy(b, off, buffer, buffered, n);
+        buffered += n;
+        length += n;
+        off += n;
+        len -= n;
+        if(buffered == CHUNK_BYTES)
+          writeChunk();
+      }
+    }
+
+    private void writeChunk() {
+      byte[] chunkBytes = new byte[buffered];
+      System.arraycopy(buffer, 0, chunkBytes, 0, buffered);
+      try {
+        graph.rcClient.write(graph.blobTableId, chunkKey(rcKey, chunk), chunkBytes);
+      } catch(RuntimeException e) {
+        abort();
+        throw e;
+      }
+      chunk++;
+      buffered = 0;
+    }
+
+    @Override
+    public void close() {
+      if(closed)
+        return;
+
+      closed = true;
+      if(buffered > 0)
+        writeChunk();
+      closed(new RamCloudBlob(rcKey, length, false));
+    }
+
+    /*
+     * Removes the chunks written so far, as a value that failed to be
+     * written will never be referenced.
+     */
+    private void abort() {
+      closed = true;
+      for(int i = 0; i < chunk; i++)
+        graph.rcClient.remove(graph.blobTableId, chunkKey(rcKey, i));
+    }
+
+    /*
+     * Called once all chunks are written, with a reference to them.
+     */
+    protected void closed(RamCloudBlob blob) {
+    }
+  }
+
+  /*
+   * Reads the chunks of a value one at a time.
+   */
+  protected static class ChunkInputStream extends InputStream {
+    private RamCloudGraph graph;
+    private byte[] rcKey;
+    private int chunkCount;
+    private int chunk = 0;
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+
+    protected ChunkInputStream(RamCloudGraph graph, byte[] rcKey, int chunkCount) {
+      this.graph = graph;
+      this.rcKey = rcKey;
+      this.chunkCount = chunkCount;
+    }
+
+    private boolean fill() {
+      while(position == buffer.length) {
+        if(chunk == chunkCount)
+          return false;
+        buffer = graph.rcClient.read(graph.blobTableId, chunkKey(rcKey, chunk++)).value;
+        position = 0;
+      }
+      return true;
+    }
+
+    @Override
+    public int read() {
+      if(!fill())
+        return -1;
+      return buffer[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if(len == 0)
+        return 0;
+      if(!fill())
+        return -1;
+      int n = Math.min(len, buffer.length - position);
+      System.arraycopy(buffer, position, b, off, n);
+      position += n;
+      return n;
+    }
+  }
+}
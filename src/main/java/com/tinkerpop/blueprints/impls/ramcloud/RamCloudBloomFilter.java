@@ -0,0 +1,120 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/*
+ * A Bloom filter over the entries of an adjacency list, stored in the head
+ * object so that most "does this edge exist" checks can be answered without
+ * reading the list itself:
+ *
+ *   (capacity, bl, bits)
+ *
+ * The filter is sized for a given number of entries at about 1% false
+ * positives, up to MAX_BYTES. Removed entries are not cleared, so the filter
+ * is rebuilt from scratch whenever the list outgrows its capacity.
+ */
+public class RamCloudBloomFilter {
+
+  protected static final int MIN_CAPACITY = 16;
+  protected static final int MAX_BYTES = 8 * 1024;
+
+  private static final int BITS_PER_ENTRY = 10;
+  private static final int NUM_HASHES = 7;
+
+  private int capacity;
+  private byte[] bits;
+
+  public RamCloudBloomFilter(int capacity) {
+    this.capacity = Math.max(capacity, MIN_CAPACITY);
+    this.bits = new byte[Math.min((this.capacity * BITS_PER_ENTRY + 7) / 8, MAX_BYTES)];
+  }
+
+  private RamCloudBloomFilter(int capacity, byte[] bits) {
+    this.capacity = capacity;
+    this.bits = bits;
+  }
+
+  /*
+   * Builds a filter over the given entries, with room for as many again.
+   */
+  public static RamCloudBloomFilter build(Collection<RamCloudAdjacency.Entry> entries) {
+    RamCloudBloomFilter bloomFilter = new RamCloudBloomFilter(2 * entries.size());
+    for(RamCloudAdjacency.Entry entry: entries)
+      bloomFilter.add(entry);
+    return bloomFilter;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public void add(RamCloudAdjacency.Entry entry) {
+    long hash = hash(entry);
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    int numBits = bits.length * 8;
+
+    for(int i = 0; i < NUM_HASHES; i++) {
+      int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % numBits;
+      bits[bit >>> 3] |= 1 << (bit & 7);
+    }
+  }
+
+  public boolean mightContain(RamCloudAdjacency.Entry entry) {
+    long hash = hash(entry);
+    int hash1 = (int) hash;
+    int hash2 = (int) (hash >>> 32);
+    int numBits = bits.length * 8;
+
+    for(int i = 0; i < NUM_HASHES; i++) {
+      int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % numBits;
+      if((bits[bit >>> 3] & (1 << (bit & 7))) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  protected int encodedSize() {
+    return 4 + 4 + bits.length;
+  }
+
+  protected void encode(ByteBuffer buffer) {
+    buffer.putInt(capacity);
+    buffer.putInt(bits.length);
+    buffer.put(bits);
+  }
+
+  protected static RamCloudBloomFilter decode(ByteBuffer buffer) {
+    int capacity = buffer.getInt();
+    byte[] bits = new byte[buffer.getInt()];
+    buffer.get(bits);
+    return new RamCloudBloomFilter(capacity, bits);
+  }
+
+  private static long hash(RamCloudAdjacency.Entry entry) {
+    // MurmurHash3's 64 bit finalizer over the entry's fields
+    long hash = entry.neighborId * 0x9E3779B97F4A7C15L + entry.label.hashCode() * 31L + (entry.outgoing ? 1 : 0);
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
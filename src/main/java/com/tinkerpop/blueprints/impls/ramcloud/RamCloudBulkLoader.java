@@ -0,0 +1,422 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+import com.tinkerpop.blueprints.util.ExceptionFactory;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Loads vertices and edges much faster than addVertex() and addEdge(), which
+ * check for existence and rewrite an adjacency list per edge. The loader
+ * trusts its caller instead: vertex ids must be new and edges must not
+ * exist yet. Vertices, edges and properties are buffered, and each flush
+ *
+ *   - builds the whole adjacency list of every vertex added since the last
+ *     flush, and writes it along with the vertex's properties and the
+ *     spilled edge property maps in multi-writes of BATCH_OBJECTS objects,
+ *     spread over the worker threads
+ *   - adds the edges of vertices from earlier flushes (or loaded otherwise)
+ *     to their lists with one update per vertex, also spread over the
+ *     workers, creating vertices that edges name but that do not exist
+ *     unless another client creates them first
+ *   - updates columns block by block and the counters once
+ *
+ * A flush happens once maxBufferedElements vertices and edges are buffered,
+ * and on flush() and close(). Elements returned by the loader are only
+ * readable once flushed. The loader itself is not thread-safe.
+ */
+public class RamCloudBulkLoader {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int BATCH_OBJECTS = 1000;
+  private static final int BATCH_BYTES = 1 << 20;
+  private static final int MAX_ATTEMPTS = 10;
+
+  private RamCloudGraph graph;
+  private ExecutorService workers;
+  private int maxBufferedElements;
+
+  // Vertices added since the last flush, with their stored property maps
+  private Map<Long, Map<String, Object>> newVertices = new LinkedHashMap<Long, Map<String, Object>>();
+  private Map<Long, TreeSet<Entry>> entriesByVertex = new HashMap<Long, TreeSet<Entry>>();
+  private Map<Long, byte[]> projections = new HashMap<Long, byte[]>();
+  private Writes writes = new Writes();
+  private Map<String, Long> edgeDeltas = new HashMap<String, Long>();
+  private int bufferedEdges = 0;
+
+  protected RamCloudBulkLoader(RamCloudGraph graph, int workerCount, int maxBufferedElements) {
+    this.graph = graph;
+    this.maxBufferedElements = maxBufferedElements;
+    this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "RamCloudBulkLoader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /*
+   * Objects to write, as the parallel arrays JRamCloud.multiWrite() takes.
+   */
+  private static class Writes {
+    List<Long> tableIds = new ArrayList<Long>();
+    List<byte[]> keys = new ArrayList<byte[]>();
+    List<byte[]> values = new ArrayList<byte[]>();
+    int bytes = 0;
+
+    void add(long tableId, byte[] key, byte[] value) {
+      tableIds.add(tableId);
+      keys.add(key);
+      values.add(value);
+      bytes += key.length + value.length;
+    }
+
+    int size() {
+      return keys.size();
+    }
+  }
+
+  /**
+   * Adds a vertex with the given properties. The id, if not null, must not
+   * be in use.
+   */
+  public Vertex addVertex(Object id, Map<String, Object> properties) {
+    long vertexId;
+
+    if(id == null)
+      vertexId = graph.newVertexId();
+    else if(id instanceof Number)
+      vertexId = ((Number) id).longValue();
+    else if(id instanceof String)
+      vertexId = Long.parseLong((String) id, 10);
+    else
+      throw new IllegalArgumentException("ID argument " + id + " of type " + id.getClass() + " is not supported");
+
+    // Keep later vertices without an id from getting this one
+    if(id != null)
+      graph.reserveVertexId(vertexId);
+
+    RamCloudVertex vertex = new RamCloudVertex(vertexId, graph);
+    Map<String, Object> map = new HashMap<String, Object>();
+
+    for(Map.Entry<String, Object> property: properties.entrySet()) {
+      checkProperty(property.getKey(), property.getValue());
+      if(graph.getColumnarVertexProperties().contains(property.getKey()) && !(property.getValue() instanceof Number))
+        throw new IllegalArgumentException("Columnar vertex property " + property.getKey() + " only takes numbers, not " + property.getValue().getClass().getName());
+
+      map.put(property.getKey(), RamCloudBlob.store(graph, RamCloudBlob.blobKey(graph.vertPropTableId, vertex.rcKey, property.getKey()), property.getValue()));
+    }
+
+    newVertices.put(vertexId, map);
+    if(newVertices.size() + bufferedEdges >= maxBufferedElements)
+      flush();
+
+    return vertex;
+  }
+
+  /**
+   * Adds an edge with the given properties. Vertices that neither exist nor
+   * were added to this loader are created without properties.
+   */
+  public Edge addEdge(Vertex outVertex, Vertex inVertex, String label, Map<String, Object> properties) {
+    if(label == null)
+      throw ExceptionFactory.edgeLabelCanNotBeNull();
+
+    long outVertexId = (Long) outVertex.getId();
+    long inVertexId = (Long) inVertex.getId();
+    RamCloudEdge edge = new RamCloudEdge((RamCloudVertex) outVertex, (RamCloudVertex) inVertex, label, graph);
+    byte[] rcKey = RamCloudEdge.edgeToRcKey((RamCloudVertex) outVertex, (RamCloudVertex) inVertex, label);
+    byte[] inlineProperties = null;
+    boolean spilled = false;
+
+    // Entries are equal regardless of their properties
+    if(getEntries(outVertexId).contains(new Entry(inVertexId, true, label)))
+      return edge;
+
+    if(!properties.isEmpty()) {
+      Map<String, Object> map = new HashMap<String, Object>();
+      for(Map.Entry<String, Object> property: properties.entrySet()) {
+        checkProperty(property.getKey(), property.getValue());
+        if(property.getKey().equals("label"))
+          throw ExceptionFactory.propertyKeyLabelIsReservedForEdges();
+        map.put(property.getKey(), RamCloudBlob.store(graph, RamCloudBlob.blobKey(graph.edgePropTableId, rcKey, property.getKey()), property.getValue()));
+      }
+
+      inlineProperties = RamCloudElement.getPropertyMapBytes(map);
+      if(inlineProperties.length > graph.getInlineEdgePropertyThreshold()) {
+        writes.add(graph.edgePropTableId, rcKey, RamCloudCompression.compress(inlineProperties, graph.getCompressionThreshold(graph.edgePropTableId)));
+        inlineProperties = null;
+        spilled = true;
+      }
+    }
+
+    getEntries(outVertexId).add(new Entry(inVertexId, true, label, inlineProperties, spilled, getProjection(inVertexId)));
+    getEntries(inVertexId).add(new Entry(outVertexId, false, label, inlineProperties, spilled, getProjection(outVertexId)));
+
+    Long delta = edgeDeltas.get(label);
+    edgeDeltas.put(label, delta == null ? 1 : delta + 1);
+
+    if(newVertices.size() + ++bufferedEdges >= maxBufferedElements)
+      flush();
+
+    return edge;
+  }
+
+  private TreeSet<Entry> getEntries(long vertexId) {
+    TreeSet<Entry> entries = entriesByVertex.get(vertexId);
+
+    if(entries == null) {
+      entries = new TreeSet<Entry>();
+      entriesByVertex.put(vertexId, entries);
+    }
+
+    return entries;
+  }
+
+  /*
+   * The projection of the given vertex to store in its neighbors' entries,
+   * read at most once per flush for vertices not added since the last one.
+   */
+  private byte[] getProjection(long vertexId) {
+    Set<String> keys = graph.getProjectedVertexProperties();
+
+    if(keys.isEmpty())
+      return null;
+
+    Map<String, Object> map = newVertices.get(vertexId);
+    if(map != null) {
+      Map<String, Object> projectedMap = new HashMap<String, Object>();
+      for(String key: keys) {
+        if(map.containsKey(key))
+          projectedMap.put(key, map.get(key));
+      }
+      return RamCloudElement.getPropertyMapBytes(projectedMap);
+    }
+
+    if(!projections.containsKey(vertexId))
+      projections.put(vertexId, new RamCloudVertex(vertexId, graph).getProjection());
+    return projections.get(vertexId);
+  }
+
+  private static void checkProperty(String key, Object value) {
+    if(value == null)
+      throw ExceptionFactory.propertyValueCanNotBeNull();
+    if(key == null)
+      throw ExceptionFactory.propertyKeyCanNotBeNull();
+    if(key.equals(""))
+      throw ExceptionFactory.propertyKeyCanNotBeEmpty();
+    if(key.equals("id"))
+      throw ExceptionFactory.propertyKeyIdIsReserved();
+  }
+
+  /**
+   * Writes everything buffered so far.
+   */
+  public void flush() {
+    long startTime = System.currentTimeMillis();
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+
+    // New vertices get their whole adjacency list in one object
+    for(Map.Entry<Long, Map<String, Object>> vertex: newVertices.entrySet()) {
+      RamCloudVertex newVertex = new RamCloudVertex(vertex.getKey(), graph);
+      TreeSet<Entry> entries = entriesByVertex.remove(vertex.getKey());
+      byte[] properties = RamCloudElement.getPropertyMapBytes(vertex.getValue());
+
+      if(entries == null)
+        entries = new TreeSet<Entry>();
+
+      if(graph.isMergedVertexLayout()) {
+        properties = RamCloudCompression.compress(properties, graph.getCompressionThreshold(graph.vertTableId));
+        writes.add(graph.vertTableId, newVertex.rcKey, newVertex.getAdjacency().encodeNew(properties, entries));
+      } else {
+        writes.add(graph.vertTableId, newVertex.rcKey, newVertex.getAdjacency().encodeNew(null, entries));
+        writes.add(graph.vertPropTableId, newVertex.rcKey, RamCloudCompression.compress(properties, graph.getCompressionThreshold(graph.vertPropTableId)));
+      }
+
+      if(writes.size() >= BATCH_OBJECTS || writes.bytes >= BATCH_BYTES) {
+        futures.add(submitWrites(writes));
+        writes = new Writes();
+      }
+    }
+    if(writes.size() > 0)
+      futures.add(submitWrites(writes));
+    writes = new Writes();
+    await(futures);
+
+    // Vertices from before only get the new entries added, and vertices
+    // only named by edges get created, unless someone else creates them
+    // first
+    final AtomicLong createdVertices = new AtomicLong();
+    futures.clear();
+    for(final Map.Entry<Long, TreeSet<Entry>> vertex: entriesByVertex.entrySet()) {
+      futures.add(workers.submit(new Runnable() {
+        @Override
+        public void run() {
+          RamCloudVertex oldVertex = new RamCloudVertex(vertex.getKey(), graph);
+
+          for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            if(oldVertex.getAdjacency().addEntries(vertex.getValue()))
+              return;
+
+            // Nothing was added, either as the vertex is missing or as all
+            // its edges were there already, and counted then
+            if(oldVertex.exists()) {
+              uncount(vertex.getValue());
+              return;
+            }
+
+            if(createVertex(oldVertex, vertex.getValue())) {
+              createdVertices.incrementAndGet();
+              return;
+            }
+          }
+
+          throw new IllegalStateException(RamCloudBulkLoader.this.toString() + ": Failed to add edges to " + oldVertex);
+        }
+      }));
+    }
+    await(futures);
+
+    for(String key: graph.getColumnarVertexProperties()) {
+      Map<Long, Number> values = new HashMap<Long, Number>();
+      for(Map.Entry<Long, Map<String, Object>> vertex: newVertices.entrySet()) {
+        if(vertex.getValue().containsKey(key))
+          values.put(vertex.getKey(), (Number) vertex.getValue().get(key));
+      }
+      if(!values.isEmpty())
+        graph.getVertexColumn(key).setAll(values);
+    }
+
+    long vertexCount = newVertices.size() + createdVertices.get();
+    if(vertexCount > 0 || !edgeDeltas.isEmpty())
+      graph.getCounters().add(Thread.currentThread().getId(), vertexCount, edgeDeltas);
+
+    logger.log(Level.FINE, toString() + ": Flushed " + vertexCount + " vertices and " + bufferedEdges + " edges in " + (System.currentTimeMillis() - startTime) + " ms");
+
+    newVertices.clear();
+    entriesByVertex.clear();
+    projections.clear();
+    edgeDeltas.clear();
+    bufferedEdges = 0;
+  }
+
+  /*
+   * Creates a vertex that edges name but that did not exist, with the given
+   * entries, unless it exists by now. Returns whether it did.
+   */
+  private boolean createVertex(RamCloudVertex vertex, TreeSet<Entry> entries) {
+    JRamCloud.RejectRules rules = graph.rcClient.new RejectRules();
+    byte[] properties = graph.isMergedVertexLayout() ? new byte[0] : null;
+
+    rules.rejectIfExists(true);
+    try {
+      graph.rcClient.write(graph.vertTableId, vertex.rcKey, vertex.getAdjacency().encodeNew(properties, entries), rules);
+    } catch(Exception e) {
+      // Created since we looked
+      logger.log(Level.FINER, toString() + ": Retrying adding edges to " + vertex + ": " + e.toString());
+      return false;
+    }
+
+    if(!graph.isMergedVertexLayout()) {
+      try {
+        graph.rcClient.write(graph.vertPropTableId, vertex.rcKey, new byte[0], rules);
+      } catch(Exception e) {
+        // Properties written by whoever else created the vertex
+      }
+    }
+    return true;
+  }
+
+  /*
+   * Takes back the count of the edges of entries that already existed.
+   * Edges are counted with their out vertex's entries.
+   */
+  private void uncount(TreeSet<Entry> entries) {
+    synchronized(edgeDeltas) {
+      for(Entry entry: entries) {
+        if(!entry.outgoing)
+          continue;
+        Long delta = edgeDeltas.get(entry.label);
+        edgeDeltas.put(entry.label, delta == null ? -1 : delta - 1);
+      }
+    }
+  }
+
+  private Future<?> submitWrites(final Writes batch) {
+    return workers.submit(new Runnable() {
+      @Override
+      public void run() {
+        long[] tableIds = new long[batch.size()];
+        for(int i = 0; i < tableIds.length; i++)
+          tableIds[i] = batch.tableIds.get(i);
+
+        graph.rcClient.multiWrite(tableIds, batch.keys.toArray(new byte[batch.size()][]), batch.values.toArray(new byte[batch.size()][]));
+      }
+    });
+  }
+
+  private void await(List<Future<?>> futures) {
+    for(Future<?> future: futures) {
+      try {
+        future.get();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(toString() + ": Interrupted while flushing", e);
+      } catch(ExecutionException e) {
+        throw new RuntimeException(toString() + ": Failed to flush", e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Flushes and stops the worker threads.
+   */
+  public void close() {
+    try {
+      flush();
+    } finally {
+      workers.shutdown();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudBulkLoader";
+  }
+}
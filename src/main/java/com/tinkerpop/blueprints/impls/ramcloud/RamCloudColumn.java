@@ -0,0 +1,439 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Column copy of a numeric vertex property, stored next to the vertex
+ * property maps so that scans and aggregations over that one property read a
+ * few large objects instead of every vertex's map. The column is split into
+ * blocks of BLOCK_SIZE consecutive vertex ids, each a column table object
+ * keyed by
+ *
+ *   (kl, k, block_number)
+ *
+ * and holding a presence bitmap and a dense array of longs or doubles:
+ *
+ *   (type, count, bitmap, values)
+ *
+ * A block starts out holding longs and switches to doubles for good once a
+ * floating point value is stored in it. The property maps stay the
+ * authoritative copy; blocks are updated read-modify-write along with them,
+ * serialized within this process but not across processes, so rebuild()
+ * recomputes the column from the maps.
+ */
+public class RamCloudColumn implements Iterable<RamCloudColumn.Block> {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int BLOCK_SHIFT = 10;
+  protected static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+  // About 8KB each, so rebuild() holds up to some 128MB of blocks
+  private static final int MAX_REBUILD_BLOCKS = 1 << 14;
+
+  protected static final byte TYPE_LONG = 1;
+  protected static final byte TYPE_DOUBLE = 2;
+
+  private RamCloudGraph graph;
+  private String key;
+  private byte[] keyPrefix;
+
+  protected RamCloudColumn(RamCloudGraph graph, String key) {
+    this.graph = graph;
+    this.key = key;
+    this.keyPrefix = keyPrefix(key);
+  }
+
+  /*
+   * The values of a column for BLOCK_SIZE consecutive vertex ids, starting at
+   * getFirstVertexId().
+   */
+  public static class Block {
+    protected long blockNumber;
+    protected byte type = TYPE_LONG;
+    protected int count = 0;
+    protected long[] present = new long[BLOCK_SIZE / 64];
+    protected long[] longs = new long[BLOCK_SIZE];
+    protected double[] doubles;
+
+    protected Block(long blockNumber) {
+      this.blockNumber = blockNumber;
+    }
+
+    public long getFirstVertexId() {
+      return blockNumber << BLOCK_SHIFT;
+    }
+
+    /*
+     * Number of vertices in the block that have a value.
+     */
+    public int getCount() {
+      return count;
+    }
+
+    public boolean isDouble() {
+      return type == TYPE_DOUBLE;
+    }
+
+    public boolean isPresent(int i) {
+      return (present[i >>> 6] & (1L << (i & 63))) != 0;
+    }
+
+    public long getLong(int i) {
+      return isDouble() ? (long) doubles[i] : longs[i];
+    }
+
+    public double getDouble(int i) {
+      return isDouble() ? doubles[i] : (double) longs[i];
+    }
+
+    public Number get(int i) {
+      if(!isPresent(i))
+        return null;
+
+      return isDouble() ? (Number) Double.valueOf(doubles[i]) : (Number) Long.valueOf(longs[i]);
+    }
+
+    protected void set(int i, Number value) {
+      if(!isDouble() && (value instanceof Double || value instanceof Float)) {
+        doubles = new double[BLOCK_SIZE];
+        for(int j = 0; j < BLOCK_SIZE; j++)
+          doubles[j] = longs[j];
+        longs = null;
+        type = TYPE_DOUBLE;
+      }
+
+      if(isDouble())
+        doubles[i] = value.doubleValue();
+      else
+        longs[i] = value.longValue();
+
+      if(!isPresent(i)) {
+        present[i >>> 6] |= 1L << (i & 63);
+        count++;
+      }
+    }
+
+    protected void clear(int i) {
+      if(!isPresent(i))
+        return;
+
+      present[i >>> 6] &= ~(1L << (i & 63));
+      if(isDouble())
+        doubles[i] = 0;
+      else
+        longs[i] = 0;
+      count--;
+    }
+  }
+
+  protected static byte[] keyPrefix(String key) {
+    byte[] keyBytes = key.getBytes(RamCloudAdjacency.LABEL_CHARSET);
+    return ByteBuffer.allocate(4 + keyBytes.length).order(ByteOrder.LITTLE_ENDIAN)
+                     .putInt(keyBytes.length)
+                     .put(keyBytes)
+                     .array();
+  }
+
+  protected static byte[] blockKey(byte[] keyPrefix, long blockNumber) {
+    return ByteBuffer.allocate(keyPrefix.length + 8).order(ByteOrder.LITTLE_ENDIAN)
+                     .put(keyPrefix)
+                     .putLong(blockNumber)
+                     .array();
+  }
+
+  protected static byte[] encodeBlock(Block block) {
+    ByteBuffer buffer = ByteBuffer.allocate(1 + 4 + 8 * block.present.length + 8 * BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    buffer.put(block.type);
+    buffer.putInt(block.count);
+    for(long word: block.present)
+      buffer.putLong(word);
+    if(block.isDouble())
+      buffer.asDoubleBuffer().put(block.doubles);
+    else
+      buffer.asLongBuffer().put(block.longs);
+
+    return buffer.array();
+  }
+
+  protected static Block decodeBlock(long blockNumber, byte[] value) {
+    ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+    Block block = new Block(blockNumber);
+
+    block.type = buffer.get();
+    block.count = buffer.getInt();
+    for(int i = 0; i < block.present.length; i++)
+      block.present[i] = buffer.getLong();
+    if(block.isDouble()) {
+      block.longs = null;
+      block.doubles = new double[BLOCK_SIZE];
+      buffer.asDoubleBuffer().get(block.doubles);
+    } else {
+      buffer.asLongBuffer().get(block.longs);
+    }
+
+    return block;
+  }
+
+  /*
+   * Negative ids (which callers may supply) round down like the others.
+   */
+  protected static long blockNumber(long vertexId) {
+    return vertexId >> BLOCK_SHIFT;
+  }
+
+  protected static int blockIndex(long vertexId) {
+    return (int) (vertexId & (BLOCK_SIZE - 1));
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  /*
+   * Sets or, given null, clears the value of the given vertex.
+   */
+  protected void set(long vertexId, Number value) {
+    long blockNumber = blockNumber(vertexId);
+    int index = blockIndex(vertexId);
+    byte[] rcKey = blockKey(keyPrefix, blockNumber);
+
+    synchronized(graph.getColumnLock(key, blockNumber)) {
+      Block block = readBlock(blockNumber);
+
+      if(block == null && value == null)
+        return;
+      if(block == null)
+        block = new Block(blockNumber);
+
+      if(value == null)
+        block.clear(index);
+      else
+        block.set(index, value);
+
+      if(block.getCount() == 0)
+        graph.rcClient.remove(graph.columnTableId, rcKey);
+      else
+        graph.rcClient.write(graph.columnTableId, rcKey, encodeBlock(block));
+    }
+  }
+
+  /*
+   * Sets or, given nulls, clears the values of many vertices, reading and
+   * writing each block they fall into once.
+   */
+  protected void setAll(Map<Long, Number> values) {
+    Map<Long, List<Long>> blockToVertexIdsMap = new TreeMap<Long, List<Long>>();
+
+    for(Long vertexId: values.keySet()) {
+      List<Long> vertexIds = blockToVertexIdsMap.get(blockNumber(vertexId));
+      if(vertexIds == null) {
+        vertexIds = new ArrayList<Long>();
+        blockToVertexIdsMap.put(blockNumber(vertexId), vertexIds);
+      }
+      vertexIds.add(vertexId);
+    }
+
+    for(Map.Entry<Long, List<Long>> entry: blockToVertexIdsMap.entrySet()) {
+      long blockNumber = entry.getKey();
+
+      synchronized(graph.getColumnLock(key, blockNumber)) {
+        Block block = readBlock(blockNumber);
+
+        if(block == null)
+          block = new Block(blockNumber);
+        for(Long vertexId: entry.getValue()) {
+          Number value = values.get(vertexId);
+          if(value == null)
+            block.clear(blockIndex(vertexId));
+          else
+            block.set(blockIndex(vertexId), value);
+        }
+
+        if(block.getCount() == 0)
+          graph.rcClient.remove(graph.columnTableId, blockKey(keyPrefix, blockNumber));
+        else
+          graph.rcClient.write(graph.columnTableId, blockKey(keyPrefix, blockNumber), encodeBlock(block));
+      }
+    }
+  }
+
+  protected Block readBlock(long blockNumber) {
+    JRamCloud.Object object;
+
+    try {
+      object = graph.rcClient.read(graph.columnTableId, blockKey(keyPrefix, blockNumber));
+    } catch(Exception e) {
+      return null;
+    }
+
+    return decodeBlock(blockNumber, object.value);
+  }
+
+  /*
+   * Returns the value of the given vertex, or null if it has none.
+   */
+  public Number get(long vertexId) {
+    Block block = readBlock(blockNumber(vertexId));
+    return block == null ? null : block.get(blockIndex(vertexId));
+  }
+
+  /*
+   * Iterates over the blocks of the column, in no particular order.
+   */
+  @Override
+  public Iterator<Block> iterator() {
+    return new RamCloudTableIterable<Block>(graph, graph.columnTableId) {
+      @Override
+      protected Iterable<Block> convert(JRamCloud.Object object) {
+        if(object.key.length != keyPrefix.length + 8 || !startsWith(object.key, keyPrefix))
+          return null;
+        long blockNumber = ByteBuffer.wrap(object.key, keyPrefix.length, 8).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        return Collections.singletonList(decodeBlock(blockNumber, object.value));
+      }
+    }.iterator();
+  }
+
+  /*
+   * Number of vertices that have a value.
+   */
+  public long count() {
+    long count = 0;
+    for(Block block: this)
+      count += block.getCount();
+    return count;
+  }
+
+  /*
+   * Sum of all values, as a double if any block holds doubles.
+   */
+  public Number sum() {
+    long longSum = 0;
+    double doubleSum = 0;
+    boolean isDouble = false;
+
+    for(Block block: this) {
+      for(int i = 0; i < BLOCK_SIZE; i++) {
+        if(!block.isPresent(i))
+          continue;
+        if(block.isDouble())
+          doubleSum += block.doubles[i];
+        else
+          longSum += block.longs[i];
+      }
+      isDouble |= block.isDouble();
+    }
+
+    return isDouble ? (Number) Double.valueOf(doubleSum + longSum) : (Number) Long.valueOf(longSum);
+  }
+
+  /*
+   * Recomputes the column from the vertex property maps, writing each block
+   * once. Needed when a key is made columnar on a graph that already has
+   * values for it.
+   *
+   * The vertex table is enumerated in no particular order, so a block is
+   * only complete once the whole table has been seen. To bound memory, each
+   * pass over the table builds at most MAX_REBUILD_BLOCKS blocks, the lowest
+   * numbered ones not built yet, and skips the maps of vertices outside
+   * them. A column that fits takes a single pass.
+   */
+  public void rebuild() {
+    long[] rebuilt = new long[16];
+    int rebuiltCount = 0;
+    long floor = Long.MIN_VALUE;
+    int passes = 0;
+
+    for(boolean done = false; !done; passes++) {
+      TreeMap<Long, Block> blocks = new TreeMap<Long, Block>();
+      long ceiling = Long.MAX_VALUE;
+      JRamCloud.TableEnumerator tableEnum = graph.rcClient.new TableEnumerator(graph.getVertexEnumerationTableId());
+
+      while(tableEnum.hasNext()) {
+        JRamCloud.Object object = tableEnum.next();
+        if(!graph.isVertexKey(object.key))
+          continue;
+
+        long vertexId = ByteBuffer.wrap(object.key).order(ByteOrder.LITTLE_ENDIAN).getLong();
+        long blockNumber = blockNumber(vertexId);
+        if(blockNumber <= floor || blockNumber > ceiling)
+          continue;
+
+        Object value = RamCloudElement.getPropertyMap(graph.getVertexPropertyBytes(object.value)).get(key);
+        if(!(value instanceof Number))
+          continue;
+
+        Block block = blocks.get(blockNumber);
+        if(block == null) {
+          block = new Block(blockNumber);
+          blocks.put(blockNumber, block);
+        }
+        block.set(blockIndex(vertexId), (Number) value);
+
+        // Leave the highest block to a later pass
+        if(blocks.size() > MAX_REBUILD_BLOCKS) {
+          blocks.pollLastEntry();
+          ceiling = blocks.lastKey();
+        }
+      }
+
+      for(Block block: blocks.values()) {
+        graph.rcClient.write(graph.columnTableId, blockKey(keyPrefix, block.blockNumber), encodeBlock(block));
+        if(rebuiltCount == rebuilt.length)
+          rebuilt = Arrays.copyOf(rebuilt, 2 * rebuilt.length);
+        rebuilt[rebuiltCount++] = block.blockNumber;
+      }
+
+      done = ceiling == Long.MAX_VALUE;
+      floor = ceiling;
+    }
+
+    // Passes built ascending ranges, so the numbers are sorted
+    List<byte[]> stale = new ArrayList<byte[]>();
+    for(Block block: this) {
+      if(Arrays.binarySearch(rebuilt, 0, rebuiltCount, block.blockNumber) < 0)
+        stale.add(blockKey(keyPrefix, block.blockNumber));
+    }
+    for(byte[] rcKey: stale)
+      graph.rcClient.remove(graph.columnTableId, rcKey);
+
+    logger.log(Level.FINE, toString() + ": Rebuilt " + rebuiltCount + " blocks in " + passes + " passes, removed " + stale.size());
+  }
+
+  private static boolean startsWith(byte[] bytes, byte[] prefix) {
+    return Arrays.equals(Arrays.copyOf(bytes, prefix.length), prefix);
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudColumn [key=" + key + "]";
+  }
+}
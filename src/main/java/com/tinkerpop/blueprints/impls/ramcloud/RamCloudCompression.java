@@ -0,0 +1,133 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Block compression of the values we write, using deflate at its fastest
+ * level. Compressed values are framed as
+ *
+ *   (MARKER, raw_length, deflated bytes)
+ *
+ * MARKER never starts an uncompressed property map (Java serialization
+ * streams start with 0xAC), so maps written before compression was turned
+ * on, or below the threshold, stay readable as they are. RamCloudAdjacency
+ * flags compressed sections in its own headers instead.
+ */
+public class RamCloudCompression {
+
+  protected static final byte MARKER = 0x5A;
+
+  /*
+   * Compression is switched off for a table by giving it this threshold.
+   */
+  protected static final int DISABLED = Integer.MAX_VALUE;
+
+  private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+    @Override
+    protected Deflater initialValue() {
+      return new Deflater(Deflater.BEST_SPEED);
+    }
+  };
+
+  private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+    @Override
+    protected Inflater initialValue() {
+      return new Inflater();
+    }
+  };
+
+  /*
+   * Returns the framed, compressed value if it is at least threshold bytes
+   * long and compresses at all, or the value itself otherwise.
+   */
+  public static byte[] compress(byte[] value, int threshold) {
+    if(value.length < threshold || value.length == 0)
+      return value;
+
+    byte[] deflated = deflate(value, 0, value.length);
+
+    if(1 + 4 + deflated.length >= value.length)
+      return value;
+
+    return ByteBuffer.allocate(1 + 4 + deflated.length).order(ByteOrder.LITTLE_ENDIAN)
+                     .put(MARKER)
+                     .putInt(value.length)
+                     .put(deflated)
+                     .array();
+  }
+
+  public static boolean isCompressed(byte[] value) {
+    return value.length > 0 && value[0] == MARKER;
+  }
+
+  /*
+   * Undoes compress(), passing uncompressed values through.
+   */
+  public static byte[] decompress(byte[] value) {
+    if(!isCompressed(value))
+      return value;
+
+    int length = ByteBuffer.wrap(value, 1, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+    return inflate(value, 1 + 4, value.length - 1 - 4, length);
+  }
+
+  public static byte[] deflate(byte[] raw, int offset, int length) {
+    Deflater deflater = deflaters.get();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 16);
+    byte[] buffer = new byte[Math.max(64, Math.min(length, 64 * 1024))];
+
+    deflater.reset();
+    deflater.setInput(raw, offset, length);
+    deflater.finish();
+    while(!deflater.finished()) {
+      int n = deflater.deflate(buffer);
+      out.write(buffer, 0, n);
+    }
+
+    return out.toByteArray();
+  }
+
+  public static byte[] inflate(byte[] deflated, int offset, int length, int rawLength) {
+    Inflater inflater = inflaters.get();
+    byte[] raw = new byte[rawLength];
+    int inflated = 0;
+
+    inflater.reset();
+    inflater.setInput(deflated, offset, length);
+    try {
+      while(inflated < rawLength && !inflater.finished()) {
+        int n = inflater.inflate(raw, inflated, rawLength - inflated);
+        if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+          break;
+        inflated += n;
+      }
+    } catch(DataFormatException e) {
+      throw new IllegalStateException("Corrupt compressed value: " + e.getMessage());
+    }
+
+    if(inflated != rawLength)
+      throw new IllegalStateException("Corrupt compressed value: expected " + rawLength + " bytes, got " + inflated);
+
+    return raw;
+  }
+}
@@ -0,0 +1,272 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Vertex and edge totals, and edge totals per label, kept in the counter
+ * table so that they can be had without enumerating the graph. Each total is
+ * the sum over SHARDS shard objects keyed by
+ *
+ *   (shard)
+ *
+ * and holding
+ *
+ *   (vertices, edges, label_count, (ll, l, edges), (ll, l, edges), ...)
+ *
+ * Updates go to the shard of the vertex they concern, so that concurrent
+ * writers rarely update the same object. They are read-modify-write, made
+ * safe across processes by writing conditionally on the version read and
+ * retrying. Summing the shards takes a single enumeration of the small
+ * counter table.
+ *
+ * The counters are updated along with the graph but not atomically with it,
+ * so a crash in between can leave them off; rebuild() recomputes them.
+ */
+public class RamCloudCounters {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  protected static final int SHARDS = 16;
+  private static final int MAX_ATTEMPTS = 100;
+
+  private RamCloudGraph graph;
+
+  // Serialize updates of a shard within this process, so that our own
+  // threads do not keep invalidating each other's conditional writes
+  private Object[] shardLocks = new Object[SHARDS];
+
+  protected RamCloudCounters(RamCloudGraph graph) {
+    this.graph = graph;
+
+    for(int i = 0; i < SHARDS; i++)
+      shardLocks[i] = new Object();
+  }
+
+  /*
+   * The totals as of some point, either read from the counter table or the
+   * contents of one shard.
+   */
+  public static class Counts {
+    protected long vertices = 0;
+    protected long edges = 0;
+    protected Map<String, Long> edgesByLabel = new TreeMap<String, Long>();
+
+    public long getVertexCount() {
+      return vertices;
+    }
+
+    public long getEdgeCount() {
+      return edges;
+    }
+
+    public long getEdgeCount(String label) {
+      Long count = edgesByLabel.get(label);
+      return count == null ? 0 : count;
+    }
+
+    /*
+     * The labels with at least one edge, in order.
+     */
+    public Set<String> getEdgeLabels() {
+      return Collections.unmodifiableSet(edgesByLabel.keySet());
+    }
+
+    protected void add(Counts counts) {
+      vertices += counts.vertices;
+      for(Map.Entry<String, Long> entry: counts.edgesByLabel.entrySet())
+        addEdges(entry.getKey(), entry.getValue());
+    }
+
+    protected void addEdges(String label, long delta) {
+      long count = getEdgeCount(label) + delta;
+
+      if(count == 0)
+        edgesByLabel.remove(label);
+      else
+        edgesByLabel.put(label, count);
+      edges += delta;
+    }
+
+    @Override
+    public String toString() {
+      return "Counts [vertices=" + vertices + ", edges=" + edges + ", edgesByLabel=" + edgesByLabel + "]";
+    }
+  }
+
+  protected static byte[] shardKey(int shard) {
+    return ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(shard).array();
+  }
+
+  protected static byte[] encodeCounts(Counts counts) {
+    int size = 8 + 8 + 4;
+    for(String label: counts.edgesByLabel.keySet())
+      size += 4 + label.getBytes(RamCloudAdjacency.LABEL_CHARSET).length + 8;
+
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putLong(counts.vertices);
+    buffer.putLong(counts.edges);
+    buffer.putInt(counts.edgesByLabel.size());
+    for(Map.Entry<String, Long> entry: counts.edgesByLabel.entrySet()) {
+      byte[] label = entry.getKey().getBytes(RamCloudAdjacency.LABEL_CHARSET);
+      buffer.putInt(label.length);
+      buffer.put(label);
+      buffer.putLong(entry.getValue());
+    }
+
+    return buffer.array();
+  }
+
+  protected static Counts decodeCounts(byte[] value) {
+    ByteBuffer buffer = ByteBuffer.wrap(value).order(ByteOrder.LITTLE_ENDIAN);
+    Counts counts = new Counts();
+
+    counts.vertices = buffer.getLong();
+    counts.edges = buffer.getLong();
+    int labelCount = buffer.getInt();
+    for(int i = 0; i < labelCount; i++) {
+      byte[] label = new byte[buffer.getInt()];
+      buffer.get(label);
+      counts.edgesByLabel.put(new String(label, RamCloudAdjacency.LABEL_CHARSET), buffer.getLong());
+    }
+
+    return counts;
+  }
+
+  protected static int shard(long vertexId) {
+    return (int) ((vertexId ^ (vertexId >>> 32)) & (SHARDS - 1));
+  }
+
+  /*
+   * Adds the given number of vertices, and of edges with each label, to the
+   * totals. The vertex only picks the shard.
+   */
+  protected void add(long vertexId, long vertexDelta, Map<String, Long> edgeDeltas) {
+    Counts delta = new Counts();
+    delta.vertices = vertexDelta;
+    for(Map.Entry<String, Long> entry: edgeDeltas.entrySet())
+      delta.addEdges(entry.getKey(), entry.getValue());
+
+    int shard = shard(vertexId);
+    byte[] rcKey = shardKey(shard);
+
+    synchronized(shardLocks[shard]) {
+      for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+        JRamCloud.Object object;
+        Counts counts;
+        JRamCloud.RejectRules rules = graph.rcClient.new RejectRules();
+
+        try {
+          object = graph.rcClient.read(graph.counterTableId, rcKey);
+        } catch(Exception e) {
+          object = null;
+        }
+
+        if(object == null) {
+          counts = new Counts();
+          rules.rejectIfExists(true);
+        } else {
+          counts = decodeCounts(object.value);
+          rules.rejectIfDoesntExist(true);
+          rules.setGivenVersion(object.version);
+          rules.rejectIfVersionNeGiven(true);
+        }
+        counts.add(delta);
+
+        try {
+          graph.rcClient.write(graph.counterTableId, rcKey, encodeCounts(counts), rules);
+          return;
+        } catch(Exception e) {
+          // Another process updated the shard since we read it
+          logger.log(Level.FINER, toString() + ": Retrying update of shard " + shard + ": " + e.toString());
+        }
+      }
+    }
+
+    logger.log(Level.WARNING, toString() + ": Gave up updating shard " + shard + " by " + delta + ", counts are off until rebuilt");
+  }
+
+  protected void addVertex(long vertexId, long delta) {
+    add(vertexId, delta, Collections.<String, Long>emptyMap());
+  }
+
+  protected void addEdge(long outVertexId, String label, long delta) {
+    add(outVertexId, 0, Collections.singletonMap(label, delta));
+  }
+
+  /*
+   * Returns the current totals, summed over all shards.
+   */
+  public Counts getCounts() {
+    Counts counts = new Counts();
+    JRamCloud.TableEnumerator tableEnum = graph.rcClient.new TableEnumerator(graph.counterTableId);
+
+    while(tableEnum.hasNext())
+      counts.add(decodeCounts(tableEnum.next().value));
+
+    return counts;
+  }
+
+  /*
+   * Recomputes the totals by enumerating the vertex table, for graphs whose
+   * counters were lost or went off. Each edge is counted once, from the
+   * list of its out vertex. Updates made while this runs may be lost.
+   */
+  public void rebuild() {
+    Counts counts = new Counts();
+    JRamCloud.TableEnumerator tableEnum = graph.rcClient.new TableEnumerator(graph.vertTableId);
+
+    while(tableEnum.hasNext()) {
+      JRamCloud.Object object = tableEnum.next();
+
+      if(!graph.isVertexKey(object.key))
+        continue;
+
+      counts.vertices++;
+
+      List<RamCloudAdjacency.Entry> entries = new RamCloudVertex(object.key, graph).getAdjacency().getEntries();
+      if(entries == null)
+        continue;
+
+      for(RamCloudAdjacency.Entry entry: entries) {
+        if(entry.outgoing)
+          counts.addEdges(entry.label, 1);
+      }
+    }
+
+    for(int shard = 1; shard < SHARDS; shard++)
+      graph.rcClient.remove(graph.counterTableId, shardKey(shard));
+    graph.rcClient.write(graph.counterTableId, shardKey(0), encodeCounts(counts));
+
+    logger.log(Level.FINE, toString() + ": Rebuilt " + counts);
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudCounters";
+  }
+}
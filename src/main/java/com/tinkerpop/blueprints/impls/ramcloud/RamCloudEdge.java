@@ -19,6 +19,9 @@ import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,9 +42,10 @@ public class RamCloudEdge extends RamCloudElement implements Edge {
   private String label;
   private byte[] rcKey;
   private RamCloudGraph graph;
+  private RamCloudAdjacency.Entry entry;
   
   public RamCloudEdge(RamCloudVertex outVertex, RamCloudVertex inVertex, String label, RamCloudGraph graph) {
-    super(edgeToRcKey(outVertex, inVertex, label), graph.edgePropTableId, graph.rcClient);
+    super(edgeToRcKey(outVertex, inVertex, label), graph.edgePropTableId, graph);
     
     this.outVertex = outVertex;
     this.inVertex = inVertex;
@@ -50,8 +54,19 @@ public class RamCloudEdge extends RamCloudElement implements Edge {
     this.graph = graph;
   }
   
+  /*
+   * Edges read from an adjacency list keep the entry they were read from, so
+   * that their inline properties can be served without another read. Like the
+   * rest of the list, the entry is a snapshot as of that read.
+   */
+  protected RamCloudEdge(RamCloudVertex outVertex, RamCloudVertex inVertex, String label, RamCloudGraph graph, RamCloudAdjacency.Entry entry) {
+    this(outVertex, inVertex, label, graph);
+    
+    this.entry = entry;
+  }
+  
   public RamCloudEdge(byte[] rcKey, RamCloudGraph graph) {
-    super(rcKey, graph.edgePropTableId, graph.rcClient);
+    super(rcKey, graph.edgePropTableId, graph);
     
     ByteBuffer edgeId = ByteBuffer.wrap(rcKey).order(ByteOrder.LITTLE_ENDIAN);
     outVertex = new RamCloudVertex(edgeId.getLong(), graph);
@@ -62,7 +77,7 @@ public class RamCloudEdge extends RamCloudElement implements Edge {
     this.graph = graph;
   }
   
-  private static byte[] edgeToRcKey(RamCloudVertex outVertex, RamCloudVertex inVertex, String label) {
+  protected static byte[] edgeToRcKey(RamCloudVertex outVertex, RamCloudVertex inVertex, String label) {
     return ByteBuffer.allocate(16 + label.length()).order(ByteOrder.LITTLE_ENDIAN)
                       .putLong((Long) outVertex.getId())
                       .putLong((Long) inVertex.getId())
@@ -100,19 +115,123 @@ public class RamCloudEdge extends RamCloudElement implements Edge {
   
   @Override
   public void remove() {
+    // Our entry, and with it where our properties are, is gone from the out
+    // vertex once we removed ourselves from it
+    removeStoredProperties();
+    
+    boolean removed;
+    
     if(isLoop()) {
-      outVertex.removeEdgeLocally(this);
+      removed = outVertex.removeEdgeLocally(this);
+    } else if(graph.isAsyncInEdges()) {
+      removed = outVertex.removeEdgeLocally(this);
+      scheduleInEdgeChange(RamCloudAdjacency.DELTA_REMOVE, getInEntry());
     } else {
-      outVertex.removeEdgeLocally(this);
+      removed = outVertex.removeEdgeLocally(this);
       inVertex.removeEdgeLocally(this);
     }
     
-    super.remove();
+    // The out vertex's list decides whether we existed, as in exists()
+    if(removed)
+      graph.getCounters().addEdge((Long) outVertex.getId(), label, -1);
   }
   
   public void removeProperties() {
     super.remove();
   }
+  
+  /*
+   * Removes our edge property table entry and any out of line property
+   * values, leaving the adjacency list entries alone.
+   */
+  protected void removeStoredProperties() {
+    RamCloudAdjacency.Entry current = getEntry();
+    
+    if(current == null || (current.properties == null && !current.spilled))
+      return;
+    
+    removeBlobs(getPropertyMap(current));
+    
+    if(current.spilled)
+      removeProperties();
+  }
+  
+  protected RamCloudAdjacency.Entry getEntry() {
+    if(entry != null)
+      return entry;
+    
+    return outVertex.findEdgeLocally(this);
+  }
+  
+  /*
+   * Small property maps are stored inline in the adjacency list entries of
+   * both endpoints, and only larger ones get an edge property table entry.
+   * An edge with neither has no properties.
+   */
+  @Override
+  public Map<String, Object> getPropertyMap() {
+    return getPropertyMap(getEntry());
+  }
+  
+  private Map<String, Object> getPropertyMap(RamCloudAdjacency.Entry current) {
+    JRamCloud.Object propTableEntry;
+    
+    if(current == null || (current.properties == null && !current.spilled))
+      return new HashMap<String, Object>();
+    
+    if(current.properties != null)
+      return getPropertyMap(current.properties);
+    
+    try {
+      propTableEntry = graph.rcClient.read(graph.edgePropTableId, rcKey);
+    } catch(Exception e) {
+      logger.log(Level.WARNING, toString() + ": Edge does not have a property table entry!");
+      return new HashMap<String, Object>();
+    }
+    
+    return getPropertyMap(propTableEntry.value);
+  }
+  
+  @Override
+  public void setPropertyMap(Map<String, Object> map) {
+    RamCloudAdjacency.Entry current = getEntry();
+    byte[] properties = null;
+    boolean spilled = false;
+    
+    if(current == null) {
+      logger.log(Level.WARNING, toString() + ": Tried to set the properties of an edge that does not exist");
+      return;
+    }
+    
+    if(!map.isEmpty()) {
+      properties = getPropertyMapBytes(map);
+      
+      if(properties == null)
+        return;
+      
+      if(properties.length > graph.getInlineEdgePropertyThreshold()) {
+        graph.rcClient.write(graph.edgePropTableId, rcKey, RamCloudCompression.compress(properties, graph.getCompressionThreshold(graph.edgePropTableId)));
+        properties = null;
+        spilled = true;
+      }
+    }
+    
+    RamCloudAdjacency.Entry updated = current.withProperties(properties, spilled);
+    
+    if(!updated.hasSameProperties(current)) {
+      outVertex.updateEdgeLocally(this, properties, spilled);
+      if(!isLoop() && graph.isAsyncInEdges())
+        scheduleInEdgeChange(RamCloudAdjacency.DELTA_UPDATE, getInEntry().withProperties(properties, spilled));
+      else if(!isLoop())
+        inVertex.updateEdgeLocally(this, properties, spilled);
+    }
+    
+    if(current.spilled && !spilled)
+      removeProperties();
+    
+    if(entry != null)
+      entry = updated;
+  }
 
   @Override
   public Object getId() {
@@ -120,47 +239,66 @@ public class RamCloudEdge extends RamCloudElement implements Edge {
   }
   
   public boolean exists() {
-    boolean edgePropTableEntryExists;
     boolean outVertexEntryExists;
     boolean inVertexEntryExists;
     
-    try {
-      graph.rcClient.read(graph.edgePropTableId, rcKey);
-      edgePropTableEntryExists = true;
-    } catch(Exception e) {
-      // Edge property table entry does not exist
-      edgePropTableEntryExists = false;
-    }
+    // An edge exists if its endpoints' adjacency lists say so, whether or not
+    // it has an edge property table entry. Edges are always added to the out
+    // vertex first, so a miss there (which the out vertex's Bloom filter
+    // usually answers on its own) means the edge does not exist and saves us
+    // the remaining reads
+    outVertexEntryExists = outVertex.hasEdgeLocally(this);
     
-    outVertexEntryExists = outVertex.getEdgeSet().contains(this);
+    if(!outVertexEntryExists)
+      return false;
+    
+    // With asynchronous in-edges the in vertex may legitimately lag behind
+    if(graph.isAsyncInEdges())
+      return true;
     
     if(!outVertex.equals(inVertex))
-      inVertexEntryExists = inVertex.getEdgeSet().contains(this);
+      inVertexEntryExists = inVertex.hasEdgeLocally(this);
     else
       inVertexEntryExists = outVertexEntryExists;
     
-    if(edgePropTableEntryExists && outVertexEntryExists && inVertexEntryExists) {
-      return true;
-    } else if(!edgePropTableEntryExists && !outVertexEntryExists && !inVertexEntryExists) {
-      return false;
-    } else {
-      logger.log(Level.WARNING, toString() + ": Detected RamCloudGraph inconsistency: inVertexEntryExists=" + inVertexEntryExists + ", outVertexEntryExists=" + outVertexEntryExists + ", inVertexEntryExists=" + inVertexEntryExists + ".");
-      return true;
-    }
+    if(!inVertexEntryExists)
+      logger.log(Level.WARNING, toString() + ": Detected RamCloudGraph inconsistency: outVertexEntryExists=" + outVertexEntryExists + ", inVertexEntryExists=" + inVertexEntryExists + ".");
+    
+    return true;
   }
   
   public void create() throws IllegalArgumentException {
-    // TODO: Existence check costs extra (presently 3 reads), could use option to turn on/off
+    // TODO: Existence check costs extra (presently 1 read for new edges), could use option to turn on/off
+    // The edge property table entry is created on the first setProperty()
     if(!exists()) {
-      outVertex.addEdgeLocally(this);
-      if(!isLoop())
-        inVertex.addEdgeLocally(this);
-      
-      graph.rcClient.write(graph.edgePropTableId, rcKey, ByteBuffer.allocate(0).array());
+      // Each endpoint's entry carries the other endpoint's projected
+      // properties, if the graph projects any
+      outVertex.addEdgeLocally(this, inVertex.getProjection());
+      if(!isLoop() && graph.isAsyncInEdges())
+        scheduleInEdgeChange(RamCloudAdjacency.DELTA_ADD, getInEntry().withProjection(outVertex.getProjection()));
+      else if(!isLoop())
+        inVertex.addEdgeLocally(this, outVertex.getProjection());
+      graph.getCounters().addEdge((Long) outVertex.getId(), label, 1);
     } else
       throw ExceptionFactory.edgeWithIdAlreadyExist(rcKey);
   }
   
+  /*
+   * Our entry in the in vertex's adjacency list.
+   */
+  private RamCloudAdjacency.Entry getInEntry() {
+    return new RamCloudAdjacency.Entry((Long) outVertex.getId(), false, label);
+  }
+  
+  /*
+   * Hands a change of our entry in the in vertex's adjacency list to the
+   * graph's in-edge applier, which applies it in order with the other
+   * changes queued for that vertex.
+   */
+  private void scheduleInEdgeChange(byte op, RamCloudAdjacency.Entry inEntry) {
+    graph.getInEdgeApplier().schedule((Long) inVertex.getId(), op, Collections.singletonList(inEntry));
+  }
+  
   public static boolean isValidEdgeId(byte[] id) {
     if(id == null)
       return false;
@@ -0,0 +1,80 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+/*
+ * Reads plain edge lists, one edge per line:
+ *
+ *   out_vertex_id in_vertex_id [label]
+ *
+ * separated by whitespace, with the default label for lines without one.
+ * Blank lines and lines starting with '#' are skipped. The vertices are
+ * created by the edges naming them, without properties.
+ */
+public class RamCloudEdgeListReader extends RamCloudGraphReader {
+
+  public static final String DEFAULT_LABEL = "edge";
+
+  private static final Charset CHARSET = Charset.forName("UTF-8");
+
+  private String defaultLabel;
+
+  public RamCloudEdgeListReader(RamCloudGraph graph) {
+    this(graph, DEFAULT_LABEL);
+  }
+
+  public RamCloudEdgeListReader(RamCloudGraph graph, String defaultLabel) {
+    super(graph);
+    this.defaultLabel = defaultLabel;
+  }
+
+  public RamCloudEdgeListReader(RamCloudGraph graph, String defaultLabel, int workerCount, int maxBufferedElements) {
+    super(graph, workerCount, maxBufferedElements);
+    this.defaultLabel = defaultLabel;
+  }
+
+  public static void inputGraph(RamCloudGraph graph, InputStream input) throws IOException {
+    new RamCloudEdgeListReader(graph).read(input);
+  }
+
+  @Override
+  protected void parse(InputStream input) throws Exception {
+    BufferedReader reader = new BufferedReader(new InputStreamReader(input, CHARSET));
+    Map<String, Object> noProperties = Collections.emptyMap();
+    int lineNumber = 0;
+
+    for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+      lineNumber++;
+      line = line.trim();
+      if(line.isEmpty() || line.startsWith("#"))
+        continue;
+
+      String[] fields = line.split("\\s+");
+      if(fields.length < 2 || fields.length > 3)
+        throw new IOException("Line " + lineNumber + " is not an edge: " + line);
+
+      edge(fields[0], fields[1], fields.length == 3 ? fields[2] : defaultLabel, noProperties);
+    }
+  }
+}
@@ -18,8 +18,10 @@ package com.tinkerpop.blueprints.impls.ramcloud;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -39,11 +41,13 @@ public class RamCloudElement implements Element {
   private byte[] rcPropTableKey;
   private long rcPropTableId;
   private JRamCloud rcClient;
+  private RamCloudGraph graph;
   
-  public RamCloudElement(byte[] rcPropTableKey, long rcPropTableId, JRamCloud rcClient) {
+  public RamCloudElement(byte[] rcPropTableKey, long rcPropTableId, RamCloudGraph graph) {
     this.rcPropTableKey = rcPropTableKey;
     this.rcPropTableId = rcPropTableId;
-    this.rcClient = rcClient;
+    this.rcClient = graph.rcClient;
+    this.graph = graph;
   }
   
   public Map<String, Object> getPropertyMap() {
@@ -65,7 +69,7 @@ public class RamCloudElement implements Element {
       return null;
     } else if(byteArray.length != 0) {
       try {
-        ByteArrayInputStream bais = new ByteArrayInputStream(byteArray);
+        ByteArrayInputStream bais = new ByteArrayInputStream(RamCloudCompression.decompress(byteArray));
         ObjectInputStream ois = new ObjectInputStream(bais);
         Map<String, Object> map = (Map<String, Object>)ois.readObject();
         return map;
@@ -81,26 +85,88 @@ public class RamCloudElement implements Element {
     }
   }
   
-  public void setPropertyMap(Map<String, Object> map) {
-    byte[] rcValue;
-    
+  public static byte[] getPropertyMapBytes(Map<String, Object> map) {
     try {
       ByteArrayOutputStream baos = new ByteArrayOutputStream();
       ObjectOutputStream oot = new ObjectOutputStream(baos);
       oot.writeObject(map);
-      rcValue = baos.toByteArray();
+      return baos.toByteArray();
     } catch(IOException e) {
       logger.log(Level.WARNING, "Got an exception while serializing element's property map: " + e.toString());
-      return;
+      return null;
     }
+  }
+  
+  public void setPropertyMap(Map<String, Object> map) {
+    byte[] rcValue = getPropertyMapBytes(map);
+    
+    if(rcValue == null)
+      return;
     
-    rcClient.write(rcPropTableId, rcPropTableKey, rcValue);
+    rcClient.write(rcPropTableId, rcPropTableKey, RamCloudCompression.compress(rcValue, graph.getCompressionThreshold(rcPropTableId)));
   }
   
   @Override
   public <T> T getProperty(String key) {
     Map<String, Object> map = getPropertyMap();
-    return (T)map.get(key);
+    return (T)resolvePropertyValue(map.get(key));
+  }
+  
+  /*
+   * Large values are only referenced from the property map, see RamCloudBlob.
+   */
+  protected Object resolvePropertyValue(Object value) {
+    if(value instanceof RamCloudBlob)
+      return ((RamCloudBlob) value).getValue(graph);
+    return value;
+  }
+  
+  /*
+   * Removes the out of line values referenced from the given property map.
+   */
+  protected void removeBlobs(Map<String, Object> map) {
+    if(map == null)
+      return;
+    
+    for(Object value: map.values())
+      RamCloudBlob.release(graph, value);
+  }
+  
+  /**
+   * Streams the value of the given property. Values stored out of line are
+   * read one chunk at a time. Returns null if the property is not set or is
+   * not a byte array.
+   */
+  public InputStream getPropertyInputStream(String key) {
+    Object value = getPropertyMap().get(key);
+    
+    if(value instanceof RamCloudBlob)
+      return ((RamCloudBlob) value).getInputStream(graph);
+    else if(value instanceof byte[])
+      return new ByteArrayInputStream((byte[]) value);
+    
+    if(value != null)
+      logger.log(Level.WARNING, toString() + ": Property " + key + " is not a byte array");
+    return null;
+  }
+  
+  /**
+   * Returns a stream whose bytes become the value of the given property, as a
+   * byte array, once it is closed. The bytes are written out of line in
+   * chunks as they come in, whatever their total size.
+   */
+  public OutputStream getPropertyOutputStream(final String key) {
+    checkProperty(key, new byte[0]);
+    
+    return new RamCloudBlob.ChunkOutputStream(graph, RamCloudBlob.blobKey(rcPropTableId, rcPropTableKey, key)) {
+      @Override
+      protected void closed(RamCloudBlob blob) {
+        Map<String, Object> map = getPropertyMap();
+        Object oldValue = map.put(key, blob);
+        setPropertyMap(map);
+        RamCloudBlob.release(graph, oldValue);
+      }
+    };
   }
 
   @Override
@@ -111,6 +177,16 @@ public class RamCloudElement implements Element {
 
   @Override
   public void setProperty(String key, Object value) {
+    checkProperty(key, value);
+    
+    Map<String, Object> map = getPropertyMap();
+    Object storedValue = RamCloudBlob.store(graph, RamCloudBlob.blobKey(rcPropTableId, rcPropTableKey, key), value);
+    Object oldValue = map.put(key, storedValue);
+    setPropertyMap(map);
+    RamCloudBlob.release(graph, oldValue);
+  }
+
+  private void checkProperty(String key, Object value) {
     if(value == null) {
       throw ExceptionFactory.propertyValueCanNotBeNull();
     }
@@ -130,17 +206,15 @@ public class RamCloudElement implements Element {
     if(this instanceof RamCloudEdge && key.equals("label")) {
       throw ExceptionFactory.propertyKeyLabelIsReservedForEdges();
     }
-    
-    Map<String, Object> map = getPropertyMap();
-    map.put(key, value);
-    setPropertyMap(map);
   }
 
   @Override
   public <T> T removeProperty(String key) {
     Map<String, Object> map = getPropertyMap();
-    T retVal = (T)map.remove(key);
+    Object oldValue = map.remove(key);
+    T retVal = (T)resolvePropertyValue(oldValue);
     setPropertyMap(map);
+    RamCloudBlob.release(graph, oldValue);
     return retVal;
   }
 
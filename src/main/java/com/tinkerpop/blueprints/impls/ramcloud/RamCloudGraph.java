@@ -17,16 +17,36 @@ package com.tinkerpop.blueprints.impls.ramcloud;
 
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.configuration.Configuration;
 import org.apache.commons.configuration.PropertiesConfiguration;
 
@@ -41,7 +61,6 @@ import com.tinkerpop.blueprints.KeyIndexableGraph;
 import com.tinkerpop.blueprints.Parameter;
 import com.tinkerpop.blueprints.TransactionalGraph;
 import com.tinkerpop.blueprints.Vertex;
-import com.tinkerpop.blueprints.util.DefaultGraphQuery;
 import com.tinkerpop.blueprints.util.ExceptionFactory;
 
 import edu.stanford.ramcloud.JRamCloud;
@@ -50,17 +69,123 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
 
   private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
   
+  // Prefixes our log messages, as toString() reads the counters
+  private static final String NAME = "RamCloudGraph";
+  
   protected JRamCloud rcClient;
   
   protected long vertTableId; //(vertex_id) --> ( (n,d,ll,l), (n,d,ll,l), ... )
   protected long vertPropTableId; //(vertex_id) -> ( (kl,k,vl,v), (kl,k,vl,v), ... )
   protected long edgePropTableId; //(edge_id) -> ( (kl,k,vl,v), (kl,k,vl,v), ... )
+  protected long blobTableId; //(prop_table_id, kl, k, property_key, chunk) -> (bytes)
+  protected long columnTableId; //(kl, k, block) -> (type, count, bitmap, values)
+  protected long counterTableId; //(shard) -> (vertices, edges, label_count, (ll, l, edges), ...)
+  protected long metadataTableId; //(name) -> (value)
   
   private String VERT_TABLE_NAME = "verts";
   private String EDGE_PROP_TABLE_NAME = "edge_props";
   private String VERT_PROP_TABLE_NAME = "vert_props";
+  private String BLOB_TABLE_NAME = "blobs";
+  private String COLUMN_TABLE_NAME = "columns";
+  private String COUNTER_TABLE_NAME = "counters";
+  private String METADATA_TABLE_NAME = "meta";
+  
+  protected static final byte[] VERTEX_ID_LIMIT_KEY = "vertex_id_limit".getBytes();
+  protected static final byte[] LAYOUT_KEY = "layout".getBytes();
+  
+  private static final int VERTEX_ID_BLOCK = 1 << 16;
+  private static final int REMOVAL_CHUNK = 1 << 14;
+  private static final int MAX_ATTEMPTS = 100;
+  
+  private long nextVertexId = 1;
+  private long vertexIdLimit = Long.MAX_VALUE;
+  private Object vertexIdLock = new Object();
+  
+  private RamCloudCounters counters;
+  
+  /**
+   * Configuration key for keeping the graph's tables, and so its data, when
+   * it shuts down, and attaching to them when it starts (default false).
+   */
+  public static final String CONFIG_PERSISTENT = "persistent";
+  
+  /**
+   * Configuration key for the name of the graph, which prefixes the names of
+   * its tables ("<name>.verts" and so on) so that several graphs can share a
+   * cluster (none by default).
+   */
+  public static final String CONFIG_GRAPH_NAME = "graph-name";
+  
+  private boolean persistent;
+  private String tableNamePrefix;
+  private Features features;
+  
+  /**
+   * Configuration key for storing each vertex's properties together with
+   * its adjacency list in a single vertex table object (default false).
+   */
+  public static final String CONFIG_MERGED_VERTEX_LAYOUT = "merged-vertex-layout";
+  
+  private boolean mergedVertexLayout;
+  
+  /**
+   * Configuration key listing the vertex property keys whose values are
+   * copied into the adjacency list entries of each vertex's neighbors (none
+   * by default).
+   */
+  public static final String CONFIG_PROJECTED_VERTEX_PROPERTIES = "projected-vertex-properties";
+  
+  private Set<String> projectedVertexProperties = new HashSet<String>();
+  
+  /**
+   * Configuration key for writing only the out vertex's adjacency list when
+   * an edge is created, and updating the in vertex's list in the background
+   * (default false).
+   */
+  public static final String CONFIG_ASYNC_IN_EDGES = "async-in-edges";
+  
+  /**
+   * Configuration keys listing the tables ("verts", "vert_props",
+   * "edge_props") whose objects are compressed, and the size in bytes from
+   * which they are (default 512). No table is compressed by default.
+   */
+  public static final String CONFIG_COMPRESSED_TABLES = "compressed-tables";
+  public static final String CONFIG_COMPRESSION_THRESHOLD = "compression-threshold";
+  
+  private Set<String> compressedTables = new HashSet<String>();
+  private int compressionThreshold = 512;
   
-  private static long nextVertexId = 1;
+  // Unlike the settings, which may change, these say what stored data may
+  // look like: the tables that were ever compressed, and the lowest blob
+  // threshold ever used. The graph keeps them in its layout.
+  private Set<String> everCompressedTables = new HashSet<String>();
+  private int lowestBlobThreshold = Integer.MAX_VALUE;
+  private boolean layoutAttached;
+  
+  private static final String LAYOUT_EVER_COMPRESSED_TABLES = "ever-compressed-tables";
+  private static final String LAYOUT_LOWEST_BLOB_THRESHOLD = "lowest-blob-threshold";
+  
+  // Keys of the layout settings that have no configuration key
+  private static final String LAYOUT_BLOB_THRESHOLD = "blob-threshold";
+  private static final String LAYOUT_INLINE_EDGE_PROPERTY_THRESHOLD = "inline-edge-property-threshold";
+  
+  /**
+   * Configuration key listing the numeric vertex property keys that are also
+   * stored in columns (none by default). See RamCloudColumn.
+   */
+  public static final String CONFIG_COLUMNAR_VERTEX_PROPERTIES = "columnar-vertex-properties";
+  
+  private Set<String> columnarVertexProperties = new HashSet<String>();
+  
+  private static final int ADJACENCY_LOCK_STRIPES = 64;
+  
+  private Object[] adjacencyLocks;
+  private int deltaLogThreshold = 16;
+  private int inlineEdgePropertyThreshold = 256;
+  private int blobThreshold = 64 * 1024;
+  private RamCloudAdjacencyCompactor adjacencyCompactor;
+  private RamCloudInEdgeApplier inEdgeApplier;
+  private ExecutorService removalWorkers;
   
   private static final Features FEATURES = new Features();
 
@@ -114,24 +239,273 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
   }
  
   public RamCloudGraph(String coordinatorLocation, Level logLevel) {
+    this(coordinatorLocation, new BaseConfiguration(), logLevel);
+  }
+  
+  public RamCloudGraph(String coordinatorLocation, Configuration configuration, Level logLevel) {
     logger.setLevel(logLevel);
     Handler consoleHandler = new ConsoleHandler();
     consoleHandler.setLevel(logLevel);
     logger.addHandler(consoleHandler);
     logger.setUseParentHandlers(false);
     
+    persistent = configuration.getBoolean(CONFIG_PERSISTENT, false);
+    String graphName = configuration.getString(CONFIG_GRAPH_NAME, "");
+    tableNamePrefix = graphName.isEmpty() ? "" : graphName + ".";
+    features = FEATURES.copyFeatures();
+    features.isPersistent = persistent;
+    
+    mergedVertexLayout = configuration.getBoolean(CONFIG_MERGED_VERTEX_LAYOUT, false);
+    setProjectedVertexProperties(configuration.getStringArray(CONFIG_PROJECTED_VERTEX_PROPERTIES));
+    setCompressedTables(configuration.getStringArray(CONFIG_COMPRESSED_TABLES));
+    setCompressionThreshold(configuration.getInt(CONFIG_COMPRESSION_THRESHOLD, compressionThreshold));
+    setColumnarVertexProperties(configuration.getStringArray(CONFIG_COLUMNAR_VERTEX_PROPERTIES));
+    
     rcClient = new JRamCloud(coordinatorLocation);
     
-    vertTableId = rcClient.createTable(VERT_TABLE_NAME);
-    vertPropTableId = rcClient.createTable(VERT_PROP_TABLE_NAME);
-    edgePropTableId = rcClient.createTable(EDGE_PROP_TABLE_NAME);
+    vertTableId = openTable(VERT_TABLE_NAME);
+    vertPropTableId = openTable(VERT_PROP_TABLE_NAME);
+    edgePropTableId = openTable(EDGE_PROP_TABLE_NAME);
+    blobTableId = openTable(BLOB_TABLE_NAME);
+    columnTableId = openTable(COLUMN_TABLE_NAME);
+    counterTableId = openTable(COUNTER_TABLE_NAME);
+    metadataTableId = openTable(METADATA_TABLE_NAME);
+    
+    updateLayout();
+    if(persistent) {
+      attachLayout();
+      vertexIdLimit = nextVertexId;
+    } else {
+      storeLayout();
+    }
+    layoutAttached = true;
+    
+    counters = new RamCloudCounters(this);
+    
+    adjacencyLocks = new Object[ADJACENCY_LOCK_STRIPES];
+    for(int i = 0; i < ADJACENCY_LOCK_STRIPES; i++)
+      adjacencyLocks[i] = new Object();
+    
+    adjacencyCompactor = new RamCloudAdjacencyCompactor(this);
+    adjacencyCompactor.start();
+    
+    inEdgeApplier = new RamCloudInEdgeApplier(this);
+    if(configuration.getBoolean(CONFIG_ASYNC_IN_EDGES, false))
+      inEdgeApplier.start();
+    
+    logger.log(Level.INFO, "Connected to coordinator at " + coordinatorLocation + " and " + (persistent ? "attached to" : "created") + " tables " + getTableIds());
+  }
+  
+  /*
+   * Persistent graphs attach to their tables if they exist. Others always
+   * create theirs. Ids are looked up every time, as the tables may have been
+   * dropped and created again by another process since.
+   */
+  private long openTable(String tableName) {
+    String fullTableName = tableNamePrefix + tableName;
+    
+    if(!persistent)
+      return rcClient.createTable(fullTableName);
+    
+    try {
+      return rcClient.getTableId(fullTableName);
+    } catch(Exception e) {
+      // First start of the graph
+      logger.log(Level.INFO, "Created table " + fullTableName);
+      return rcClient.createTable(fullTableName);
+    }
+  }
+  
+  /*
+   * The settings that decide how elements are stored are kept with the
+   * graph, and so with its snapshots, from the first time it starts. When
+   * attaching to it again, they win over the configuration, whose settings
+   * would misread the data.
+   */
+  private void attachLayout() {
+    JRamCloud.Object object = readLayout();
+    
+    if(object == null) {
+      storeLayout();
+      return;
+    }
+    
+    Map<String, String> layout = decodeLayout(object.value);
+    Map<String, String> configured = getLayoutSettings();
+    
+    synchronized(this) {
+      mergedVertexLayout = Boolean.parseBoolean(layout.get(CONFIG_MERGED_VERTEX_LAYOUT));
+      projectedVertexProperties = splitLayoutValue(layout.get(CONFIG_PROJECTED_VERTEX_PROPERTIES));
+      columnarVertexProperties = splitLayoutValue(layout.get(CONFIG_COLUMNAR_VERTEX_PROPERTIES));
+      
+      // Layouts stored before these were kept leave the configured ones
+      if(layout.containsKey(CONFIG_COMPRESSED_TABLES))
+        compressedTables = splitLayoutValue(layout.get(CONFIG_COMPRESSED_TABLES));
+      compressionThreshold = getLayoutInt(layout, CONFIG_COMPRESSION_THRESHOLD, compressionThreshold);
+      blobThreshold = getLayoutInt(layout, LAYOUT_BLOB_THRESHOLD, blobThreshold);
+      inlineEdgePropertyThreshold = getLayoutInt(layout, LAYOUT_INLINE_EDGE_PROPERTY_THRESHOLD, inlineEdgePropertyThreshold);
+    }
+    
+    if(!getLayoutSettings().equals(configured))
+      logger.log(Level.WARNING, "Configured layout differs from the one the graph was stored with, using " + layout);
+    
+    // Keep the stored history, and store ours if the configuration adds to it
+    mergeLayoutHistory(layout);
+    if(!decodeLayout(encodeLayout()).equals(layout))
+      storeLayout();
+  }
+  
+  /*
+   * Takes on the history of a stored layout, such as a snapshot's, whose
+   * data is written into our tables. Its settings must be ours, as the data
+   * would be misread otherwise.
+   */
+  protected void adoptLayout(byte[] value) {
+    Map<String, String> layout = decodeLayout(value);
+    
+    if(Boolean.parseBoolean(layout.get(CONFIG_MERGED_VERTEX_LAYOUT)) != mergedVertexLayout || !splitLayoutValue(layout.get(CONFIG_PROJECTED_VERTEX_PROPERTIES)).equals(projectedVertexProperties) || !splitLayoutValue(layout.get(CONFIG_COLUMNAR_VERTEX_PROPERTIES)).equals(columnarVertexProperties))
+      throw new IllegalArgumentException(NAME + ": Layout " + layout + " differs from ours");
+    
+    mergeLayoutHistory(layout);
+    storeLayout();
+  }
+  
+  private JRamCloud.Object readLayout() {
+    try {
+      return rcClient.read(metadataTableId, LAYOUT_KEY);
+    } catch(Exception e) {
+      return null;
+    }
+  }
+  
+  /*
+   * Writes our layout, after merging the history of the stored one into
+   * ours. Other processes attached to the graph may store theirs at the same
+   * time, so like the vertex id limit it is updated conditionally on the
+   * version read.
+   */
+  private synchronized void storeLayout() {
+    for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      JRamCloud.Object object = readLayout();
+      JRamCloud.RejectRules rules = rcClient.new RejectRules();
+      
+      if(object == null) {
+        rules.rejectIfExists(true);
+      } else {
+        mergeLayoutHistory(decodeLayout(object.value));
+        rules.rejectIfDoesntExist(true);
+        rules.setGivenVersion(object.version);
+        rules.rejectIfVersionNeGiven(true);
+      }
+      
+      try {
+        rcClient.write(metadataTableId, LAYOUT_KEY, encodeLayout(), rules);
+        return;
+      } catch(Exception e) {
+        // Another process stored its layout since we read it
+        logger.log(Level.FINER, NAME + ": Retrying layout update: " + e.toString());
+      }
+    }
+    
+    throw new IllegalStateException(NAME + ": Gave up storing the layout");
+  }
+  
+  /*
+   * Adds the history of the given stored layout to ours.
+   */
+  private synchronized void mergeLayoutHistory(Map<String, String> layout) {
+    everCompressedTables.addAll(splitLayoutValue(layout.get(LAYOUT_EVER_COMPRESSED_TABLES)));
+    lowestBlobThreshold = Math.min(lowestBlobThreshold, getLayoutInt(layout, LAYOUT_LOWEST_BLOB_THRESHOLD, Integer.MAX_VALUE));
+  }
+  
+  /*
+   * Adds the current settings to the history, and stores both once the
+   * graph is attached, so that processes attaching later use them.
+   */
+  private void updateLayout() {
+    synchronized(this) {
+      everCompressedTables.addAll(compressedTables);
+      lowestBlobThreshold = Math.min(lowestBlobThreshold, blobThreshold);
+    }
+    
+    if(layoutAttached)
+      storeLayout();
+  }
+  
+  /*
+   * Layouts are stored as lines of
+   *
+   *   key=value
+   *
+   * with the configuration key of each setting, or a key of its own for
+   * those without one, and comma separated lists, followed by the history of
+   * settings that stored data depends on.
+   */
+  protected synchronized byte[] encodeLayout() {
+    StringBuilder layout = new StringBuilder();
+    
+    for(Map.Entry<String, String> setting: getLayoutSettings().entrySet())
+      layout.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+    layout.append(LAYOUT_EVER_COMPRESSED_TABLES).append('=').append(joinLayoutValue(everCompressedTables)).append('\n');
+    layout.append(LAYOUT_LOWEST_BLOB_THRESHOLD).append('=').append(lowestBlobThreshold).append('\n');
+    return layout.toString().getBytes(RamCloudAdjacency.LABEL_CHARSET);
+  }
+  
+  private synchronized Map<String, String> getLayoutSettings() {
+    Map<String, String> settings = new TreeMap<String, String>();
+    
+    settings.put(CONFIG_MERGED_VERTEX_LAYOUT, Boolean.toString(mergedVertexLayout));
+    settings.put(CONFIG_PROJECTED_VERTEX_PROPERTIES, joinLayoutValue(projectedVertexProperties));
+    settings.put(CONFIG_COLUMNAR_VERTEX_PROPERTIES, joinLayoutValue(columnarVertexProperties));
+    settings.put(CONFIG_COMPRESSED_TABLES, joinLayoutValue(compressedTables));
+    settings.put(CONFIG_COMPRESSION_THRESHOLD, Integer.toString(compressionThreshold));
+    settings.put(LAYOUT_BLOB_THRESHOLD, Integer.toString(blobThreshold));
+    settings.put(LAYOUT_INLINE_EDGE_PROPERTY_THRESHOLD, Integer.toString(inlineEdgePropertyThreshold));
+    return settings;
+  }
+  
+  protected static Map<String, String> decodeLayout(byte[] value) {
+    Map<String, String> layout = new TreeMap<String, String>();
+    
+    for(String line: new String(value, RamCloudAdjacency.LABEL_CHARSET).split("\n")) {
+      int separator = line.indexOf('=');
+      if(separator > 0)
+        layout.put(line.substring(0, separator), line.substring(separator + 1));
+    }
+    return layout;
+  }
+  
+  private static int getLayoutInt(Map<String, String> layout, String key, int defaultValue) {
+    String value = layout.get(key);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+  
+  private static String joinLayoutValue(Set<String> keys) {
+    StringBuilder value = new StringBuilder();
+    
+    for(String key: new TreeSet<String>(keys)) {
+      if(value.length() > 0)
+        value.append(',');
+      value.append(key);
+    }
+    return value.toString();
+  }
+  
+  protected static Set<String> splitLayoutValue(String value) {
+    Set<String> keys = new HashSet<String>();
     
-    logger.log(Level.INFO, "Connected to coordinator at " + coordinatorLocation + " and created tables " + vertTableId + ", " + vertPropTableId + ", and " + edgePropTableId);
+    if(value != null && !value.isEmpty())
+      keys.addAll(Arrays.asList(value.split(",")));
+    return keys;
   }
 
   @Override
   public Features getFeatures() {
-    return FEATURES;
+    return features;
+  }
+  
+  public boolean isPersistent() {
+    return persistent;
   }
 
   @Override
@@ -141,7 +515,7 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
     Long longId;
     
     if(id == null) {
-      longId = nextVertexId++;
+      longId = newVertexId();
     } else if(id instanceof Integer) {
       longId = ((Integer) id).longValue();
     } else if(id instanceof Long) {
@@ -165,6 +539,10 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
       return null;
     }
     
+    // Keep later vertices without an id from getting this one
+    if(id != null)
+      reserveVertexId(longId);
+    
     RamCloudVertex newVertex = new RamCloudVertex(longId, this);
     
     try {
@@ -176,6 +554,80 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
     }
   }
 
+  protected long newVertexId() {
+    synchronized(vertexIdLock) {
+      if(nextVertexId >= vertexIdLimit)
+        allocateVertexIds();
+      return nextVertexId++;
+    }
+  }
+
+  /*
+   * Keeps newVertexId() from handing out the given id, which is in use.
+   */
+  protected void reserveVertexId(long id) {
+    synchronized(vertexIdLock) {
+      // The last id would wrap around, and is never reached anyway
+      if(id >= nextVertexId && id < Long.MAX_VALUE)
+        nextVertexId = id + 1;
+      if(nextVertexId > vertexIdLimit)
+        allocateVertexIds();
+    }
+  }
+  
+  /*
+   * Keeps the ids below the given limit, such as the one a restored graph
+   * had reached, from being handed out, by us or by any other process
+   * attached to the graph.
+   */
+  protected void reserveVertexIdsBelow(long limit) {
+    synchronized(vertexIdLock) {
+      nextVertexId = Math.max(nextVertexId, limit);
+      if(persistent)
+        allocateVertexIds();
+    }
+  }
+  
+  /*
+   * Persistent graphs take vertex ids in blocks of VERTEX_ID_BLOCK, keeping
+   * the end of the last block taken in the metadata table, so that ids are
+   * not handed out again after a restart or by another process. The end is
+   * updated read-modify-write, conditionally on the version read.
+   */
+  private void allocateVertexIds() {
+    for(int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+      JRamCloud.Object object;
+      JRamCloud.RejectRules rules = rcClient.new RejectRules();
+      
+      try {
+        object = rcClient.read(metadataTableId, VERTEX_ID_LIMIT_KEY);
+      } catch(Exception e) {
+        object = null;
+      }
+      
+      if(object == null) {
+        rules.rejectIfExists(true);
+      } else {
+        nextVertexId = Math.max(nextVertexId, ByteBuffer.wrap(object.value).order(ByteOrder.LITTLE_ENDIAN).getLong());
+        rules.rejectIfDoesntExist(true);
+        rules.setGivenVersion(object.version);
+        rules.rejectIfVersionNeGiven(true);
+      }
+      
+      long limit = nextVertexId + VERTEX_ID_BLOCK;
+      try {
+        rcClient.write(metadataTableId, VERTEX_ID_LIMIT_KEY, ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(limit).array(), rules);
+        vertexIdLimit = limit;
+        return;
+      } catch(Exception e) {
+        // Another process took a block since we read the end
+        logger.log(Level.FINER, NAME + ": Retrying vertex id allocation: " + e.toString());
+      }
+    }
+    
+    throw new IllegalStateException(NAME + ": Gave up allocating vertex ids");
+  }
+
   @Override
   public Vertex getVertex(Object id) throws IllegalArgumentException {
     Long longId;
@@ -224,29 +676,21 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
   
   @Override
   public Iterable<Vertex> getVertices() {
-    JRamCloud.TableEnumerator tableEnum = rcClient.new TableEnumerator(vertPropTableId);
-    List<Vertex> vertices = new ArrayList<Vertex>();
-    
-    while(tableEnum.hasNext())
-      vertices.add(new RamCloudVertex(tableEnum.next().key, this));
-    
-    return (Iterable<Vertex>)vertices;
+    return new RamCloudTableIterable<Vertex>(this, getVertexEnumerationTableId()) {
+      @Override
+      protected Iterable<Vertex> convert(JRamCloud.Object tableEntry) {
+        if(!isVertexKey(tableEntry.key))
+          return null;
+        return Collections.<Vertex>singletonList(new RamCloudVertex(tableEntry.key, RamCloudGraph.this));
+      }
+    };
   }
 
   @Override
   public Iterable<Vertex> getVertices(String key, Object value) {
-    JRamCloud.TableEnumerator tableEnum = rcClient.new TableEnumerator(vertPropTableId);
-    List<Vertex> vertices = new ArrayList<Vertex>();
-    JRamCloud.Object tableEntry;
-    
-    while(tableEnum.hasNext()) {
-      tableEntry = tableEnum.next();
-      Map<String, Object> propMap = RamCloudElement.getPropertyMap(tableEntry.value);
-      if(propMap.containsKey(key) && propMap.get(key).equals(value))
-        vertices.add(new RamCloudVertex(tableEntry.key, this));
-    }
-    
-    return (Iterable<Vertex>)vertices;
+    // Skips vertices whose raw property map does not contain the key (or a
+    // string value) without deserializing it, see RamCloudGraphQuery
+    return query().has(key, value).vertices();
   }
 
   @Override
@@ -305,41 +749,205 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
 
   @Override
   public Iterable<Edge> getEdges() {
-    JRamCloud.TableEnumerator tableEnum = rcClient.new TableEnumerator(edgePropTableId);
-    List<Edge> edges = new ArrayList<Edge>();
-    
-    while(tableEnum.hasNext()) 
-      edges.add(new RamCloudEdge(tableEnum.next().key, this));
-    
-    return (Iterable<Edge>)edges;
+    // Edges without properties have no edge property table entry, so walk the
+    // outgoing half of every vertex's adjacency list instead
+    return new RamCloudTableIterable<Edge>(this, vertTableId) {
+      @Override
+      protected Iterable<Edge> convert(JRamCloud.Object tableEntry) {
+        if(!isVertexKey(tableEntry.key))
+          return null;
+        List<RamCloudEdge> edgeList = new RamCloudVertex(tableEntry.key, RamCloudGraph.this).getOutEdgeList(tableEntry.value);
+        return edgeList == null ? null : new ArrayList<Edge>(edgeList);
+      }
+    };
   }
 
   @Override
   public Iterable<Edge> getEdges(String key, Object value) {
-    JRamCloud.TableEnumerator tableEnum = rcClient.new TableEnumerator(edgePropTableId);
-    List<Edge> edges = new ArrayList<Edge>();
-    JRamCloud.Object tableEntry;
-    
-    while(tableEnum.hasNext()) {
-      tableEntry = tableEnum.next();
-      Map<String, Object> propMap = RamCloudElement.getPropertyMap(tableEntry.value);
-      if(propMap.containsKey(key) && propMap.get(key).equals(value))
-        edges.add(new RamCloudEdge(tableEntry.key, this));
-    }
-    
-    return (Iterable<Edge>)edges;
+    // Small edge property maps are stored inline in the adjacency lists, so
+    // only spilled ones cost an edge property table read here
+    return query().has(key, value).edges();
   }
 
   @Override
   public GraphQuery query() {
-    return new DefaultGraphQuery(this);
+    return new RamCloudGraphQuery(this);
+  }
+
+  /**
+   * Stream of all vertices. Parallel streams split the vertex table's
+   * enumeration into batches, see RamCloudTableSpliterator.
+   */
+  public Stream<Vertex> vertexStream() {
+    return StreamSupport.stream(getVertices().spliterator(), false);
+  }
+
+  /**
+   * Stream of all edges. Parallel streams read the adjacency lists of
+   * different batches of vertices on different threads.
+   */
+  public Stream<Edge> edgeStream() {
+    return StreamSupport.stream(getEdges().spliterator(), false);
+  }
+
+  /**
+   * Stream of the ids of all vertices, which creates no vertex objects.
+   */
+  public LongStream vertexIdStream() {
+    Iterable<Long> ids = new RamCloudTableIterable<Long>(this, getVertexEnumerationTableId()) {
+      @Override
+      protected Iterable<Long> convert(JRamCloud.Object tableEntry) {
+        if(!isVertexKey(tableEntry.key))
+          return null;
+        return Collections.singletonList(ByteBuffer.wrap(tableEntry.key).order(ByteOrder.LITTLE_ENDIAN).getLong());
+      }
+    };
+    
+    return StreamSupport.stream(ids.spliterator(), false).mapToLong(new ToLongFunction<Long>() {
+      @Override
+      public long applyAsLong(Long id) {
+        return id;
+      }
+    });
+  }
+
+  /**
+   * Removes every vertex the predicate accepts, along with its edges, and
+   * returns how many there were. The vertices are found with a parallel
+   * scan, and removed in chunks of up to REMOVAL_CHUNK as it goes: within
+   * a chunk, each remaining vertex's adjacency list is rewritten at most
+   * once, however many of its neighbors go, and all writes are batched (see
+   * RamCloudBatchRemover). If a chunk fails, the failure is thrown, and the
+   * chunks before it stay removed.
+   */
+  public long removeVertices(Predicate<? super Vertex> predicate) {
+    flushInEdges();
+    return removeVertices(vertexStream().parallel().filter(predicate));
+  }
+  
+  /**
+   * Same as above for the vertices matching a query, whose conditions are
+   * tested on the stored property maps during the scan, without a read per
+   * vertex (see RamCloudGraphQuery).
+   */
+  public long removeVertices(GraphQuery query) {
+    flushInEdges();
+    return removeVertices(StreamSupport.stream(query.vertices().spliterator(), true));
+  }
+  
+  private long removeVertices(Stream<Vertex> vertices) {
+    Stream<Long> vertexIds = vertices.map(new Function<Vertex, Long>() {
+      @Override
+      public Long apply(Vertex vertex) {
+        return (Long) vertex.getId();
+      }
+    });
+    
+    long removed = removeInChunks(vertexIds, new Function<List<Long>, Long>() {
+      @Override
+      public Long apply(List<Long> vertexIds) {
+        RamCloudBatchRemover remover = new RamCloudBatchRemover(RamCloudGraph.this);
+        long found = remover.removeVertices(new HashSet<Long>(vertexIds));
+        remover.run();
+        return found;
+      }
+    });
+    
+    logger.log(Level.FINE, NAME + ": Removed " + removed + " vertices");
+    return removed;
+  }
+  
+  /**
+   * Removes every edge the predicate accepts, and returns how many there
+   * were. As with removeVertices(), the edges are found with a parallel scan
+   * and removed in chunks, in which each adjacency list is rewritten at most
+   * once.
+   */
+  public long removeEdges(Predicate<? super Edge> predicate) {
+    flushInEdges();
+    return removeEdges(edgeStream().parallel().filter(predicate));
+  }
+  
+  /**
+   * Same as above for the edges matching a query, such as all edges with a
+   * given label.
+   */
+  public long removeEdges(GraphQuery query) {
+    flushInEdges();
+    return removeEdges(StreamSupport.stream(query.edges().spliterator(), true));
+  }
+  
+  private long removeEdges(Stream<Edge> edges) {
+    long removed = removeInChunks(edges, new Function<List<Edge>, Long>() {
+      @Override
+      public Long apply(List<Edge> edgeList) {
+        RamCloudBatchRemover remover = new RamCloudBatchRemover(RamCloudGraph.this);
+        long found = 0;
+        
+        for(Edge edge: edgeList) {
+          if(remover.removeEdge((RamCloudEdge) edge))
+            found++;
+        }
+        remover.run();
+        return found;
+      }
+    });
+    
+    logger.log(Level.FINE, NAME + ": Removed " + removed + " edges");
+    return removed;
+  }
+  
+  /*
+   * Hands the elements of the stream to removeChunk in chunks of up to
+   * REMOVAL_CHUNK, so that a large purge is never held in memory whole, and
+   * returns the sum of what it counted. The chunks are removed one at a
+   * time, as each changes the lists that the next reads; the scan goes on
+   * meanwhile, buffering at most a chunk per scanning thread.
+   */
+  private <T> long removeInChunks(Stream<T> elements, final Function<List<T>, Long> removeChunk) {
+    final List<T> buffer = new ArrayList<T>();
+    final Object chunkLock = new Object();
+    final AtomicLong removed = new AtomicLong();
+    
+    elements.forEach(new Consumer<T>() {
+      @Override
+      public void accept(T element) {
+        List<T> chunk = null;
+        
+        synchronized(buffer) {
+          buffer.add(element);
+          if(buffer.size() >= REMOVAL_CHUNK) {
+            chunk = new ArrayList<T>(buffer);
+            buffer.clear();
+          }
+        }
+        
+        if(chunk != null) {
+          synchronized(chunkLock) {
+            removed.addAndGet(removeChunk.apply(chunk));
+          }
+        }
+      }
+    });
+    
+    if(!buffer.isEmpty())
+      removed.addAndGet(removeChunk.apply(buffer));
+    return removed.get();
   }
 
   @Override
   public void shutdown() {
-    rcClient.dropTable(VERT_TABLE_NAME);
-    rcClient.dropTable(VERT_PROP_TABLE_NAME);
-    rcClient.dropTable(EDGE_PROP_TABLE_NAME);
+    inEdgeApplier.flush();
+    inEdgeApplier.shutdown();
+    adjacencyCompactor.shutdown();
+    synchronized(this) {
+      if(removalWorkers != null)
+        removalWorkers.shutdown();
+    }
+    if(!persistent) {
+      for(String tableName: getTableIds().keySet())
+        rcClient.dropTable(tableNamePrefix + tableName);
+    }
     rcClient.disconnect();
   }
 
@@ -406,6 +1014,288 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
 
   }
 
+  /**
+   * Number of pending delta records after which the adjacency list of a paged
+   * vertex is compacted in the background. Zero disables the delta log and
+   * applies every edge change to the pages directly.
+   */
+  public int getDeltaLogThreshold() {
+    return deltaLogThreshold;
+  }
+  
+  public void setDeltaLogThreshold(int deltaLogThreshold) {
+    this.deltaLogThreshold = deltaLogThreshold;
+  }
+  
+  /**
+   * Size in bytes of the largest serialized edge property map that is stored
+   * inline in the adjacency lists of the edge's endpoints. Larger maps are
+   * stored in the edge property table. Zero stores every map there.
+   */
+  public int getInlineEdgePropertyThreshold() {
+    return inlineEdgePropertyThreshold;
+  }
+  
+  public void setInlineEdgePropertyThreshold(int inlineEdgePropertyThreshold) {
+    this.inlineEdgePropertyThreshold = inlineEdgePropertyThreshold;
+    updateLayout();
+  }
+  
+  /**
+   * Vertex property keys whose values are projected into the adjacency list
+   * entries of each vertex's neighbors, so that listing a vertex's neighbors
+   * along with those properties costs a single read. Setting one of these
+   * properties rewrites an entry in every neighbor's list. Only applies to
+   * edges created after the keys are set.
+   */
+  public Set<String> getProjectedVertexProperties() {
+    return projectedVertexProperties;
+  }
+  
+  public void setProjectedVertexProperties(String... keys) {
+    this.projectedVertexProperties = new HashSet<String>(Arrays.asList(keys));
+    updateLayout();
+  }
+  
+  /**
+   * Size in bytes above which a property value is stored out of line in the
+   * blob table, in chunks, and only referenced from its element's property
+   * map. See RamCloudBlob.
+   */
+  public int getBlobThreshold() {
+    return blobThreshold;
+  }
+  
+  public void setBlobThreshold(int blobThreshold) {
+    this.blobThreshold = blobThreshold;
+    updateLayout();
+  }
+  
+  public void setCompressedTables(String... tableNames) {
+    this.compressedTables = new HashSet<String>(Arrays.asList(tableNames));
+    updateLayout();
+  }
+  
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+    updateLayout();
+  }
+  
+  /**
+   * Size in bytes from which objects written to the given table are
+   * compressed, or RamCloudCompression.DISABLED if the table is not.
+   */
+  public int getCompressionThreshold(long tableId) {
+    String tableName;
+    
+    if(tableId == vertTableId)
+      tableName = VERT_TABLE_NAME;
+    else if(tableId == vertPropTableId)
+      tableName = VERT_PROP_TABLE_NAME;
+    else if(tableId == edgePropTableId)
+      tableName = EDGE_PROP_TABLE_NAME;
+    else
+      return RamCloudCompression.DISABLED;
+    
+    return compressedTables.contains(tableName) ? compressionThreshold : RamCloudCompression.DISABLED;
+  }
+  
+  /*
+   * Whether objects of the given table may be compressed, which they are
+   * if it was ever compressed, by any process, as compressed objects stay so
+   * until rewritten.
+   */
+  protected synchronized boolean mayHoldCompressedObjects(long tableId) {
+    for(Map.Entry<String, Long> table: getTableIds().entrySet()) {
+      if(table.getValue() == tableId)
+        return everCompressedTables.contains(table.getKey());
+    }
+    return false;
+  }
+  
+  /*
+   * The lowest blob threshold the graph was ever written with. Values longer
+   * than it may be stored out of line.
+   */
+  protected synchronized int getLowestBlobThreshold() {
+    return lowestBlobThreshold;
+  }
+  
+  /*
+   * Picks up the history stored by other processes attached to the graph.
+   */
+  protected void refreshLayoutHistory() {
+    if(!persistent)
+      return;
+    
+    JRamCloud.Object object = readLayout();
+    if(object != null)
+      mergeLayoutHistory(decodeLayout(object.value));
+  }
+  
+  /**
+   * Numeric vertex property keys whose values are also stored in columns,
+   * which make scanning or aggregating one property over all vertices cheap
+   * at the cost of an extra read and write per update. Setting such a
+   * property to anything but a number fails. Existing values only show up
+   * in a column once it is rebuilt.
+   */
+  public Set<String> getColumnarVertexProperties() {
+    return columnarVertexProperties;
+  }
+  
+  public void setColumnarVertexProperties(String... keys) {
+    this.columnarVertexProperties = new HashSet<String>(Arrays.asList(keys));
+    updateLayout();
+  }
+  
+  /**
+   * Returns the column of the given columnar vertex property.
+   */
+  public RamCloudColumn getVertexColumn(String key) {
+    if(!columnarVertexProperties.contains(key))
+      throw new IllegalArgumentException("Vertex property " + key + " is not columnar");
+    
+    return new RamCloudColumn(this, key);
+  }
+  
+  public boolean isMergedVertexLayout() {
+    return mergedVertexLayout;
+  }
+  
+  /*
+   * Every vertex has exactly one object in the table returned here. With the
+   * merged layout that is the vertex table, which also holds adjacency pages
+   * and deltas under longer keys, so enumerations must filter on isVertexKey.
+   */
+  protected long getVertexEnumerationTableId() {
+    return mergedVertexLayout ? vertTableId : vertPropTableId;
+  }
+  
+  protected boolean isVertexKey(byte[] rcKey) {
+    return rcKey.length == 8;
+  }
+  
+  /*
+   * The ids of our tables by name, without the graph name, in creation
+   * order.
+   */
+  protected Map<String, Long> getTableIds() {
+    Map<String, Long> tableIds = new LinkedHashMap<String, Long>();
+    
+    tableIds.put(VERT_TABLE_NAME, vertTableId);
+    tableIds.put(VERT_PROP_TABLE_NAME, vertPropTableId);
+    tableIds.put(EDGE_PROP_TABLE_NAME, edgePropTableId);
+    tableIds.put(BLOB_TABLE_NAME, blobTableId);
+    tableIds.put(COLUMN_TABLE_NAME, columnTableId);
+    tableIds.put(COUNTER_TABLE_NAME, counterTableId);
+    tableIds.put(METADATA_TABLE_NAME, metadataTableId);
+    return tableIds;
+  }
+  
+  protected byte[] getVertexPropertyBytes(byte[] value) {
+    return mergedVertexLayout ? RamCloudAdjacency.decodeProperties(value) : value;
+  }
+  
+  /**
+   * Whether the in vertex side of edge changes is applied in the background.
+   */
+  public boolean isAsyncInEdges() {
+    return inEdgeApplier.isRunning();
+  }
+  
+  /**
+   * Waits until all in-edge changes made so far are visible from their in
+   * vertices. Returns immediately unless in-edges are asynchronous.
+   */
+  public void flushInEdges() {
+    inEdgeApplier.flush();
+  }
+  
+  /**
+   * Number of in-edge changes that have not been applied yet.
+   */
+  public int getInEdgeBacklog() {
+    return inEdgeApplier.getBacklog();
+  }
+  
+  /**
+   * Age in milliseconds of the oldest in-edge change that has not been
+   * applied yet, or 0 if there is none.
+   */
+  public long getInEdgeLag() {
+    return inEdgeApplier.getLag();
+  }
+  
+  protected RamCloudInEdgeApplier getInEdgeApplier() {
+    return inEdgeApplier;
+  }
+  
+  protected RamCloudAdjacencyCompactor getAdjacencyCompactor() {
+    return adjacencyCompactor;
+  }
+  
+  /*
+   * Threads shared by the batched removals of RamCloudBatchRemover, started
+   * on first use. Each removal waits for its own tasks only, so a bounded
+   * pool just spreads concurrent removals over fewer threads.
+   */
+  protected synchronized ExecutorService getRemovalWorkers() {
+    if(removalWorkers == null) {
+      removalWorkers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "RamCloudBatchRemover");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return removalWorkers;
+  }
+  
+  /*
+   * Adjacency list updates are read-modify-write, so updates of the same
+   * vertex from different threads (including the compactor) are serialized
+   * through a set of striped locks.
+   */
+  protected Object getAdjacencyLock(long vertexId) {
+    return adjacencyLocks[(int) (vertexId ^ (vertexId >>> 32)) & (ADJACENCY_LOCK_STRIPES - 1)];
+  }
+  
+  /*
+   * Column blocks are updated read-modify-write as well, and share the same
+   * locks.
+   */
+  protected Object getColumnLock(String key, long blockNumber) {
+    return getAdjacencyLock(31 * key.hashCode() + blockNumber);
+  }
+  
+  /**
+   * Starts loading vertices and edges in bulk, see RamCloudBulkLoader. The
+   * loader flushes every maxBufferedElements vertices and edges, using the
+   * given number of worker threads.
+   */
+  public RamCloudBulkLoader startBulkLoad(int workerCount, int maxBufferedElements) {
+    return new RamCloudBulkLoader(this, workerCount, maxBufferedElements);
+  }
+  
+  public RamCloudBulkLoader startBulkLoad() {
+    return startBulkLoad(Runtime.getRuntime().availableProcessors(), 100000);
+  }
+  
+  /**
+   * Returns the graph's vertex and edge totals, which getCounts() reads
+   * without enumerating the graph.
+   */
+  public RamCloudCounters getCounters() {
+    return counters;
+  }
+  
+  public RamCloudCounters.Counts getCounts() {
+    return counters.getCounts();
+  }
+  
   public static int count(final Iterator<?> iterator) {
     int counter = 0;
     while (iterator.hasNext()) {
@@ -417,7 +1307,8 @@ public class RamCloudGraph implements IndexableGraph, KeyIndexableGraph, Transac
   
   @Override
   public String toString() {
-    return getClass().getSimpleName().toLowerCase() + "[vertices:" + count(getVertices().iterator()) + " edges:" + count(getEdges().iterator()) + "]";
+    RamCloudCounters.Counts counts = getCounts();
+    return getClass().getSimpleName().toLowerCase() + "[vertices:" + counts.getVertexCount() + " edges:" + counts.getEdgeCount() + "]";
   }
 
   public static void main(String[] args) {
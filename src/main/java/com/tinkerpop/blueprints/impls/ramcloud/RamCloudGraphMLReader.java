@@ -0,0 +1,158 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+/*
+ * Reads GraphML, as written by Blueprints' GraphMLWriter, one element at a
+ * time off a StAX parser. Edge labels come from the edge's label attribute,
+ * or from data under the key named "label". Keys have to be declared before
+ * the elements using them, as GraphML requires.
+ */
+public class RamCloudGraphMLReader extends RamCloudGraphReader {
+
+  private static final String LABEL_KEY = "label";
+
+  private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+  public RamCloudGraphMLReader(RamCloudGraph graph) {
+    super(graph);
+  }
+
+  public RamCloudGraphMLReader(RamCloudGraph graph, int workerCount, int maxBufferedElements) {
+    super(graph, workerCount, maxBufferedElements);
+  }
+
+  public static void inputGraph(RamCloudGraph graph, InputStream input) throws IOException {
+    new RamCloudGraphMLReader(graph).read(input);
+  }
+
+  /*
+   * A declared key: the property it names, its type, the elements it is for
+   * ("node", "edge", or "all"), and its default.
+   */
+  private static class Key {
+    String name;
+    String type;
+    String domain;
+    Object defaultValue;
+
+    Key(String name, String type, String domain) {
+      this.name = name;
+      this.type = type == null ? "string" : type;
+      this.domain = domain == null ? "all" : domain;
+    }
+  }
+
+  @Override
+  protected void parse(InputStream input) throws Exception {
+    XMLStreamReader reader;
+
+    synchronized(xmlInputFactory) {
+      reader = xmlInputFactory.createXMLStreamReader(input, "UTF-8");
+    }
+
+    try {
+      Map<String, Key> keys = new HashMap<String, Key>();
+      Key key = null;
+      Object id = null;
+      Object outVertexId = null;
+      Object inVertexId = null;
+      String label = null;
+      Map<String, Object> properties = null;
+
+      while(reader.hasNext()) {
+        if(reader.next() != XMLStreamConstants.START_ELEMENT) {
+          if(reader.getEventType() == XMLStreamConstants.END_ELEMENT) {
+            String element = reader.getLocalName();
+            if(element.equals("node"))
+              vertex(id, properties);
+            else if(element.equals("edge"))
+              edge(outVertexId, inVertexId, label, properties);
+            if(element.equals("node") || element.equals("edge"))
+              properties = null;
+          }
+          continue;
+        }
+
+        String element = reader.getLocalName();
+
+        if(element.equals("key")) {
+          key = new Key(reader.getAttributeValue(null, "attr.name"), reader.getAttributeValue(null, "attr.type"), reader.getAttributeValue(null, "for"));
+          keys.put(reader.getAttributeValue(null, "id"), key);
+        } else if(element.equals("default")) {
+          key.defaultValue = toValue(reader.getElementText(), key.type);
+        } else if(element.equals("node") || element.equals("edge")) {
+          boolean isEdge = element.equals("edge");
+
+          id = reader.getAttributeValue(null, "id");
+          outVertexId = reader.getAttributeValue(null, "source");
+          inVertexId = reader.getAttributeValue(null, "target");
+          label = reader.getAttributeValue(null, "label");
+          properties = new HashMap<String, Object>();
+
+          for(Key declaredKey: keys.values()) {
+            if(declaredKey.defaultValue == null || !(declaredKey.domain.equals("all") || declaredKey.domain.equals(element)))
+              continue;
+            if(isEdge && declaredKey.name.equals(LABEL_KEY))
+              label = label == null ? declaredKey.defaultValue.toString() : label;
+            else
+              properties.put(declaredKey.name, declaredKey.defaultValue);
+          }
+        } else if(element.equals("data")) {
+          String keyId = reader.getAttributeValue(null, "key");
+          Key dataKey = keys.get(keyId);
+          String text = reader.getElementText();
+
+          // Data of the graph itself has nowhere to go
+          if(properties == null)
+            continue;
+          if(dataKey == null)
+            throw new IOException("GraphML data under undeclared key " + keyId);
+
+          if(outVertexId != null && dataKey.name.equals(LABEL_KEY))
+            label = text;
+          else
+            properties.put(dataKey.name, toValue(text, dataKey.type));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static Object toValue(String text, String type) {
+    if(type.equals("int"))
+      return Integer.valueOf(text.trim());
+    if(type.equals("long"))
+      return Long.valueOf(text.trim());
+    if(type.equals("float"))
+      return Float.valueOf(text.trim());
+    if(type.equals("double"))
+      return Double.valueOf(text.trim());
+    if(type.equals("boolean"))
+      return Boolean.valueOf(text.trim());
+    return text;
+  }
+}
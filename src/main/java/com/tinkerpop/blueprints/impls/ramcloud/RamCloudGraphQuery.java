@@ -0,0 +1,272 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.util.DefaultGraphQuery;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Evaluates the query's conditions while scanning, on each element's stored
+ * property map, and stops scanning once the limit is reached.
+ *
+ * Before a map is deserialized its raw bytes are searched for the strings
+ * that any match must contain: the keys of conditions that fail on missing
+ * properties, and string values tested for equality. Java serialization
+ * writes strings as their modified UTF-8 bytes at least once per map, so an
+ * element whose bytes lack one of them cannot match and is skipped without
+ * decoding its map.
+ *
+ * For vertices, unless their table may hold compressed objects, which
+ * stay compressed after compression is turned off, the search runs in the
+ * native table enumerator, so that non-matching objects never cross JNI.
+ * Edges are listed from the adjacency lists of their out vertices, whose
+ * heads need not contain the edges' properties, so they are only filtered
+ * in Java.
+ */
+public class RamCloudGraphQuery extends DefaultGraphQuery {
+
+  private static final String ID = "id";
+  private static final String LABEL = "label";
+
+  public RamCloudGraphQuery(RamCloudGraph graph) {
+    super(graph);
+  }
+
+  @Override
+  public Iterable<Vertex> vertices() {
+    final RamCloudGraph rcGraph = (RamCloudGraph) graph;
+    rcGraph.refreshLayoutHistory();
+    final List<byte[]> needles = getNeedles();
+    long tableId = rcGraph.getVertexEnumerationTableId();
+    final boolean filteredNatively = !rcGraph.mayHoldCompressedObjects(tableId);
+    byte[][] valueSubstrings = filteredNatively ? needles.toArray(new byte[needles.size()][]) : new byte[0][];
+
+    return limit(new RamCloudTableIterable<Vertex>(rcGraph, tableId, valueSubstrings) {
+      @Override
+      protected Iterable<Vertex> convert(JRamCloud.Object tableEntry) {
+        if(!rcGraph.isVertexKey(tableEntry.key))
+          return null;
+
+        byte[] properties = rcGraph.getVertexPropertyBytes(tableEntry.value);
+        properties = properties == null ? new byte[0] : RamCloudCompression.decompress(properties);
+        if(!filteredNatively && !containsAll(properties, needles))
+          return null;
+
+        RamCloudVertex vertex = new RamCloudVertex(tableEntry.key, rcGraph);
+        if(!isLegal(vertex, RamCloudElement.getPropertyMap(properties)))
+          return null;
+
+        return Collections.<Vertex>singletonList(vertex);
+      }
+    });
+  }
+
+  @Override
+  public Iterable<Edge> edges() {
+    final RamCloudGraph rcGraph = (RamCloudGraph) graph;
+    rcGraph.refreshLayoutHistory();
+    final List<byte[]> needles = getNeedles();
+
+    return limit(new RamCloudTableIterable<Edge>(rcGraph, rcGraph.vertTableId) {
+      @Override
+      protected Iterable<Edge> convert(JRamCloud.Object tableEntry) {
+        if(!rcGraph.isVertexKey(tableEntry.key))
+          return null;
+
+        List<RamCloudEdge> edgeList = new RamCloudVertex(tableEntry.key, rcGraph).getOutEdgeList(tableEntry.value);
+        List<Edge> edges = new ArrayList<Edge>();
+
+        if(edgeList == null)
+          return null;
+
+        for(RamCloudEdge edge: edgeList) {
+          // Only inline property maps can be tested before they are read
+          RamCloudAdjacency.Entry entry = edge.getEntry();
+          if(entry != null && !entry.spilled && !containsAll(entry.properties == null ? new byte[0] : entry.properties, needles))
+            continue;
+
+          if(isLegal(edge, edge.getPropertyMap()))
+            edges.add(edge);
+        }
+
+        return edges;
+      }
+    });
+  }
+
+  /*
+   * Whether the element, with the given stored property map, satisfies all
+   * conditions.
+   */
+  private boolean isLegal(RamCloudElement element, Map<String, Object> map) {
+    for(HasContainer hasContainer: hasContainers) {
+      if(hasContainer.key.equals(ID) || hasContainer.key.equals(LABEL)) {
+        if(!hasContainer.isLegal(element))
+          return false;
+      } else if(!hasContainer.predicate.evaluate(element.resolvePropertyValue(map.get(hasContainer.key)), hasContainer.value)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /*
+   * The byte strings that the raw property map of every match contains.
+   */
+  protected List<byte[]> getNeedles() {
+    return getNeedles(hasContainers, ((RamCloudGraph) graph).getLowestBlobThreshold());
+  }
+
+  /*
+   * The blob threshold is the lowest the graph was ever written with, as
+   * longer strings may have been stored out of line.
+   */
+  protected static List<byte[]> getNeedles(List<HasContainer> hasContainers, int blobThreshold) {
+    List<byte[]> needles = new ArrayList<byte[]>();
+
+    for(HasContainer hasContainer: hasContainers) {
+      // Spelled out, as Compare alone names the deprecated Query.Compare here
+      if(hasContainer.key.equals(ID) || hasContainer.key.equals(LABEL) || !(hasContainer.predicate instanceof com.tinkerpop.blueprints.Compare))
+        continue;
+
+      com.tinkerpop.blueprints.Compare compare = (com.tinkerpop.blueprints.Compare) hasContainer.predicate;
+      boolean requiresKey;
+
+      if(compare == com.tinkerpop.blueprints.Compare.EQUAL)
+        requiresKey = hasContainer.value != null;
+      else if(compare == com.tinkerpop.blueprints.Compare.NOT_EQUAL)
+        requiresKey = hasContainer.value == null;
+      else
+        requiresKey = true;
+
+      if(!requiresKey)
+        continue;
+
+      addNeedle(needles, hasContainer.key);
+
+      // Longer strings may be stored out of line, see RamCloudBlob
+      if(compare == com.tinkerpop.blueprints.Compare.EQUAL && hasContainer.value instanceof String && ((String) hasContainer.value).length() * 3 <= blobThreshold)
+        addNeedle(needles, (String) hasContainer.value);
+    }
+
+    return needles;
+  }
+
+  private static void addNeedle(List<byte[]> needles, String string) {
+    byte[] needle = toModifiedUtf8(string);
+
+    // Strings too long to be written as short strings are not filtered on
+    if(needle != null)
+      needles.add(needle);
+  }
+
+  /*
+   * The bytes that serialization writes for the given string, or null if it
+   * is too long to tell.
+   */
+  protected static byte[] toModifiedUtf8(String string) {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      new DataOutputStream(baos).writeUTF(string);
+      byte[] utf = baos.toByteArray();
+
+      // Drop the length that writeUTF puts in front
+      byte[] bytes = new byte[utf.length - 2];
+      System.arraycopy(utf, 2, bytes, 0, bytes.length);
+      return bytes;
+    } catch(IOException e) {
+      return null;
+    }
+  }
+
+  protected static boolean containsAll(byte[] haystack, List<byte[]> needles) {
+    for(byte[] needle: needles) {
+      if(indexOf(haystack, needle) < 0)
+        return false;
+    }
+    return true;
+  }
+
+  protected static int indexOf(byte[] haystack, byte[] needle) {
+    if(needle.length == 0)
+      return 0;
+
+    outer:
+    for(int i = 0; i <= haystack.length - needle.length; i++) {
+      if(haystack[i] != needle[0])
+        continue;
+      for(int j = 1; j < needle.length; j++) {
+        if(haystack[i + j] != needle[j])
+          continue outer;
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  /*
+   * Ends iteration, and with it the scan, after the query's limit.
+   */
+  private <T> Iterable<T> limit(final Iterable<T> iterable) {
+    final int max = limit;
+
+    // Without a limit, keep the table's spliterator for parallel streams
+    if(max == Integer.MAX_VALUE)
+      return iterable;
+
+    return new Iterable<T>() {
+      @Override
+      public Iterator<T> iterator() {
+        final Iterator<T> it = iterable.iterator();
+
+        return new Iterator<T>() {
+          private int count = 0;
+
+          @Override
+          public boolean hasNext() {
+            return count < max && it.hasNext();
+          }
+
+          @Override
+          public T next() {
+            if(!hasNext())
+              throw new NoSuchElementException();
+            count++;
+            return it.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,209 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Base of the streaming graph readers. Blueprints' generic readers add one
+ * element at a time through addVertex() and addEdge(); ours instead parse on
+ * a thread of their own, handing vertices and edges through a bounded queue
+ * to the calling thread, which feeds them to a RamCloudBulkLoader. The
+ * loader's flushes split the writes by vertex over its worker threads, so
+ * each adjacency list is built or updated by one task per flush. Memory use
+ * is bounded by the queue and the loader's buffer, whatever the file size,
+ * except for the map of ids that are not numbers (see getVertexId()).
+ *
+ * Since the loader trusts its caller, vertices must be new and come before
+ * the edges naming them, as they do in files written by Blueprints. Vertices
+ * only named by edges are created without properties. Edge ids are ignored,
+ * RamCloud edges being identified by their vertices and label.
+ */
+public abstract class RamCloudGraphReader {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int QUEUE_CAPACITY = 10000;
+
+  private static final Object END = new Object();
+
+  protected RamCloudGraph graph;
+  private int workerCount;
+  private int maxBufferedElements;
+
+  private BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+
+  // Graph ids of the vertices whose ids in the file are not numbers
+  private Map<Object, Long> vertexIds = new HashMap<Object, Long>();
+
+  private long vertexCount = 0;
+  private long edgeCount = 0;
+
+  protected RamCloudGraphReader(RamCloudGraph graph) {
+    this(graph, Runtime.getRuntime().availableProcessors(), 100000);
+  }
+
+  protected RamCloudGraphReader(RamCloudGraph graph, int workerCount, int maxBufferedElements) {
+    this.graph = graph;
+    this.workerCount = workerCount;
+    this.maxBufferedElements = maxBufferedElements;
+  }
+
+  private static class VertexRecord {
+    Object id;
+    Map<String, Object> properties;
+
+    VertexRecord(Object id, Map<String, Object> properties) {
+      this.id = id;
+      this.properties = properties;
+    }
+  }
+
+  private static class EdgeRecord {
+    Object outVertexId;
+    Object inVertexId;
+    String label;
+    Map<String, Object> properties;
+
+    EdgeRecord(Object outVertexId, Object inVertexId, String label, Map<String, Object> properties) {
+      this.outVertexId = outVertexId;
+      this.inVertexId = inVertexId;
+      this.label = label;
+      this.properties = properties;
+    }
+  }
+
+  /*
+   * Parses the input, calling vertex() and edge() for each element. Runs on
+   * the parser thread.
+   */
+  protected abstract void parse(InputStream input) throws Exception;
+
+  protected void vertex(Object id, Map<String, Object> properties) throws InterruptedException {
+    queue.put(new VertexRecord(id, properties));
+  }
+
+  protected void edge(Object outVertexId, Object inVertexId, String label, Map<String, Object> properties) throws InterruptedException {
+    queue.put(new EdgeRecord(outVertexId, inVertexId, label, properties));
+  }
+
+  /*
+   * The graph id of a vertex given its id in the file. Ids that are numbers,
+   * or strings of one, are used as they are. Others get a new id past the
+   * numbers read so far, which has to be remembered until the end of the
+   * input, and vertices without an id get a new one each.
+   */
+  private long getVertexId(Object id) {
+    if(id == null)
+      return graph.newVertexId();
+
+    if(id instanceof Number) {
+      graph.reserveVertexId(((Number) id).longValue());
+      return ((Number) id).longValue();
+    }
+
+    if(id instanceof String) {
+      try {
+        long vertexId = Long.parseLong((String) id, 10);
+        graph.reserveVertexId(vertexId);
+        return vertexId;
+      } catch(NumberFormatException e) {
+        // Not a number, map it below
+      }
+    }
+
+    Long vertexId = vertexIds.get(id);
+    if(vertexId == null) {
+      vertexId = graph.newVertexId();
+      vertexIds.put(id, vertexId);
+    }
+    return vertexId;
+  }
+
+  /**
+   * Reads the whole input into the graph, returning once everything read is
+   * written.
+   */
+  public void read(final InputStream input) throws IOException {
+    long startTime = System.currentTimeMillis();
+    final Exception[] failure = new Exception[1];
+
+    Thread parser = new Thread("RamCloudGraphReader") {
+      @Override
+      public void run() {
+        try {
+          parse(input);
+        } catch(InterruptedException e) {
+          // The reader gave up
+          return;
+        } catch(Exception e) {
+          failure[0] = e;
+        }
+
+        try {
+          queue.put(END);
+        } catch(InterruptedException e) {
+          // The reader gave up
+        }
+      }
+    };
+    parser.setDaemon(true);
+    parser.start();
+
+    RamCloudBulkLoader loader = graph.startBulkLoad(workerCount, maxBufferedElements);
+    try {
+      for(Object record = queue.take(); record != END; record = queue.take()) {
+        if(record instanceof VertexRecord) {
+          VertexRecord vertex = (VertexRecord) record;
+          loader.addVertex(getVertexId(vertex.id), vertex.properties);
+          vertexCount++;
+        } else {
+          EdgeRecord edge = (EdgeRecord) record;
+          RamCloudVertex outVertex = new RamCloudVertex(getVertexId(edge.outVertexId), graph);
+          RamCloudVertex inVertex = new RamCloudVertex(getVertexId(edge.inVertexId), graph);
+          loader.addEdge(outVertex, inVertex, edge.label, edge.properties);
+          edgeCount++;
+        }
+      }
+      parser.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(toString() + ": Interrupted while reading", e);
+    } finally {
+      parser.interrupt();
+      loader.close();
+    }
+
+    if(failure[0] instanceof IOException)
+      throw (IOException) failure[0];
+    if(failure[0] != null)
+      throw new IOException(toString() + ": Failed to parse input", failure[0]);
+
+    logger.log(Level.FINE, toString() + ": Read " + vertexCount + " vertices and " + edgeCount + " edges in " + (System.currentTimeMillis() - startTime) + " ms");
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getSimpleName();
+  }
+}
@@ -0,0 +1,425 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.jersey.core.util.Base64;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Head;
+import com.tinkerpop.blueprints.util.io.graphson.GraphSONMode;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Writes the graph as GraphSON straight from table enumerations, instead of
+ * walking getVertices() and reading each vertex's adjacency list and each
+ * edge's properties as Blueprints' GraphSONWriter does. Each object is
+ * written where it is enumerated:
+ *
+ *   - vertices come from the vertex property table, or from the heads in the
+ *     vertex table with the merged layout
+ *   - edges whose properties are inline or absent come from the outgoing
+ *     entries of the heads in the vertex table
+ *   - edges whose properties spilled come from the edge property table,
+ *     whose keys name the edge
+ *
+ * so no table is joined to another by reading it, except for the pages of
+ * paged adjacency lists and out of line values. Each table is enumerated by
+ * a thread of its own, which hands batches of objects through a bounded
+ * queue to shardCount shard threads. Shard i writes the vertices and edges
+ * of the batches it takes to two GraphSON documents,
+ *
+ *   vertices-i.json and edges-i.json
+ *
+ * so memory use is bounded whatever the size of the graph. The documents can
+ * be read back with RamCloudGraphSONReader, all vertex files before the edge
+ * files. Like other enumerations, the export is not a snapshot: elements
+ * changed while it runs may be written as of before or after the change.
+ */
+public class RamCloudGraphSONExporter {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int BATCH_OBJECTS = 1024;
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  private RamCloudGraph graph;
+  private File directory;
+  private int shardCount;
+  private GraphSONMode mode;
+
+  public RamCloudGraphSONExporter(RamCloudGraph graph, File directory) {
+    this(graph, directory, Runtime.getRuntime().availableProcessors(), GraphSONMode.NORMAL);
+  }
+
+  public RamCloudGraphSONExporter(RamCloudGraph graph, File directory, int shardCount, GraphSONMode mode) {
+    this.graph = graph;
+    this.directory = directory;
+    this.shardCount = shardCount;
+    this.mode = mode;
+  }
+
+  /*
+   * Objects of one table, as enumerated. A batch without objects tells a
+   * shard that there are no more.
+   */
+  private static class Batch {
+    long tableId;
+    List<JRamCloud.Object> objects = new ArrayList<JRamCloud.Object>(BATCH_OBJECTS);
+
+    Batch(long tableId) {
+      this.tableId = tableId;
+    }
+  }
+
+  /**
+   * Writes the whole graph to the directory, returning once all shards are
+   * complete.
+   */
+  public void export() throws IOException {
+    long startTime = System.currentTimeMillis();
+    List<Long> tableIds = new ArrayList<Long>();
+
+    if(!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException(toString() + ": Cannot create " + directory);
+
+    if(!graph.isMergedVertexLayout())
+      tableIds.add(graph.vertPropTableId);
+    tableIds.add(graph.vertTableId);
+    tableIds.add(graph.edgePropTableId);
+
+    final BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(2 * shardCount);
+    ExecutorService threads = Executors.newFixedThreadPool(tableIds.size() + shardCount);
+    List<Future<Long>> scans = new ArrayList<Future<Long>>();
+    List<Future<Long>> shards = new ArrayList<Future<Long>>();
+
+    try {
+      for(int i = 0; i < shardCount; i++)
+        shards.add(threads.submit(new Shard(i, queue)));
+      for(final long tableId: tableIds) {
+        scans.add(threads.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            return scan(tableId, queue);
+          }
+        }));
+      }
+
+      long objectCount = 0;
+      Exception failure = null;
+      for(Future<Long> scan: scans) {
+        try {
+          objectCount += scan.get();
+        } catch(ExecutionException e) {
+          failure = failure == null ? (Exception) e.getCause() : failure;
+        }
+      }
+      for(int i = 0; i < shardCount; i++)
+        queue.put(new Batch(0));
+
+      long elementCount = 0;
+      for(Future<Long> shard: shards) {
+        try {
+          elementCount += shard.get();
+        } catch(ExecutionException e) {
+          failure = failure == null ? (Exception) e.getCause() : failure;
+        }
+      }
+
+      if(failure instanceof IOException)
+        throw (IOException) failure;
+      if(failure != null)
+        throw new IOException(toString() + ": Failed to export", failure);
+
+      logger.log(Level.FINE, toString() + ": Exported " + elementCount + " elements from " + objectCount + " objects in " + (System.currentTimeMillis() - startTime) + " ms");
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(toString() + ": Interrupted while exporting", e);
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  /*
+   * Enumerates the given table into the queue, returning how many objects it
+   * had.
+   */
+  private long scan(long tableId, BlockingQueue<Batch> queue) throws InterruptedException {
+    JRamCloud.TableEnumerator tableEnum = graph.rcClient.new TableEnumerator(tableId);
+    Batch batch = new Batch(tableId);
+    long objectCount = 0;
+
+    while(tableEnum.hasNext()) {
+      batch.objects.add(tableEnum.next());
+      objectCount++;
+
+      if(batch.objects.size() == BATCH_OBJECTS) {
+        queue.put(batch);
+        batch = new Batch(tableId);
+      }
+    }
+    if(!batch.objects.isEmpty())
+      queue.put(batch);
+
+    return objectCount;
+  }
+
+  /*
+   * Writes the batches it takes off the queue to its two documents, and
+   * returns how many elements it wrote. After a failure it keeps taking
+   * batches, so that the scans are not left blocked on a full queue.
+   */
+  private class Shard implements Callable<Long> {
+    private int number;
+    private BlockingQueue<Batch> queue;
+    private JsonGenerator vertices;
+    private JsonGenerator edges;
+    private long elementCount = 0;
+
+    Shard(int number, BlockingQueue<Batch> queue) {
+      this.number = number;
+      this.queue = queue;
+    }
+
+    @Override
+    public Long call() throws Exception {
+      Exception failure = null;
+
+      try {
+        vertices = open("vertices-" + number + ".json", "vertices");
+        edges = open("edges-" + number + ".json", "edges");
+      } catch(IOException e) {
+        failure = e;
+      }
+
+      for(Batch batch = queue.take(); !batch.objects.isEmpty(); batch = queue.take()) {
+        if(failure != null)
+          continue;
+
+        try {
+          write(batch);
+        } catch(Exception e) {
+          failure = e;
+        }
+      }
+
+      try {
+        close(vertices);
+        close(edges);
+      } catch(IOException e) {
+        failure = failure == null ? e : failure;
+      }
+
+      if(failure != null)
+        throw failure;
+      return elementCount;
+    }
+
+    private JsonGenerator open(String fileName, String field) throws IOException {
+      File file = new File(directory, fileName);
+      JsonGenerator generator = jsonFactory.createGenerator(new BufferedOutputStream(new FileOutputStream(file), 1 << 16), JsonEncoding.UTF8);
+
+      generator.writeStartObject();
+      generator.writeStringField("mode", mode.toString());
+      generator.writeArrayFieldStart(field);
+      return generator;
+    }
+
+    private void close(JsonGenerator generator) throws IOException {
+      if(generator == null)
+        return;
+
+      generator.writeEndArray();
+      generator.writeEndObject();
+      generator.close();
+    }
+
+    private void write(Batch batch) throws IOException {
+      for(JRamCloud.Object object: batch.objects) {
+        if(batch.tableId == graph.edgePropTableId) {
+          // Only edges whose properties spilled have an object here
+          RamCloudEdge edge = new RamCloudEdge(object.key, graph);
+          writeEdge(object.key, (Long) edge.getVertex(Direction.OUT).getId(), (Long) edge.getVertex(Direction.IN).getId(), edge.getLabel(), RamCloudElement.getPropertyMap(object.value));
+          continue;
+        }
+
+        if(!graph.isVertexKey(object.key))
+          continue;
+        RamCloudVertex vertex = new RamCloudVertex(object.key, graph);
+
+        if(batch.tableId == graph.vertPropTableId) {
+          writeVertex(vertex.id, RamCloudElement.getPropertyMap(object.value));
+          continue;
+        }
+
+        if(graph.isMergedVertexLayout()) {
+          byte[] properties = RamCloudAdjacency.decodeProperties(object.value);
+          writeVertex(vertex.id, properties == null ? Collections.<String, Object>emptyMap() : RamCloudElement.getPropertyMap(properties));
+        }
+
+        Head head = RamCloudAdjacency.decodeHead(object.value);
+        List<Entry> entries = head.isPaged() ? vertex.getAdjacency().getEntries() : new ArrayList<Entry>(head.entries);
+        if(entries == null)
+          continue;
+
+        for(Entry entry: entries) {
+          if(!entry.outgoing || entry.spilled)
+            continue;
+
+          RamCloudVertex inVertex = new RamCloudVertex(entry.neighborId, graph);
+          Map<String, Object> properties = entry.properties == null ? Collections.<String, Object>emptyMap() : RamCloudElement.getPropertyMap(entry.properties);
+          writeEdge(RamCloudEdge.edgeToRcKey(vertex, inVertex, entry.label), vertex.id, entry.neighborId, entry.label, properties);
+        }
+      }
+    }
+
+    private void writeVertex(long id, Map<String, Object> properties) throws IOException {
+      vertices.writeStartObject();
+      writeProperties(vertices, properties);
+      vertices.writeNumberField("_id", id);
+      if(mode != GraphSONMode.COMPACT)
+        vertices.writeStringField("_type", "vertex");
+      vertices.writeEndObject();
+      elementCount++;
+    }
+
+    private void writeEdge(byte[] rcKey, long outVertexId, long inVertexId, String label, Map<String, Object> properties) throws IOException {
+      edges.writeStartObject();
+      writeProperties(edges, properties);
+      edges.writeStringField("_id", new String(Base64.encode(rcKey)));
+      if(mode != GraphSONMode.COMPACT)
+        edges.writeStringField("_type", "edge");
+      edges.writeNumberField("_outV", outVertexId);
+      edges.writeNumberField("_inV", inVertexId);
+      edges.writeStringField("_label", label);
+      edges.writeEndObject();
+      elementCount++;
+    }
+
+    private void writeProperties(JsonGenerator generator, Map<String, Object> properties) throws IOException {
+      if(properties == null)
+        return;
+
+      for(Map.Entry<String, Object> property: properties.entrySet()) {
+        Object value = property.getValue();
+        if(value instanceof RamCloudBlob)
+          value = ((RamCloudBlob) value).getValue(graph);
+
+        generator.writeFieldName(property.getKey());
+        writeValue(generator, value);
+      }
+    }
+  }
+
+  /*
+   * Writes a value as the mode has it, with EXTENDED giving each value as
+   *
+   *   {"type": type, "value": value}
+   *
+   * as RamCloudGraphSONReader and Blueprints' readers take it.
+   */
+  private void writeValue(JsonGenerator generator, Object value) throws IOException {
+    boolean typed = mode == GraphSONMode.EXTENDED;
+    String type;
+
+    if(value == null)
+      type = "unknown";
+    else if(value instanceof String)
+      type = "string";
+    else if(value instanceof Integer || value instanceof Short || value instanceof Byte)
+      type = "integer";
+    else if(value instanceof Long)
+      type = "long";
+    else if(value instanceof Float)
+      type = "float";
+    else if(value instanceof Double)
+      type = "double";
+    else if(value instanceof Boolean)
+      type = "boolean";
+    else if(value instanceof List)
+      type = "list";
+    else if(value instanceof Map)
+      type = "map";
+    else
+      type = "unknown";
+
+    if(typed) {
+      generator.writeStartObject();
+      generator.writeStringField("type", type);
+      generator.writeFieldName("value");
+    }
+
+    if(value == null) {
+      generator.writeNull();
+    } else if(type.equals("string")) {
+      generator.writeString((String) value);
+    } else if(type.equals("integer")) {
+      generator.writeNumber(((Number) value).intValue());
+    } else if(type.equals("long")) {
+      generator.writeNumber((Long) value);
+    } else if(type.equals("float")) {
+      generator.writeNumber((Float) value);
+    } else if(type.equals("double")) {
+      generator.writeNumber((Double) value);
+    } else if(type.equals("boolean")) {
+      generator.writeBoolean((Boolean) value);
+    } else if(type.equals("list")) {
+      generator.writeStartArray();
+      for(Object element: (List<?>) value)
+        writeValue(generator, element);
+      generator.writeEndArray();
+    } else if(type.equals("map")) {
+      generator.writeStartObject();
+      for(Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+        generator.writeFieldName(String.valueOf(entry.getKey()));
+        writeValue(generator, entry.getValue());
+      }
+      generator.writeEndObject();
+    } else {
+      generator.writeString(value.toString());
+    }
+
+    if(typed)
+      generator.writeEndObject();
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudGraphSONExporter";
+  }
+}
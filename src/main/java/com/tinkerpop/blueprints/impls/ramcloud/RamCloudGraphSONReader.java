@@ -0,0 +1,218 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/*
+ * Reads GraphSON, as written by Blueprints' GraphSONWriter in any mode, one
+ * element at a time off Jackson's streaming parser rather than building the
+ * document tree. The mode has to come before the vertices and edges, as it
+ * does in files written by Blueprints.
+ */
+public class RamCloudGraphSONReader extends RamCloudGraphReader {
+
+  private static final JsonFactory jsonFactory = new JsonFactory();
+
+  public RamCloudGraphSONReader(RamCloudGraph graph) {
+    super(graph);
+  }
+
+  public RamCloudGraphSONReader(RamCloudGraph graph, int workerCount, int maxBufferedElements) {
+    super(graph, workerCount, maxBufferedElements);
+  }
+
+  public static void inputGraph(RamCloudGraph graph, InputStream input) throws IOException {
+    new RamCloudGraphSONReader(graph).read(input);
+  }
+
+  @Override
+  protected void parse(InputStream input) throws Exception {
+    JsonParser parser = jsonFactory.createParser(input);
+
+    try {
+      boolean typed = false;
+
+      if(parser.nextToken() != JsonToken.START_OBJECT)
+        throw new IOException("GraphSON must be an object");
+
+      while(parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+
+        if(field.equals("mode")) {
+          typed = parser.getText().equals("EXTENDED");
+        } else if(field.equals("vertices") || field.equals("edges")) {
+          if(token != JsonToken.START_ARRAY)
+            throw new IOException("GraphSON " + field + " must be an array");
+          while(parser.nextToken() == JsonToken.START_OBJECT)
+            parseElement(parser, typed);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } finally {
+      parser.close();
+    }
+  }
+
+  /*
+   * Parses the element object the parser is at, and hands it on.
+   */
+  private void parseElement(JsonParser parser, boolean typed) throws IOException, InterruptedException {
+    Object id = null;
+    Object outVertexId = null;
+    Object inVertexId = null;
+    String label = null;
+    boolean isEdge = false;
+    Map<String, Object> properties = new HashMap<String, Object>();
+
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String key = parser.getCurrentName();
+      parser.nextToken();
+
+      if(key.equals("_id")) {
+        id = readValue(parser);
+      } else if(key.equals("_type")) {
+        isEdge = parser.getText().equals("edge");
+      } else if(key.equals("_outV")) {
+        outVertexId = readValue(parser);
+        isEdge = true;
+      } else if(key.equals("_inV")) {
+        inVertexId = readValue(parser);
+        isEdge = true;
+      } else if(key.equals("_label")) {
+        label = parser.getText();
+        isEdge = true;
+      } else {
+        Object value = typed ? readTypedValue(parser) : readValue(parser);
+        // Blueprints elements cannot have null properties
+        if(value != null)
+          properties.put(key, value);
+      }
+    }
+
+    if(isEdge)
+      edge(outVertexId, inVertexId, label, properties);
+    else
+      vertex(id, properties);
+  }
+
+  /*
+   * Reads the value the parser is at, as NORMAL and COMPACT mode write it.
+   */
+  private static Object readValue(JsonParser parser) throws IOException {
+    switch(parser.getCurrentToken()) {
+      case VALUE_STRING:
+        return parser.getText();
+      case VALUE_NUMBER_INT:
+        return parser.getNumberValue();
+      case VALUE_NUMBER_FLOAT:
+        return parser.getDoubleValue();
+      case VALUE_TRUE:
+        return true;
+      case VALUE_FALSE:
+        return false;
+      case START_ARRAY:
+        List<Object> list = new ArrayList<Object>();
+        while(parser.nextToken() != JsonToken.END_ARRAY)
+          list.add(readValue(parser));
+        return list;
+      case START_OBJECT:
+        Map<String, Object> map = new HashMap<String, Object>();
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+          String key = parser.getCurrentName();
+          parser.nextToken();
+          map.put(key, readValue(parser));
+        }
+        return map;
+      default:
+        return null;
+    }
+  }
+
+  /*
+   * Reads the value the parser is at, as EXTENDED mode writes it:
+   *
+   *   {"type": type, "value": value}
+   *
+   * The type is expected first; values that come before it are read as in
+   * the other modes.
+   */
+  private static Object readTypedValue(JsonParser parser) throws IOException {
+    if(parser.getCurrentToken() != JsonToken.START_OBJECT)
+      return readValue(parser);
+
+    String type = null;
+    Object value = null;
+
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+
+      if(field.equals("type"))
+        type = parser.getText();
+      else if(field.equals("value"))
+        value = type == null ? readValue(parser) : readValueOfType(parser, type);
+      else
+        parser.skipChildren();
+    }
+
+    return value;
+  }
+
+  private static Object readValueOfType(JsonParser parser, String type) throws IOException {
+    if(parser.getCurrentToken() == JsonToken.VALUE_NULL)
+      return null;
+
+    if(type.equals("integer")) {
+      return parser.getIntValue();
+    } else if(type.equals("long")) {
+      return parser.getLongValue();
+    } else if(type.equals("float")) {
+      return parser.getFloatValue();
+    } else if(type.equals("double")) {
+      return parser.getDoubleValue();
+    } else if(type.equals("boolean")) {
+      return parser.getBooleanValue();
+    } else if(type.equals("list")) {
+      List<Object> list = new ArrayList<Object>();
+      while(parser.nextToken() != JsonToken.END_ARRAY)
+        list.add(readTypedValue(parser));
+      return list;
+    } else if(type.equals("map")) {
+      Map<String, Object> map = new HashMap<String, Object>();
+      while(parser.nextToken() == JsonToken.FIELD_NAME) {
+        String key = parser.getCurrentName();
+        parser.nextToken();
+        map.put(key, readTypedValue(parser));
+      }
+      return map;
+    } else {
+      // Strings, and the string form of values of unknown type
+      return readValue(parser);
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+
+/*
+ * Background thread that applies changes to the in-vertex side of edges when
+ * the graph writes in-edges asynchronously. Edge creation then only writes
+ * the out vertex's adjacency list before returning, and the changes queued
+ * for each in vertex are applied in order, in as few adjacency list updates
+ * as possible.
+ *
+ * Until its changes are applied, an edge is visible from its out vertex only.
+ * flush() waits for all changes queued so far, and getLag() tells how far
+ * behind the applier is. Writers block once MAX_BACKLOG changes are queued,
+ * so that the applier cannot fall behind without bound.
+ *
+ * Changes that fail to apply are queued again, ahead of the vertex's later
+ * ones, and retried after a growing backoff. Replaying those that did apply
+ * is harmless, as each change sets the state of its entry.
+ */
+public class RamCloudInEdgeApplier implements Runnable {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int MAX_BACKLOG = 1 << 16;
+  private static final long MIN_BACKOFF_MILLIS = 10;
+  private static final long MAX_BACKOFF_MILLIS = 5000;
+
+  /*
+   * A queued adjacency list change of a single entry.
+   */
+  private static class Change {
+    final long sequence;
+    final byte op;
+    final Entry entry;
+
+    Change(long sequence, byte op, Entry entry) {
+      this.sequence = sequence;
+      this.op = op;
+      this.entry = entry;
+    }
+  }
+
+  private RamCloudGraph graph;
+  private LinkedHashMap<Long, List<Change>> pending = new LinkedHashMap<Long, List<Change>>();
+  private TreeMap<Long, Long> outstanding = new TreeMap<Long, Long>();
+  private long nextSequence = 0;
+  private Thread thread;
+  private volatile boolean stopped = false;
+
+  public RamCloudInEdgeApplier(RamCloudGraph graph) {
+    this.graph = graph;
+  }
+
+  public synchronized void start() {
+    if(thread != null)
+      return;
+
+    stopped = false;
+    thread = new Thread(this, "RamCloudInEdgeApplier");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /*
+   * Stops the applier. Changes that were not applied yet are dropped, so
+   * callers should flush() first.
+   */
+  public void shutdown() {
+    Thread applierThread;
+
+    synchronized(this) {
+      if(thread == null)
+        return;
+
+      stopped = true;
+      applierThread = thread;
+      thread = null;
+      notifyAll();
+    }
+
+    applierThread.interrupt();
+    try {
+      applierThread.join();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public boolean isRunning() {
+    return thread != null;
+  }
+
+  /*
+   * Queues the given change to the adjacency list of the given vertex, where
+   * op is one of the RamCloudAdjacency delta ops. Blocks while the backlog
+   * is full.
+   */
+  public synchronized void schedule(long vertexId, byte op, Collection<Entry> entries) {
+    try {
+      while(thread != null && outstanding.size() >= MAX_BACKLOG)
+        wait();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    List<Change> changes = pending.get(vertexId);
+
+    if(changes == null) {
+      changes = new ArrayList<Change>();
+      pending.put(vertexId, changes);
+    }
+
+    long now = System.currentTimeMillis();
+    for(Entry entry: entries) {
+      changes.add(new Change(nextSequence, op, entry));
+      outstanding.put(nextSequence, now);
+      nextSequence++;
+    }
+
+    notifyAll();
+  }
+
+  /*
+   * Waits until every change queued before the call has been applied.
+   */
+  public synchronized void flush() {
+    long last = nextSequence - 1;
+
+    try {
+      while(thread != null && !outstanding.isEmpty() && outstanding.firstKey() <= last)
+        wait();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * Number of queued changes that have not been applied yet.
+   */
+  public synchronized int getBacklog() {
+    return outstanding.size();
+  }
+
+  /*
+   * Age in milliseconds of the oldest change that has not been applied yet,
+   * or 0 if the applier has caught up.
+   */
+  public synchronized long getLag() {
+    if(outstanding.isEmpty())
+      return 0;
+
+    return System.currentTimeMillis() - outstanding.firstEntry().getValue();
+  }
+
+  @Override
+  public void run() {
+    long backoff = 0;
+
+    while(!stopped) {
+      long vertexId;
+      List<Change> changes;
+
+      synchronized(this) {
+        try {
+          while(pending.isEmpty() && !stopped)
+            wait();
+        } catch(InterruptedException e) {
+          break;
+        }
+
+        if(stopped)
+          break;
+
+        Iterator<Map.Entry<Long, List<Change>>> it = pending.entrySet().iterator();
+        Map.Entry<Long, List<Change>> next = it.next();
+        it.remove();
+        vertexId = next.getKey();
+        changes = next.getValue();
+      }
+
+      try {
+        apply(vertexId, changes);
+        backoff = 0;
+      } catch(Exception e) {
+        backoff = Math.min(Math.max(2 * backoff, MIN_BACKOFF_MILLIS), MAX_BACKOFF_MILLIS);
+        logger.log(Level.WARNING, "Failed to apply in-edge changes to vertex " + vertexId + ", retrying in " + backoff + " ms: " + e.toString());
+
+        synchronized(this) {
+          requeue(vertexId, changes);
+
+          // Newly scheduled changes wake us too, so wait out the backoff
+          long deadline = System.currentTimeMillis() + backoff;
+          try {
+            for(long left = backoff; left > 0 && !stopped; left = deadline - System.currentTimeMillis())
+              wait(left);
+          } catch(InterruptedException ie) {
+            break;
+          }
+        }
+        continue;
+      }
+
+      synchronized(this) {
+        for(Change change: changes)
+          outstanding.remove(change.sequence);
+        notifyAll();
+      }
+    }
+  }
+
+  /*
+   * Puts back the changes of a vertex that failed to apply, ahead of those
+   * queued for it since.
+   */
+  private void requeue(long vertexId, List<Change> changes) {
+    List<Change> later = pending.remove(vertexId);
+
+    if(later != null)
+      changes.addAll(later);
+    pending.put(vertexId, changes);
+  }
+
+  /*
+   * Applies the changes of a vertex in order, batching runs of changes with
+   * the same op into a single update of its adjacency list. Within a batch
+   * the last change of an entry wins.
+   */
+  private void apply(long vertexId, List<Change> changes) {
+    RamCloudAdjacency adjacency = new RamCloudVertex(vertexId, graph).getAdjacency();
+    int i = 0;
+
+    while(i < changes.size()) {
+      byte op = changes.get(i).op;
+      Map<Entry, Entry> batch = new LinkedHashMap<Entry, Entry>();
+
+      while(i < changes.size() && changes.get(i).op == op) {
+        Entry entry = changes.get(i++).entry;
+        batch.remove(entry);
+        batch.put(entry, entry);
+      }
+
+      if(!adjacency.update(op, batch.values()))
+        logger.log(Level.FINE, adjacency.toString() + ": In-edge batch (op " + op + ") changed nothing");
+    }
+  }
+}
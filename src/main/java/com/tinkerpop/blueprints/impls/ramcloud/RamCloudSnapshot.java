@@ -0,0 +1,441 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Dumps the raw objects of all of a graph's tables to files, and restores
+ * them, so that a graph survives the loss of its cluster without going
+ * through an export format. Objects are copied byte for byte, keys and all,
+ * so nothing is deserialized or encoded again either way. Each table goes
+ * to a file of its own,
+ *
+ *   <table name>.snapshot
+ *
+ * holding
+ *
+ *   (magic, version, (kl, k, vl, v), (kl, k, vl, v), ..., -1, object_count)
+ *
+ * with little endian lengths. The files are written and read through
+ * memory-mapped regions of REGION_BYTES, so copying is left to the kernel.
+ *
+ * Dumping enumerates all tables at once, one thread per table. Restoring
+ * reads all files at once, one thread per file, and writes their objects in
+ * multi-writes of BATCH_OBJECTS objects spread over writerCount threads.
+ * Neither is a transaction: the graph should not change while it is dumped,
+ * and should be empty when restored into. The tables of the graph restored
+ * into may have other ids than the ones dumped; no stored object depends on
+ * the ids.
+ *
+ * The layout and vertex id limit in the metadata table are not copied, as
+ * the graph restored into keeps its own, read when it started. A snapshot
+ * is only restored into a graph of the same layout, whose history of
+ * settings then takes on the snapshot's, and vertex ids up to the
+ * snapshot's limit are taken the way the graph takes any others.
+ */
+public class RamCloudSnapshot {
+
+  private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
+
+  private static final int MAGIC = 0x52434753;
+  private static final int VERSION = 1;
+  private static final String SUFFIX = ".snapshot";
+
+  private static final int REGION_BYTES = 64 << 20;
+  private static final int BATCH_OBJECTS = 1000;
+  private static final int BATCH_BYTES = 1 << 20;
+
+  private RamCloudGraph graph;
+  private File directory;
+  private int writerCount;
+
+  public RamCloudSnapshot(RamCloudGraph graph, File directory) {
+    this(graph, directory, Runtime.getRuntime().availableProcessors());
+  }
+
+  public RamCloudSnapshot(RamCloudGraph graph, File directory, int writerCount) {
+    this.graph = graph;
+    this.directory = directory;
+    this.writerCount = writerCount;
+  }
+
+  /*
+   * Appends to a file through a moving memory-mapped region.
+   */
+  private static class MappedWriter {
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long regionStart;
+
+    MappedWriter(File file) throws IOException {
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      channel.truncate(0);
+      map(0, REGION_BYTES);
+    }
+
+    private void map(long position, int size) throws IOException {
+      if(buffer != null)
+        buffer.force();
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      regionStart = position;
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if(buffer.remaining() < bytes)
+        map(regionStart + buffer.position(), Math.max(REGION_BYTES, bytes));
+    }
+
+    void putInt(int value) throws IOException {
+      ensure(4);
+      buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+      ensure(8);
+      buffer.putLong(value);
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+      ensure(4 + bytes.length);
+      buffer.putInt(bytes.length);
+      buffer.put(bytes);
+    }
+
+    void close() throws IOException {
+      long size = regionStart + buffer.position();
+
+      buffer.force();
+      buffer = null;
+      channel.truncate(size);
+      channel.close();
+    }
+  }
+
+  /*
+   * Reads a file through a moving memory-mapped region.
+   */
+  private static class MappedReader {
+    private FileChannel channel;
+    private long size;
+    private MappedByteBuffer buffer;
+    private long regionStart;
+
+    MappedReader(File file) throws IOException {
+      channel = new RandomAccessFile(file, "r").getChannel();
+      size = channel.size();
+      map(0);
+    }
+
+    private void map(long position) throws IOException {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_BYTES, size - position));
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      regionStart = position;
+    }
+
+    private void ensure(int bytes) throws IOException {
+      if(buffer.remaining() >= bytes)
+        return;
+
+      long position = regionStart + buffer.position();
+      if(size - position < bytes)
+        throw new EOFException("Snapshot file ends " + (bytes - (size - position)) + " bytes early");
+
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(Math.max(REGION_BYTES, bytes), size - position));
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      regionStart = position;
+    }
+
+    int getInt() throws IOException {
+      ensure(4);
+      return buffer.getInt();
+    }
+
+    long getLong() throws IOException {
+      ensure(8);
+      return buffer.getLong();
+    }
+
+    byte[] getBytes(int length) throws IOException {
+      byte[] bytes = new byte[length];
+      ensure(length);
+      buffer.get(bytes);
+      return bytes;
+    }
+
+    void close() throws IOException {
+      buffer = null;
+      channel.close();
+    }
+  }
+
+  /**
+   * Writes all tables of the graph to the directory.
+   */
+  public void dump() throws IOException {
+    long startTime = System.currentTimeMillis();
+    Map<String, Long> tableIds = graph.getTableIds();
+    ExecutorService threads = Executors.newFixedThreadPool(tableIds.size());
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+    if(!directory.isDirectory() && !directory.mkdirs())
+      throw new IOException(toString() + ": Cannot create " + directory);
+
+    try {
+      for(final Map.Entry<String, Long> table: tableIds.entrySet()) {
+        futures.add(threads.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws IOException {
+            return dumpTable(table.getValue(), new File(directory, table.getKey() + SUFFIX));
+          }
+        }));
+      }
+
+      long objectCount = await(futures);
+      logger.log(Level.INFO, toString() + ": Dumped " + objectCount + " objects to " + directory + " in " + (System.currentTimeMillis() - startTime) + " ms");
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  private long dumpTable(long tableId, File file) throws IOException {
+    JRamCloud.TableEnumerator tableEnum = graph.rcClient.new TableEnumerator(tableId);
+    MappedWriter writer = new MappedWriter(file);
+    long objectCount = 0;
+
+    try {
+      writer.putInt(MAGIC);
+      writer.putInt(VERSION);
+
+      while(tableEnum.hasNext()) {
+        JRamCloud.Object object = tableEnum.next();
+        writer.putBytes(object.key);
+        writer.putBytes(object.value);
+        objectCount++;
+      }
+
+      writer.putInt(-1);
+      writer.putLong(objectCount);
+    } finally {
+      writer.close();
+    }
+
+    return objectCount;
+  }
+
+  /**
+   * Writes the objects in the directory to the graph's tables.
+   */
+  public void restore() throws IOException {
+    long startTime = System.currentTimeMillis();
+    Map<String, Long> tableIds = graph.getTableIds();
+    ExecutorService readers = Executors.newFixedThreadPool(tableIds.size());
+    final ExecutorService writers = Executors.newFixedThreadPool(writerCount);
+    // Bounds the batches read but not yet written
+    final Semaphore pendingBatches = new Semaphore(2 * writerCount);
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+    for(String tableName: tableIds.keySet()) {
+      if(!new File(directory, tableName + SUFFIX).isFile())
+        throw new IOException(toString() + ": No snapshot of table " + tableName + " in " + directory);
+    }
+
+    byte[] vertexIdLimit = null;
+    for(Map.Entry<String, Long> table: tableIds.entrySet()) {
+      if(table.getValue() == graph.metadataTableId)
+        vertexIdLimit = restoreMetadata(new File(directory, table.getKey() + SUFFIX));
+    }
+
+    try {
+      for(final Map.Entry<String, Long> table: tableIds.entrySet()) {
+        futures.add(readers.submit(new Callable<Long>() {
+          @Override
+          public Long call() throws Exception {
+            return restoreTable(table.getValue(), new File(directory, table.getKey() + SUFFIX), writers, pendingBatches);
+          }
+        }));
+      }
+
+      long objectCount = await(futures);
+      if(vertexIdLimit != null)
+        graph.reserveVertexIdsBelow(ByteBuffer.wrap(vertexIdLimit).order(ByteOrder.LITTLE_ENDIAN).getLong());
+      logger.log(Level.INFO, toString() + ": Restored " + objectCount + " objects from " + directory + " in " + (System.currentTimeMillis() - startTime) + " ms");
+    } finally {
+      readers.shutdownNow();
+      writers.shutdownNow();
+    }
+  }
+
+  /*
+   * Adopts the layout kept in the snapshot of the metadata table, before
+   * anything is written, and returns the vertex id limit kept there, if any.
+   */
+  private byte[] restoreMetadata(File file) throws IOException {
+    MappedReader reader = new MappedReader(file);
+    byte[] layout = null;
+    byte[] vertexIdLimit = null;
+
+    try {
+      if(reader.getInt() != MAGIC)
+        throw new IOException(toString() + ": " + file + " is not a snapshot file");
+      if(reader.getInt() != VERSION)
+        throw new IOException(toString() + ": " + file + " is of an unknown snapshot version");
+
+      for(int keyLength = reader.getInt(); keyLength != -1; keyLength = reader.getInt()) {
+        byte[] key = reader.getBytes(keyLength);
+        byte[] value = reader.getBytes(reader.getInt());
+
+        if(Arrays.equals(key, RamCloudGraph.LAYOUT_KEY))
+          layout = value;
+        else if(Arrays.equals(key, RamCloudGraph.VERTEX_ID_LIMIT_KEY))
+          vertexIdLimit = value;
+      }
+    } finally {
+      reader.close();
+    }
+
+    if(layout == null) {
+      logger.log(Level.WARNING, toString() + ": " + file + " holds no layout, restoring as if it were ours");
+    } else {
+      try {
+        graph.adoptLayout(layout);
+      } catch(IllegalArgumentException e) {
+        throw new IOException(toString() + ": Cannot restore into a graph of another layout", e);
+      }
+    }
+
+    return vertexIdLimit;
+  }
+
+  private long restoreTable(long tableId, File file, ExecutorService writers, Semaphore pendingBatches) throws Exception {
+    MappedReader reader = new MappedReader(file);
+    List<Future<Long>> futures = new ArrayList<Future<Long>>();
+    List<byte[]> keys = new ArrayList<byte[]>();
+    List<byte[]> values = new ArrayList<byte[]>();
+    int bytes = 0;
+    long objectCount = 0;
+    long maxVertexId = 0;
+
+    try {
+      if(reader.getInt() != MAGIC)
+        throw new IOException(toString() + ": " + file + " is not a snapshot file");
+      if(reader.getInt() != VERSION)
+        throw new IOException(toString() + ": " + file + " is of an unknown snapshot version");
+
+      for(int keyLength = reader.getInt(); keyLength != -1; keyLength = reader.getInt()) {
+        byte[] key = reader.getBytes(keyLength);
+        byte[] value = reader.getBytes(reader.getInt());
+
+        if(tableId == graph.vertTableId && graph.isVertexKey(key))
+          maxVertexId = Math.max(maxVertexId, ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN).getLong());
+
+        objectCount++;
+
+        // Taken over by restoreMetadata() instead
+        if(tableId == graph.metadataTableId && (Arrays.equals(key, RamCloudGraph.LAYOUT_KEY) || Arrays.equals(key, RamCloudGraph.VERTEX_ID_LIMIT_KEY)))
+          continue;
+
+        keys.add(key);
+        values.add(value);
+        bytes += key.length + value.length;
+
+        if(keys.size() >= BATCH_OBJECTS || bytes >= BATCH_BYTES) {
+          futures.add(submitWrites(tableId, keys, values, writers, pendingBatches));
+          keys = new ArrayList<byte[]>();
+          values = new ArrayList<byte[]>();
+          bytes = 0;
+        }
+      }
+      if(!keys.isEmpty())
+        futures.add(submitWrites(tableId, keys, values, writers, pendingBatches));
+
+      if(reader.getLong() != objectCount)
+        throw new IOException(toString() + ": " + file + " does not hold the number of objects it says");
+    } finally {
+      reader.close();
+    }
+
+    await(futures);
+    graph.reserveVertexId(maxVertexId);
+    return objectCount;
+  }
+
+  private Future<Long> submitWrites(final long tableId, final List<byte[]> keys, final List<byte[]> values, ExecutorService writers, final Semaphore pendingBatches) throws InterruptedException {
+    pendingBatches.acquire();
+
+    return writers.submit(new Callable<Long>() {
+      @Override
+      public Long call() {
+        try {
+          long[] tableIds = new long[keys.size()];
+          for(int i = 0; i < tableIds.length; i++)
+            tableIds[i] = tableId;
+
+          graph.rcClient.multiWrite(tableIds, keys.toArray(new byte[keys.size()][]), values.toArray(new byte[values.size()][]));
+          return (long) keys.size();
+        } finally {
+          pendingBatches.release();
+        }
+      }
+    });
+  }
+
+  private long await(List<Future<Long>> futures) throws IOException {
+    long total = 0;
+
+    for(Future<Long> future: futures) {
+      try {
+        total += future.get();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(toString() + ": Interrupted", e);
+      } catch(ExecutionException e) {
+        if(e.getCause() instanceof IOException)
+          throw (IOException) e.getCause();
+        throw new IOException(toString() + ": Failed", e.getCause());
+      }
+    }
+
+    return total;
+  }
+
+  @Override
+  public String toString() {
+    return "RamCloudSnapshot";
+  }
+}
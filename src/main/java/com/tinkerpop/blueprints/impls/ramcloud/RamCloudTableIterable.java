@@ -0,0 +1,101 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Lazily converts the objects of a table into results while the table is
+ * being enumerated, so that the first results come back right away and only
+ * the results of one object are held at a time. The enumerator itself
+ * fetches objects from the servers in batches. Each call to iterator()
+ * starts a new enumeration.
+ *
+ * If given value substrings, the enumerator drops the objects whose value
+ * lacks any of them before they are copied into Java.
+ *
+ * spliterator() splits the enumeration for parallel streams, see
+ * RamCloudTableSpliterator.
+ */
+public abstract class RamCloudTableIterable<T> implements Iterable<T> {
+
+  private RamCloudGraph graph;
+  private long tableId;
+  private byte[][] valueSubstrings;
+
+  protected RamCloudTableIterable(RamCloudGraph graph, long tableId) {
+    this(graph, tableId, new byte[0][]);
+  }
+
+  protected RamCloudTableIterable(RamCloudGraph graph, long tableId, byte[][] valueSubstrings) {
+    this.graph = graph;
+    this.tableId = tableId;
+    this.valueSubstrings = valueSubstrings;
+  }
+
+  /*
+   * Returns the results for the given object, or null if there are none.
+   */
+  protected abstract Iterable<? extends T> convert(JRamCloud.Object object);
+
+  protected JRamCloud.TableEnumerator newTableEnumerator() {
+    return graph.rcClient.new TableEnumerator(tableId, valueSubstrings);
+  }
+
+  @Override
+  public Spliterator<T> spliterator() {
+    return new RamCloudTableSpliterator<T>(this);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    final JRamCloud.TableEnumerator tableEnum = newTableEnumerator();
+
+    return new Iterator<T>() {
+      private Iterator<? extends T> results = Collections.<T>emptyList().iterator();
+
+      @Override
+      public boolean hasNext() {
+        while(!results.hasNext()) {
+          if(!tableEnum.hasNext())
+            return false;
+
+          Iterable<? extends T> converted = convert(tableEnum.next());
+          if(converted != null)
+            results = converted.iterator();
+        }
+        return true;
+      }
+
+      @Override
+      public T next() {
+        if(!hasNext())
+          throw new NoSuchElementException();
+        return results.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
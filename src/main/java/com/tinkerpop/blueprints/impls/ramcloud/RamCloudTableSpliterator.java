@@ -0,0 +1,133 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import edu.stanford.ramcloud.JRamCloud;
+
+/*
+ * Splits the enumeration of a table into disjoint batches of objects, for
+ * parallel streams. A table enumerator can only walk its table from the
+ * start, so splitting takes the next objects off the enumerator, without
+ * converting them, and hands them to a new spliterator. The conversion into
+ * results, which for edges reads each vertex's adjacency list, then runs on
+ * whichever thread processes the batch. Batches grow with each split, as in
+ * the JDK's spliterators over iterators, so that small tables are not split
+ * into many tiny tasks while large ones keep all workers busy. They are
+ * capped at MAX_BATCH objects and MAX_BATCH_BYTES of keys and values, since
+ * every worker may hold one while heads in the merged layout can be large.
+ */
+public class RamCloudTableSpliterator<T> implements Spliterator<T> {
+
+  private static final int BATCH_UNIT = 1 << 10;
+  private static final int MAX_BATCH = 1 << 14;
+  private static final long MAX_BATCH_BYTES = 1 << 24;
+
+  private RamCloudTableIterable<T> iterable;
+  private JRamCloud.TableEnumerator tableEnum;
+  private int batchSize = 0;
+
+  // Objects taken off the enumerator by the split that created us, if any,
+  // else we take ours straight off the enumerator
+  private JRamCloud.Object[] objects;
+  private int index;
+  private int fence;
+
+  private Iterator<? extends T> results = Collections.<T>emptyList().iterator();
+
+  protected RamCloudTableSpliterator(RamCloudTableIterable<T> iterable) {
+    this.iterable = iterable;
+  }
+
+  private RamCloudTableSpliterator(RamCloudTableIterable<T> iterable, JRamCloud.Object[] objects, int index, int fence) {
+    this.iterable = iterable;
+    this.objects = objects;
+    this.index = index;
+    this.fence = fence;
+  }
+
+  /*
+   * The next object of our part of the table, or null if there are none left.
+   */
+  private JRamCloud.Object nextObject() {
+    if(objects != null)
+      return index < fence ? objects[index++] : null;
+
+    if(tableEnum == null)
+      tableEnum = iterable.newTableEnumerator();
+    return tableEnum.hasNext() ? tableEnum.next() : null;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super T> action) {
+    while(!results.hasNext()) {
+      JRamCloud.Object object = nextObject();
+      if(object == null)
+        return false;
+
+      Iterable<? extends T> converted = iterable.convert(object);
+      if(converted != null)
+        results = converted.iterator();
+    }
+
+    action.accept(results.next());
+    return true;
+  }
+
+  @Override
+  public Spliterator<T> trySplit() {
+    if(objects != null) {
+      int mid = (index + fence) >>> 1;
+      if(mid <= index)
+        return null;
+
+      RamCloudTableSpliterator<T> prefix = new RamCloudTableSpliterator<T>(iterable, objects, index, mid);
+      index = mid;
+      return prefix;
+    }
+
+    if(tableEnum == null)
+      tableEnum = iterable.newTableEnumerator();
+    if(!tableEnum.hasNext())
+      return null;
+
+    batchSize = Math.min(batchSize + BATCH_UNIT, MAX_BATCH);
+    JRamCloud.Object[] batch = new JRamCloud.Object[batchSize];
+    int count = 0;
+    long bytes = 0;
+    while(count < batch.length && bytes < MAX_BATCH_BYTES && tableEnum.hasNext()) {
+      JRamCloud.Object object = tableEnum.next();
+      batch[count++] = object;
+      bytes += object.key.length + object.value.length;
+    }
+
+    return new RamCloudTableSpliterator<T>(iterable, batch, 0, count);
+  }
+
+  @Override
+  public long estimateSize() {
+    return objects != null ? fence - index : Long.MAX_VALUE;
+  }
+
+  @Override
+  public int characteristics() {
+    return NONNULL;
+  }
+}
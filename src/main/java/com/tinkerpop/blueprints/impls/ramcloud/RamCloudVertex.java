@@ -19,6 +19,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -28,18 +29,12 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.google.protobuf.InvalidProtocolBufferException;
 import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Vertex;
 import com.tinkerpop.blueprints.VertexQuery;
-import com.tinkerpop.blueprints.impls.ramcloud.RamCloudGraphProtos.EdgeListProtoBuf;
-import com.tinkerpop.blueprints.impls.ramcloud.RamCloudGraphProtos.EdgeProtoBuf;
-import com.tinkerpop.blueprints.util.DefaultVertexQuery;
 import com.tinkerpop.blueprints.util.ExceptionFactory;
 
-import edu.stanford.ramcloud.JRamCloud;
-
 public class RamCloudVertex extends RamCloudElement implements Vertex {
 
   private static final Logger logger = Logger.getLogger(RamCloudGraph.class.getName());
@@ -47,24 +42,39 @@ public class RamCloudVertex extends RamCloudElement implements Vertex {
   protected long id;
   protected byte[] rcKey;
   private RamCloudGraph graph;
+  private RamCloudAdjacency adjacency;
+  private byte[] projection;
   
   /*
    * Constructors
    */
   public RamCloudVertex(long id, RamCloudGraph graph) {
-    super(idToRcKey(id), graph.vertPropTableId, graph.rcClient);
+    super(idToRcKey(id), graph.vertPropTableId, graph);
     
     this.id = id;
     this.rcKey = idToRcKey(id);
     this.graph = graph;
+    this.adjacency = new RamCloudAdjacency(this.id, rcKey, graph);
+  }
+  
+  /*
+   * Neighbors read from an adjacency list keep the copy of their projected
+   * properties stored in the entry, as a snapshot as of that read, until
+   * they change one of them themselves.
+   */
+  protected RamCloudVertex(long id, RamCloudGraph graph, byte[] projection) {
+    this(id, graph);
+    
+    this.projection = projection;
   }
 
   public RamCloudVertex(byte[] rcKey, RamCloudGraph graph) {
-    super(rcKey, graph.vertPropTableId, graph.rcClient);
+    super(rcKey, graph.vertPropTableId, graph);
     
     this.id = rcKeyToId(rcKey);
     this.rcKey = rcKey;
     this.graph = graph;
+    this.adjacency = new RamCloudAdjacency(this.id, rcKey, graph);
   }
 
   /*
@@ -92,7 +102,7 @@ public class RamCloudVertex extends RamCloudElement implements Vertex {
 
   @Override
   public VertexQuery query() {
-    return new DefaultVertexQuery(this);
+    return new RamCloudVertexQuery(this, graph);
   }
   
   /*
@@ -105,38 +115,134 @@ public class RamCloudVertex extends RamCloudElement implements Vertex {
 
   @Override
   public void remove() {
-    Set<RamCloudEdge> edges = getEdgeSet();
-    Map<RamCloudVertex, List<RamCloudEdge>> vertexToEdgesMap = new HashMap<RamCloudVertex, List<RamCloudEdge>>();
+    // Our neighbors' entries are removed synchronously below, so make sure
+    // none of them is still waiting to be added
+    graph.flushInEdges();
     
-    // Batch edges together by neighbor vertex
-    for(RamCloudEdge edge: edges) {
-      RamCloudVertex neighbor = (RamCloudVertex) edge.getNeighbor(this);
-      List<RamCloudEdge> edgeList = vertexToEdgesMap.get(neighbor);
-      
-      if(edgeList == null)
-        edgeList = new ArrayList<RamCloudEdge>();
-      
-      edgeList.add(edge);
-      vertexToEdgesMap.put(neighbor, edgeList);
+    Map<String, Object> properties = getPropertyMap();
+    removeBlobs(properties);
+    if(properties != null) {
+      for(String key: properties.keySet()) {
+        if(graph.getColumnarVertexProperties().contains(key))
+          graph.getVertexColumn(key).set(id, null);
+      }
     }
     
-    // Remove batches of edges at a time by neighbor vertex
-    for(Entry<RamCloudVertex, List<RamCloudEdge>> entry: vertexToEdgesMap.entrySet()) {
-      // Skip over loopback edges to ourself
-      if(!entry.getKey().equals(this))
-        entry.getKey().removeEdgesLocally(entry.getValue());
+    List<RamCloudAdjacency.Entry> entries = adjacency.getEntries();
+    RamCloudBatchRemover remover = new RamCloudBatchRemover(graph);
+    Map<String, Long> edgeDeltas = new HashMap<String, Long>();
+    
+    // Take our entries out of our neighbors' lists, and remove the stored
+    // properties of our edges, in batches rather than one neighbor at a time
+    for(RamCloudAdjacency.Entry entry: entries == null ? new ArrayList<RamCloudAdjacency.Entry>() : entries) {
+      // Loopback edges to ourself are in our list twice, and our list goes
+      // away below
+      if(entry.neighborId == id && !entry.outgoing)
+        continue;
       
-      // Remove this batch of edges from the edge property table
-      for(RamCloudEdge edge: entry.getValue()) {
-        edge.removeProperties();
-      }
+      RamCloudVertex neighbor = new RamCloudVertex(entry.neighborId, graph);
+      
+      if(entry.neighborId != id)
+        remover.removeEntry(entry.neighborId, new RamCloudAdjacency.Entry(id, !entry.outgoing, entry.label));
+      
+      if(entry.outgoing)
+        remover.removeEdgeProperties(RamCloudEdge.edgeToRcKey(this, neighbor, entry.label), entry);
+      else
+        remover.removeEdgeProperties(RamCloudEdge.edgeToRcKey(neighbor, this, entry.label), entry);
+      
+      Long delta = edgeDeltas.get(entry.label);
+      edgeDeltas.put(entry.label, delta == null ? -1 : delta - 1);
     }
     
-    // Remove ourselves entirely from the vertex table
-    graph.rcClient.remove(graph.vertTableId, rcKey);
+    remover.run();
+    
+    // Remove ourselves entirely from the vertex table, including any pages
+    // of our adjacency list (and our properties, with the merged layout)
+    adjacency.remove();
     
     // Remove ourselves from our property table
-    super.remove();
+    if(!graph.isMergedVertexLayout())
+      super.remove();
+    
+    // One counter update for us and all our edges, unless we were already
+    // gone
+    if(entries != null)
+      graph.getCounters().add(id, -1, edgeDeltas);
+  }
+
+  @Override
+  public <T> T getProperty(String key) {
+    if(projection != null && graph.getProjectedVertexProperties().contains(key)) {
+      Map<String, Object> projectedMap = getPropertyMap(projection);
+      // Entries written before the key was projected lack it
+      if(projectedMap != null && projectedMap.containsKey(key))
+        return (T) resolvePropertyValue(projectedMap.get(key));
+    }
+    
+    return super.getProperty(key);
+  }
+
+  @Override
+  public void setProperty(String key, Object value) {
+    boolean columnar = graph.getColumnarVertexProperties().contains(key);
+    
+    if(columnar && value != null && !(value instanceof Number))
+      throw new IllegalArgumentException("Columnar vertex property " + key + " only takes numbers, not " + value.getClass().getName());
+    
+    super.setProperty(key, value);
+    
+    if(graph.getProjectedVertexProperties().contains(key)) {
+      projection = null;
+      updateProjections();
+    }
+    if(columnar)
+      graph.getVertexColumn(key).set(id, (Number) value);
+  }
+
+  @Override
+  public <T> T removeProperty(String key) {
+    T retVal = super.removeProperty(key);
+    
+    if(graph.getProjectedVertexProperties().contains(key)) {
+      projection = null;
+      updateProjections();
+    }
+    if(graph.getColumnarVertexProperties().contains(key))
+      graph.getVertexColumn(key).set(id, null);
+    
+    return retVal;
+  }
+
+  /*
+   * With the merged vertex layout our properties live in the head of our
+   * adjacency list rather than in the vertex property table.
+   */
+  @Override
+  public Map<String, Object> getPropertyMap() {
+    if(!graph.isMergedVertexLayout())
+      return super.getPropertyMap();
+    
+    byte[] properties = adjacency.getProperties();
+    
+    if(properties == null) {
+      logger.log(Level.WARNING, toString() + ": Vertex does not have a property section!");
+      return null;
+    }
+    
+    return getPropertyMap(properties);
+  }
+
+  @Override
+  public void setPropertyMap(Map<String, Object> map) {
+    if(!graph.isMergedVertexLayout()) {
+      super.setPropertyMap(map);
+      return;
+    }
+    
+    byte[] properties = getPropertyMapBytes(map);
+    
+    if(properties != null)
+      adjacency.setProperties(RamCloudCompression.compress(properties, graph.getCompressionThreshold(graph.vertTableId)));
   }
 
   /*
@@ -172,7 +278,7 @@ public class RamCloudVertex extends RamCloudElement implements Vertex {
   /*
    * RamCloudVertex specific methods
    */ 
-  private static byte[] idToRcKey(long id) {
+  protected static byte[] idToRcKey(long id) {
     return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(id).array();
   }
   
@@ -180,170 +286,272 @@ public class RamCloudVertex extends RamCloudElement implements Vertex {
     return ByteBuffer.wrap(rcKey).order(ByteOrder.LITTLE_ENDIAN).getLong();
   }
 
+  protected RamCloudAdjacency getAdjacency() {
+    return adjacency;
+  }
+
   public void addEdgeLocally(RamCloudEdge edge) {
+    addEdgeLocally(edge, null);
+  }
+  
+  /*
+   * Adds an edge whose entry carries the given projection of the neighbor's
+   * properties.
+   */
+  public void addEdgeLocally(RamCloudEdge edge, byte[] neighborProjection) {
     List<RamCloudEdge> edgesToAdd = new ArrayList<RamCloudEdge>();
+    List<RamCloudAdjacency.Entry> entries = new ArrayList<RamCloudAdjacency.Entry>();
     edgesToAdd.add(edge);
-    addEdgesLocally(edgesToAdd);
+    
+    for(RamCloudAdjacency.Entry entry: edgesToEntries(edgesToAdd))
+      entries.add(entry.withProjection(neighborProjection));
+    
+    logger.log(Level.FINER, this + ": Adding edges: [edgesToAdd=" + edgesToAdd + "]");
+    
+    if(!adjacency.addEntries(entries))
+      logger.log(Level.WARNING, toString() + ": Failed to add a set of edges (" + edgesToAdd.toString() + ")");
   }
   
   public void addEdgesLocally(List<RamCloudEdge> edgesToAdd) {
     logger.log(Level.FINER, this + ": Adding edges: [edgesToAdd=" + edgesToAdd + "]");
     
-    Set<RamCloudEdge> edges = getEdgeSet();
-    
-    try {
-      if(edges.addAll(edgesToAdd))
-        setEdgeSet(edges);
-      else
-        logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToAdd.toString() + ")");
-    } catch(UnsupportedOperationException e) {
-      logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToAdd.toString() + "): " + e.getLocalizedMessage());
-    } catch(ClassCastException e) {
-      logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToAdd.toString() + "): " + e.getLocalizedMessage());
-    } catch(NullPointerException e) {
-      logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToAdd.toString() + "): " + e.getLocalizedMessage());
-    }
+    if(!adjacency.addEntries(edgesToEntries(edgesToAdd)))
+      logger.log(Level.WARNING, toString() + ": Failed to add a set of edges (" + edgesToAdd.toString() + ")");
   }
   
-  public void removeEdgeLocally(RamCloudEdge edge) {
+  public boolean removeEdgeLocally(RamCloudEdge edge) {
     List<RamCloudEdge> edgesToRemove = new ArrayList<RamCloudEdge>();
     edgesToRemove.add(edge);
-    removeEdgesLocally(edgesToRemove);
+    return removeEdgesLocally(edgesToRemove);
   }
    
-   public void removeEdgesLocally(List<RamCloudEdge> edgesToRemove) {
-     logger.log(Level.FINER, this + ": Removing edges: [edgesToRemove=" + edgesToRemove + "]");
-     
-     Set<RamCloudEdge> edges = getEdgeSet();
-     
-     try {
-       if(edges.removeAll(edgesToRemove))
-         setEdgeSet(edges);
-       else
-         logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToRemove.toString() + ")");
-     } catch(UnsupportedOperationException e) {
-       logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToRemove.toString() + "): " + e.getLocalizedMessage());
-     } catch(ClassCastException e) {
-       logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToRemove.toString() + "): " + e.getLocalizedMessage());
-     } catch(NullPointerException e) {
-       logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToRemove.toString() + "): " + e.getLocalizedMessage());
-     }
-   }
+  public boolean removeEdgesLocally(List<RamCloudEdge> edgesToRemove) {
+    logger.log(Level.FINER, this + ": Removing edges: [edgesToRemove=" + edgesToRemove + "]");
+    
+    if(!adjacency.removeEntries(edgesToEntries(edgesToRemove))) {
+      logger.log(Level.WARNING, toString() + ": Failed to remove a set of edges (" + edgesToRemove.toString() + ")");
+      return false;
+    }
+    return true;
+  }
+
+  /*
+   * Replaces the properties recorded in our adjacency list entries for the
+   * given edge.
+   */
+  public boolean updateEdgeLocally(RamCloudEdge edge, byte[] properties, boolean spilled) {
+    List<RamCloudEdge> edges = new ArrayList<RamCloudEdge>();
+    List<RamCloudAdjacency.Entry> entries = new ArrayList<RamCloudAdjacency.Entry>();
+    edges.add(edge);
+    
+    for(RamCloudAdjacency.Entry entry: edgesToEntries(edges))
+      entries.add(entry.withProperties(properties, spilled));
+    
+    return adjacency.updateEntries(entries);
+  }
+
+  /*
+   * Returns the serialized map of our projected properties to store in our
+   * neighbors' entries, or null if the graph projects none.
+   */
+  protected byte[] getProjection() {
+    Set<String> keys = graph.getProjectedVertexProperties();
+    
+    if(keys.isEmpty())
+      return null;
+    
+    Map<String, Object> map = getPropertyMap();
+    Map<String, Object> projectedMap = new HashMap<String, Object>();
+    
+    if(map != null) {
+      for(String key: keys) {
+        if(map.containsKey(key))
+          projectedMap.put(key, map.get(key));
+      }
+    }
+    
+    return getPropertyMapBytes(projectedMap);
+  }
+  
+  /*
+   * Rewrites the copy of our projected properties in the entry of every
+   * edge in our neighbors' adjacency lists, one batch per neighbor.
+   */
+  protected void updateProjections() {
+    byte[] neighborProjection = getProjection();
+    List<RamCloudAdjacency.Entry> entries = adjacency.getEntries();
+    Map<Long, List<RamCloudAdjacency.Entry>> neighborToEntriesMap = new HashMap<Long, List<RamCloudAdjacency.Entry>>();
+    
+    if(neighborProjection == null || entries == null)
+      return;
+    
+    for(RamCloudAdjacency.Entry entry: entries) {
+      List<RamCloudAdjacency.Entry> neighborEntries = neighborToEntriesMap.get(entry.neighborId);
+      
+      if(neighborEntries == null)
+        neighborEntries = new ArrayList<RamCloudAdjacency.Entry>();
+      
+      neighborEntries.add(new RamCloudAdjacency.Entry(id, !entry.outgoing, entry.label).withProjection(neighborProjection));
+      neighborToEntriesMap.put(entry.neighborId, neighborEntries);
+    }
+    
+    // Changes to neighbors' entries must stay ordered with any in-edge
+    // changes still queued for them
+    for(Entry<Long, List<RamCloudAdjacency.Entry>> neighborEntries: neighborToEntriesMap.entrySet()) {
+      if(graph.isAsyncInEdges())
+        graph.getInEdgeApplier().schedule(neighborEntries.getKey(), RamCloudAdjacency.DELTA_PROJECT, neighborEntries.getValue());
+      else
+        new RamCloudVertex(neighborEntries.getKey(), graph).getAdjacency().projectEntries(neighborEntries.getValue());
+    }
+  }
+
+  /**
+   * Returns the number of edges of this vertex in the given direction with
+   * any of the given labels (all labels if none are given), as recorded in
+   * the header of its adjacency list. Self loops count once in each
+   * direction.
+   */
+  public long getDegree(Direction direction, String... labels) {
+    return adjacency.getDegree(direction, labels);
+  }
+
+  /**
+   * Checks whether the given edge is recorded in our adjacency list without
+   * reading the whole list. Definite misses only cost the read of the list's
+   * head.
+   */
+  public boolean hasEdgeLocally(RamCloudEdge edge) {
+    List<RamCloudEdge> edges = new ArrayList<RamCloudEdge>();
+    edges.add(edge);
+    
+    for(RamCloudAdjacency.Entry entry: edgesToEntries(edges)) {
+      if(!adjacency.contains(entry))
+        return false;
+    }
+    
+    return true;
+  }
+
+  /*
+   * Returns our adjacency list entry for the given edge, including the
+   * edge's properties, or null if we do not have the edge.
+   */
+  protected RamCloudAdjacency.Entry findEdgeLocally(RamCloudEdge edge) {
+    List<RamCloudEdge> edges = new ArrayList<RamCloudEdge>();
+    edges.add(edge);
+    
+    List<RamCloudAdjacency.Entry> entries = edgesToEntries(edges);
+    
+    if(entries.isEmpty())
+      return null;
+    
+    return adjacency.find(entries.get(0));
+  }
 
   public Set<RamCloudEdge> getEdgeSet() {
     return getEdgeSet(Direction.BOTH);
   }
   
   public Set<RamCloudEdge> getEdgeSet(Direction direction, String... labels) {
-    JRamCloud.Object vertTableEntry;
-    EdgeListProtoBuf edgeList;
-    Set<RamCloudEdge> edgeSet = new HashSet<RamCloudEdge>();
-    RamCloudVertex neighbor;
+    List<RamCloudEdge> edgeList = getEdgeList(direction, labels);
     
-    try {
-      vertTableEntry = graph.rcClient.read(graph.vertTableId, rcKey);
-    } catch(Exception e) {
-      logger.log(Level.WARNING, toString() + ": Error reading vertex table entry: " + e.toString());
+    if(edgeList == null)
       return null;
-    }
     
-    try {
-      edgeList = EdgeListProtoBuf.parseFrom(vertTableEntry.value);
-    } catch(InvalidProtocolBufferException e) {
-      logger.log(Level.WARNING, toString() + ": Read malformed edge list: " + e.toString());
+    return new HashSet<RamCloudEdge>(edgeList);
+  }
+  
+  public void setEdgeSet(Set<RamCloudEdge> edgeSet) {
+    adjacency.setEntries(edgesToEntries(edgeSet));
+  }
+  
+  public List<RamCloudEdge> getEdgeList() {
+    return getEdgeList(Direction.BOTH);
+  }
+ 
+  public List<RamCloudEdge> getEdgeList(Direction direction, String... labels) {
+    List<RamCloudAdjacency.Entry> entries = adjacency.getEntries();
+    List<RamCloudEdge> edgeList = new ArrayList<RamCloudEdge>();
+    
+    if(entries == null)
       return null;
-    }
     
-    for(EdgeProtoBuf edge: edgeList.getEdgeList()) {
-      if( (direction.equals(Direction.BOTH) || (edge.getOutgoing() ^ direction.equals(Direction.IN))) && 
-          (labels.length == 0 || Arrays.asList(labels).contains(edge.getLabel()))) {
-        neighbor = new RamCloudVertex(edge.getNeighborId(), graph);
-        if(edge.getOutgoing()) {
-          edgeSet.add(new RamCloudEdge(this, neighbor, edge.getLabel(), graph));
-        } else {
-          edgeSet.add(new RamCloudEdge(neighbor, this, edge.getLabel(), graph));
-        }
+    for(RamCloudAdjacency.Entry entry: entries) {
+      if( (direction.equals(Direction.BOTH) || (entry.outgoing ^ direction.equals(Direction.IN))) && 
+          (labels.length == 0 || Arrays.asList(labels).contains(entry.label))) {
+        edgeList.add(entryToEdge(entry));
       }
     }
     
-    return edgeSet;
+    return edgeList;
   }
   
-  public void setEdgeSet(Set<RamCloudEdge> edgeSet) {
-    EdgeListProtoBuf.Builder edgeListBuilder = EdgeListProtoBuf.newBuilder();
-    EdgeProtoBuf.Builder edgeBuilder = EdgeProtoBuf.newBuilder();
-    
-    for(Edge edge: edgeSet) {
-      if(edge.getVertex(Direction.OUT).equals(this) || edge.getVertex(Direction.IN).equals(this)) {
-        if(edge.getVertex(Direction.OUT).equals(edge.getVertex(Direction.IN))) {
-          edgeBuilder.setNeighborId(id);
-          edgeBuilder.setOutgoing(true);
-          edgeBuilder.setLabel(edge.getLabel());
-          edgeListBuilder.addEdge(edgeBuilder.build());
-          
-          edgeBuilder.setOutgoing(false);
-          edgeListBuilder.addEdge(edgeBuilder.build());
-        } else {
-          if(edge.getVertex(Direction.OUT).equals(this)) {
-            edgeBuilder.setNeighborId((Long) edge.getVertex(Direction.IN).getId());
-            edgeBuilder.setOutgoing(true);
-            edgeBuilder.setLabel(edge.getLabel());
-            edgeListBuilder.addEdge(edgeBuilder.build());
-          } else {
-            edgeBuilder.setNeighborId((Long) edge.getVertex(Direction.OUT).getId());
-            edgeBuilder.setOutgoing(false);
-            edgeBuilder.setLabel(edge.getLabel());
-            edgeListBuilder.addEdge(edgeBuilder.build());
-          }
-        }
-      } else {
-        logger.log(Level.WARNING, toString() + ": Tried to add an edge unowned by this vertex (" + edge.toString() + ")");
-      }
+  /*
+   * Our outgoing edges, given the value of our head as a table enumeration
+   * returned it, so that only the pages of a paged list are read again.
+   */
+  protected List<RamCloudEdge> getOutEdgeList(byte[] headValue) {
+    RamCloudAdjacency.Head head = RamCloudAdjacency.decodeHead(headValue);
+    List<RamCloudAdjacency.Entry> entries = head.isPaged() ? adjacency.getEntries() : new ArrayList<RamCloudAdjacency.Entry>(head.entries);
+    List<RamCloudEdge> edgeList = new ArrayList<RamCloudEdge>();
+    
+    if(entries == null)
+      return null;
+    
+    for(RamCloudAdjacency.Entry entry: entries) {
+      if(entry.outgoing)
+        edgeList.add(entryToEdge(entry));
     }
     
-    graph.rcClient.write(graph.vertTableId, rcKey, edgeListBuilder.build().toByteArray());
+    return edgeList;
   }
   
- public List<RamCloudEdge> getEdgeList() {
-   return getEdgeList(Direction.BOTH);
- }
- 
- public List<RamCloudEdge> getEdgeList(Direction direction, String... labels) {
-   JRamCloud.Object vertTableEntry;
-   EdgeListProtoBuf edgeListPB;
-   List<RamCloudEdge> edgeList = new ArrayList<RamCloudEdge>();
-   RamCloudVertex neighbor;
-   
-   try {
-     vertTableEntry = graph.rcClient.read(graph.vertTableId, rcKey);
-   } catch(Exception e) {
-     logger.log(Level.WARNING, toString() + ": Error reading vertex table entry: " + e.getMessage());
-     return null;
-   }
-   
-   try {
-     edgeListPB = EdgeListProtoBuf.parseFrom(vertTableEntry.value);
-   } catch(InvalidProtocolBufferException e) {
-     logger.log(Level.WARNING, toString() + ": Read malformed edge list: " + e.getMessage());
-     return null;
-   }
-   
-   for(EdgeProtoBuf edge: edgeListPB.getEdgeList()) {
-     if( (direction.equals(Direction.BOTH) || (edge.getOutgoing() ^ direction.equals(Direction.IN))) && 
-         (labels.length == 0 || Arrays.asList(labels).contains(edge.getLabel()))) {
-       neighbor = new RamCloudVertex(edge.getNeighborId(), graph);
-       if(edge.getOutgoing()) {
-         edgeList.add(new RamCloudEdge(this, neighbor, edge.getLabel(), graph));
-       } else {
-         edgeList.add(new RamCloudEdge(neighbor, this, edge.getLabel(), graph));
-       }
-     }
-   }
-   
-   return edgeList;
- }
+  protected RamCloudVertex entryToNeighbor(RamCloudAdjacency.Entry entry) {
+    return new RamCloudVertex(entry.neighborId, graph, entry.projection);
+  }
+  
+  protected RamCloudEdge entryToEdge(RamCloudAdjacency.Entry entry) {
+    RamCloudVertex neighbor = entryToNeighbor(entry);
+    
+    if(entry.outgoing)
+      return new RamCloudEdge(this, neighbor, entry.label, graph, entry);
+    else
+      return new RamCloudEdge(neighbor, this, entry.label, graph, entry);
+  }
+  
+  /*
+   * Converts edges incident to this vertex into entries of our adjacency list.
+   * Self loops are recorded twice, once in each direction.
+   */
+  private List<RamCloudAdjacency.Entry> edgesToEntries(Collection<RamCloudEdge> edges) {
+    List<RamCloudAdjacency.Entry> entries = new ArrayList<RamCloudAdjacency.Entry>();
+    
+    for(RamCloudEdge edge: edges) {
+      RamCloudVertex outVertex = (RamCloudVertex) edge.getVertex(Direction.OUT);
+      RamCloudVertex inVertex = (RamCloudVertex) edge.getVertex(Direction.IN);
+      
+      if(outVertex.equals(this))
+        entries.add(new RamCloudAdjacency.Entry(inVertex.id, true, edge.getLabel()));
+      if(inVertex.equals(this))
+        entries.add(new RamCloudAdjacency.Entry(outVertex.id, false, edge.getLabel()));
+      if(!outVertex.equals(this) && !inVertex.equals(this))
+        logger.log(Level.WARNING, toString() + ": Tried to add an edge unowned by this vertex (" + edge.toString() + ")");
+    }
+    
+    return entries;
+  }
 
   protected boolean exists() {
+    if(graph.isMergedVertexLayout()) {
+      try {
+        graph.rcClient.read(graph.vertTableId, rcKey);
+        return true;
+      } catch(Exception e) {
+        // Vertex table entry does not exist
+        return false;
+      }
+    }
+    
     boolean vertTableEntryExists = false;
     boolean vertPropTableEntryExists = false;
     
@@ -372,10 +580,16 @@ public class RamCloudVertex extends RamCloudElement implements Vertex {
   }
   
   protected void create() throws IllegalArgumentException {
-    // TODO: Existence check costs extra (presently 2 reads), could use option to turn on/off
+    // TODO: Existence check costs extra (presently 2 reads, or 1 with the
+    // merged layout), could use option to turn on/off
     if(!exists()) {
-      graph.rcClient.write(graph.vertTableId, rcKey, ByteBuffer.allocate(0).array());
-      graph.rcClient.write(graph.vertPropTableId, rcKey, ByteBuffer.allocate(0).array());
+      if(graph.isMergedVertexLayout()) {
+        adjacency.create(ByteBuffer.allocate(0).array());
+      } else {
+        adjacency.create(null);
+        graph.rcClient.write(graph.vertPropTableId, rcKey, ByteBuffer.allocate(0).array());
+      }
+      graph.getCounters().addVertex(id, 1);
     } else {
       throw ExceptionFactory.vertexWithIdAlreadyExists(id);
     }
@@ -0,0 +1,169 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+import com.tinkerpop.blueprints.util.DefaultVertexQuery;
+
+/*
+ * Evaluates the query on the vertex's adjacency list entries, and only builds
+ * edges and neighbor vertices for the entries that pass the direction, label
+ * and property conditions and fall within the limit. count() and vertexIds()
+ * build no elements at all. Inline edge property maps are searched for the
+ * strings any match must contain before they are deserialized, like in
+ * RamCloudGraphQuery.
+ */
+public class RamCloudVertexQuery extends DefaultVertexQuery {
+
+  private static final String ID = "id";
+  private static final String LABEL = "label";
+  private static final byte[] NO_PROPERTIES = new byte[0];
+
+  private RamCloudGraph graph;
+
+  public RamCloudVertexQuery(RamCloudVertex vertex, RamCloudGraph graph) {
+    super(vertex);
+    
+    this.graph = graph;
+  }
+
+  @Override
+  public Iterable<Edge> edges() {
+    List<Edge> edges = new ArrayList<Edge>();
+    
+    for(Entry entry: getEntries())
+      edges.add(((RamCloudVertex) vertex).entryToEdge(entry));
+    
+    return edges;
+  }
+
+  @Override
+  public Iterable<Vertex> vertices() {
+    List<Vertex> vertices = new ArrayList<Vertex>();
+    
+    for(Entry entry: getEntries())
+      vertices.add(((RamCloudVertex) vertex).entryToNeighbor(entry));
+    
+    return vertices;
+  }
+
+  @Override
+  public long count() {
+    // Without property filters the count comes straight from the degree
+    // header of the adjacency list
+    if(hasContainers.isEmpty())
+      return Math.min(((RamCloudVertex) vertex).getDegree(direction, labels), limit);
+    
+    return getEntries().size();
+  }
+
+  @Override
+  public Object vertexIds() {
+    List<Object> ids = new ArrayList<Object>();
+    
+    for(Entry entry: getEntries())
+      ids.add(entry.neighborId);
+    
+    return ids;
+  }
+
+  /*
+   * The entries of the matching edges, up to the limit.
+   */
+  protected List<Entry> getEntries() {
+    List<Entry> entries = ((RamCloudVertex) vertex).getAdjacency().getEntries();
+    List<Entry> matches = new ArrayList<Entry>();
+    List<byte[]> needles = RamCloudGraphQuery.getNeedles(hasContainers, graph.getLowestBlobThreshold());
+    
+    if(entries == null)
+      return Collections.emptyList();
+    
+    for(Entry entry: entries) {
+      if(matches.size() >= limit)
+        break;
+      if(matchesDirection(entry) && matchesLabels(entry) && matchesProperties(entry, needles))
+        matches.add(entry);
+    }
+    
+    return matches;
+  }
+
+  private boolean matchesDirection(Entry entry) {
+    return direction == Direction.BOTH || (entry.outgoing ^ direction == Direction.IN);
+  }
+
+  private boolean matchesLabels(Entry entry) {
+    if(labels.length == 0)
+      return true;
+    
+    for(String label: labels) {
+      if(label.equals(entry.label))
+        return true;
+    }
+    return false;
+  }
+
+  private boolean matchesProperties(Entry entry, List<byte[]> needles) {
+    Map<String, Object> map = null;
+    RamCloudEdge edge = null;
+    
+    if(hasContainers.isEmpty())
+      return true;
+    
+    if(!entry.spilled && !RamCloudGraphQuery.containsAll(entry.properties == null ? NO_PROPERTIES : entry.properties, needles))
+      return false;
+    
+    for(HasContainer hasContainer: hasContainers) {
+      Object value;
+      
+      if(hasContainer.key.equals(LABEL)) {
+        value = entry.label;
+      } else if(hasContainer.key.equals(ID)) {
+        if(edge == null)
+          edge = ((RamCloudVertex) vertex).entryToEdge(entry);
+        if(!hasContainer.isLegal(edge))
+          return false;
+        continue;
+      } else {
+        if(map == null) {
+          // Only spilled maps need an edge, to read them from the edge
+          // property table
+          if(entry.spilled && edge == null)
+            edge = ((RamCloudVertex) vertex).entryToEdge(entry);
+          map = entry.spilled ? edge.getPropertyMap() : RamCloudElement.getPropertyMap(entry.properties == null ? NO_PROPERTIES : entry.properties);
+          if(map == null)
+            map = Collections.emptyMap();
+        }
+        value = map.get(hasContainer.key);
+        if(value instanceof RamCloudBlob)
+          value = ((RamCloudBlob) value).getValue(graph);
+      }
+      
+      if(!hasContainer.predicate.evaluate(value, hasContainer.value))
+        return false;
+    }
+    
+    return true;
+  }
+}
@@ -25,7 +25,9 @@ import java.util.logging.Level;
 public class RamCloudGraphConfiguration implements GraphConfiguration {
 
     public Graph configureGraphInstance(final Configuration properties) throws GraphConfigurationException {
-        return new RamCloudGraph("infrc:host=192.168.1.101,port=12246", Level.FINE);
+        final Configuration graphProperties = properties.subset("properties");
+        final String coordinatorLocation = graphProperties.getString("coordinator", "infrc:host=192.168.1.101,port=12246");
+        return new RamCloudGraph(coordinatorLocation, graphProperties, Level.FINE);
     }
 
 }
@@ -46,6 +46,36 @@ public class JRamCloud {
         boolean exists = false;
         boolean versionLeGiven = false;
         boolean versionNeGiven = false;
+
+        public void
+        setGivenVersion(long givenVersion)
+        {
+            this.givenVersion = givenVersion;
+        }
+
+        public void
+        rejectIfDoesntExist(boolean reject)
+        {
+            doesntExist = reject;
+        }
+
+        public void
+        rejectIfExists(boolean reject)
+        {
+            exists = reject;
+        }
+
+        public void
+        rejectIfVersionLeGiven(boolean reject)
+        {
+            versionLeGiven = reject;
+        }
+
+        public void
+        rejectIfVersionNeGiven(boolean reject)
+        {
+            versionNeGiven = reject;
+        }
     }
 
     /**
@@ -86,12 +116,22 @@ public class JRamCloud {
         private long ramCloudObjectPointer = 0;
         
         public TableEnumerator(long tableId)
+        {
+            this(tableId, new byte[0][]);
+        }
+        
+        /**
+         * Enumerates only the objects whose value contains every one of the
+         * given byte strings. The test runs in the native library, so other
+         * objects are never copied into Java.
+         */
+        public TableEnumerator(long tableId, byte[][] valueSubstrings)
         {
             ramCloudObjectPointer = ramcloudObjectPointer;
-            tableEnumeratorObjectPointer = init(tableId);
+            tableEnumeratorObjectPointer = init(tableId, valueSubstrings);
         }
         
-        private native long init(long tableId);
+        private native long init(long tableId, byte[][] valueSubstrings);
         public native boolean hasNext();
         public native Object next();
     }
@@ -222,6 +262,26 @@ public class JRamCloud {
     public native long write(long tableId, byte[] key, byte[] value);
     public native long write(long tableId, byte[] key, byte[] value, RejectRules rules);
 
+    /**
+     * Writes a batch of objects, sending one RPC to each server involved
+     * rather than one per object. The arrays are parallel: object i has key
+     * keys[i] and value values[i] in table tableIds[i].
+     */
+    public native void multiWrite(long[] tableIds, byte[][] keys, byte[][] values);
+
+    /**
+     * Reads a batch of objects, sending one RPC to each server involved.
+     * Object i has key keys[i] in table tableIds[i], and is returned at
+     * index i of the result, or null if it does not exist.
+     */
+    public native Object[] multiRead(long[] tableIds, byte[][] keys);
+
+    /**
+     * Removes a batch of objects, sending one RPC to each server involved.
+     * Objects that do not exist are ignored, as with remove().
+     */
+    public native void multiRemove(long[] tableIds, byte[][] keys);
+
     /*
      * The following exceptions may be thrown by the JNI functions:
      */
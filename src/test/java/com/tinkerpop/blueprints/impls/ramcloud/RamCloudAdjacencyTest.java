@@ -0,0 +1,341 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import com.tinkerpop.blueprints.Direction;
+
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Delta;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Head;
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Page;
+
+/**
+ * Head, page and delta encodings of adjacency lists, and how deltas fold.
+ */
+public class RamCloudAdjacencyTest extends TestCase {
+
+  public void testEmptyObjectDecodesAsEmptyInlineList() {
+    Head head = RamCloudAdjacency.decodeHead(new byte[0]);
+    assertFalse(head.isPaged());
+    assertEquals(0, head.entries.size());
+  }
+
+  public void testInlineHeadRoundTrip() {
+    Head head = new Head();
+    head.entries.add(new Entry(7, true, "knows"));
+    head.entries.add(new Entry(7, false, "knows"));
+    head.entries.add(new Entry(3, true, "likes"));
+
+    Head decoded = RamCloudAdjacency.decodeHead(RamCloudAdjacency.encodeHead(head));
+    assertFalse(decoded.isPaged());
+    assertEquals(head.entries, decoded.entries);
+    assertEquals(3L, decoded.entries.first().neighborId);
+  }
+
+  public void testPagedHeadRoundTrip() {
+    Head head = new Head();
+    head.format = RamCloudAdjacency.FORMAT_PAGED;
+    head.nextPageId = 5;
+    head.firstDelta = 7;
+    head.deltaCount = 2;
+    for(int i = 0; i < 3; i++) {
+      Page page = new Page(i);
+      page.bytes = 100 * i;
+      page.count = i;
+      page.first = new Entry(i * 1000, true, "knows");
+      head.pages.add(page);
+    }
+
+    Head decoded = RamCloudAdjacency.decodeHead(RamCloudAdjacency.encodeHead(head));
+    assertTrue(decoded.isPaged());
+    assertEquals(5, decoded.nextPageId);
+    assertEquals(7, decoded.firstDelta);
+    assertEquals(2, decoded.deltaCount);
+    assertEquals(3, decoded.pages.size());
+    assertEquals(2, decoded.pages.get(2).pageId);
+    assertEquals(200, decoded.pages.get(2).bytes);
+    assertEquals(new Entry(2000, true, "knows"), decoded.pages.get(2).first);
+  }
+
+  public void testPropertiesRoundTrip() {
+    Head head = new Head();
+    head.properties = new byte[] {1, 2, 3};
+    head.entries.add(new Entry(7, true, "knows"));
+
+    byte[] value = RamCloudAdjacency.encodeHead(head);
+    Head decoded = RamCloudAdjacency.decodeHead(value);
+    assertTrue(Arrays.equals(head.properties, decoded.properties));
+    assertEquals(head.entries, decoded.entries);
+    assertTrue(Arrays.equals(head.properties, RamCloudAdjacency.decodeProperties(value)));
+    assertNull(RamCloudAdjacency.decodeProperties(RamCloudAdjacency.encodeHead(new Head())));
+  }
+
+  public void testSplitRespectsPageSize() {
+    List<Entry> entries = new ArrayList<Entry>();
+    for(int i = 0; i < 1000; i++)
+      entries.add(new Entry(i, true, "knows"));
+
+    int maxBytes = 200;
+    int total = 0;
+    for(List<Entry> chunk: RamCloudAdjacency.split(entries, maxBytes)) {
+      assertTrue(RamCloudAdjacency.encodedSize(chunk) <= maxBytes);
+      total += chunk.size();
+    }
+    assertEquals(1000, total);
+  }
+
+  public void testFindPage() {
+    List<Page> pages = new ArrayList<Page>();
+    for(int i = 0; i < 4; i++) {
+      Page page = new Page(i);
+      page.first = new Entry(i * 10, true, "a");
+      pages.add(page);
+    }
+
+    assertEquals(0, RamCloudAdjacency.findPage(pages, new Entry(-5, true, "a")));
+    assertEquals(0, RamCloudAdjacency.findPage(pages, new Entry(9, true, "z")));
+    assertEquals(1, RamCloudAdjacency.findPage(pages, new Entry(10, true, "a")));
+    assertEquals(3, RamCloudAdjacency.findPage(pages, new Entry(1000, false, "a")));
+  }
+
+  public void testDeltaRoundTrip() {
+    TreeSet<Entry> entries = new TreeSet<Entry>();
+    entries.add(new Entry(1, true, "knows"));
+    entries.add(new Entry(2, false, "knows"));
+
+    Delta decoded = RamCloudAdjacency.decodeDelta(RamCloudAdjacency.encodeDelta(new Delta(RamCloudAdjacency.DELTA_REMOVE, entries)));
+    assertEquals(RamCloudAdjacency.DELTA_REMOVE, decoded.op);
+    assertEquals(entries, decoded.entries);
+  }
+
+  public void testFoldDeltasKeepsLastChange() {
+    Entry a = new Entry(1, true, "knows");
+    Entry b = new Entry(2, true, "knows");
+    List<Delta> deltas = new ArrayList<Delta>();
+    deltas.add(new Delta(RamCloudAdjacency.DELTA_ADD, new TreeSet<Entry>(Arrays.asList(a, b))));
+    deltas.add(new Delta(RamCloudAdjacency.DELTA_REMOVE, new TreeSet<Entry>(Arrays.asList(a))));
+
+    List<Entry> entriesToAdd = new ArrayList<Entry>();
+    List<Entry> entriesToRemove = new ArrayList<Entry>();
+    RamCloudAdjacency.foldDeltas(deltas, entriesToAdd, entriesToRemove, new ArrayList<Delta>());
+
+    assertEquals(1, entriesToAdd.size());
+    assertEquals(b, entriesToAdd.get(0));
+    assertEquals(1, entriesToRemove.size());
+    assertEquals(a, entriesToRemove.get(0));
+  }
+
+  public void testFoldDeltasKeepsUpdatesOfLiveEntries() {
+    Entry a = new Entry(1, true, "knows");
+    Entry b = new Entry(2, true, "knows");
+    byte[] weight = new byte[] {42};
+    List<Delta> deltas = new ArrayList<Delta>();
+    deltas.add(new Delta(RamCloudAdjacency.DELTA_ADD, new TreeSet<Entry>(Arrays.asList(a))));
+    deltas.add(new Delta(RamCloudAdjacency.DELTA_UPDATE, new TreeSet<Entry>(Arrays.asList(a.withProperties(weight, false), b.withProperties(weight, false)))));
+    deltas.add(new Delta(RamCloudAdjacency.DELTA_REMOVE, new TreeSet<Entry>(Arrays.asList(b))));
+
+    List<Entry> entriesToAdd = new ArrayList<Entry>();
+    List<Entry> entriesToRemove = new ArrayList<Entry>();
+    List<Delta> updates = new ArrayList<Delta>();
+    RamCloudAdjacency.foldDeltas(deltas, entriesToAdd, entriesToRemove, updates);
+
+    assertEquals(Arrays.asList(a), entriesToAdd);
+    assertEquals(Arrays.asList(b), entriesToRemove);
+    assertEquals(1, updates.size());
+    assertEquals(RamCloudAdjacency.DELTA_UPDATE, updates.get(0).op);
+    assertEquals(1, updates.get(0).entries.size());
+    assertTrue(Arrays.equals(weight, updates.get(0).entries.first().properties));
+  }
+
+  public void testProjectionUpdateKeepsEdgeProperties() {
+    TreeSet<Entry> entries = new TreeSet<Entry>();
+    entries.add(new Entry(1, true, "knows", new byte[] {1}, false, null));
+
+    assertTrue(RamCloudAdjacency.replace(entries, new Entry(1, true, "knows").withProjection(new byte[] {2}), RamCloudAdjacency.DELTA_PROJECT));
+    assertTrue(Arrays.equals(new byte[] {1}, entries.first().properties));
+    assertTrue(Arrays.equals(new byte[] {2}, entries.first().projection));
+
+    assertTrue(RamCloudAdjacency.replace(entries, new Entry(1, true, "knows", new byte[] {3}, false), RamCloudAdjacency.DELTA_UPDATE));
+    assertTrue(Arrays.equals(new byte[] {3}, entries.first().properties));
+    assertTrue(Arrays.equals(new byte[] {2}, entries.first().projection));
+
+    assertFalse(RamCloudAdjacency.replace(entries, new Entry(2, true, "knows").withProjection(new byte[] {2}), RamCloudAdjacency.DELTA_PROJECT));
+  }
+
+  public void testEntryPropertiesRoundTrip() {
+    Head head = new Head();
+    head.entries.add(new Entry(1, true, "knows", new byte[] {1, 2}, false));
+    head.entries.add(new Entry(2, false, "knows", null, true));
+    head.entries.add(new Entry(3, true, "knows", null, false, new byte[] {3}));
+
+    List<Entry> decoded = new ArrayList<Entry>(RamCloudAdjacency.decodeHead(RamCloudAdjacency.encodeHead(head)).entries);
+    assertTrue(Arrays.equals(new byte[] {1, 2}, decoded.get(0).properties));
+    assertFalse(decoded.get(0).spilled);
+    assertNull(decoded.get(1).properties);
+    assertTrue(decoded.get(1).spilled);
+    assertNull(decoded.get(2).properties);
+    assertFalse(decoded.get(2).spilled);
+    assertTrue(Arrays.equals(new byte[] {3}, decoded.get(2).projection));
+    assertNull(decoded.get(0).projection);
+  }
+
+  public void testCountsRoundTrip() {
+    Head head = new Head();
+    Entry[] entries = { new Entry(1, true, "knows"), new Entry(2, true, "likes"), new Entry(3, false, "knows") };
+    for(Entry entry: entries) {
+      head.entries.add(entry);
+      head.count(entry, 1);
+    }
+
+    Head decoded = RamCloudAdjacency.decodeHeadSummary(RamCloudAdjacency.encodeHead(head));
+    assertEquals(2L, decoded.getDegree(Direction.OUT));
+    assertEquals(1L, decoded.getDegree(Direction.IN));
+    assertEquals(3L, decoded.getDegree(Direction.BOTH));
+    assertEquals(2L, decoded.getDegree(Direction.BOTH, "knows"));
+    assertEquals(1L, decoded.getDegree(Direction.OUT, "knows", "knows"));
+    assertEquals(0L, decoded.getDegree(Direction.IN, "likes"));
+
+    decoded.count(entries[1], -1);
+    assertFalse(decoded.labelCounts.containsKey("likes"));
+    assertEquals(3, RamCloudAdjacency.decodeHead(RamCloudAdjacency.encodeHead(head)).entries.size());
+  }
+
+  public void testCompressedHeadRoundTrip() {
+    Head head = new Head();
+    head.properties = new byte[] {1, 2, 3};
+    for(int i = 0; i < 200; i++)
+      head.entries.add(new Entry(i, i % 2 == 0, "knows"));
+
+    byte[] plain = RamCloudAdjacency.encodeHead(head);
+    byte[] compressed = RamCloudAdjacency.encodeHead(head, 64);
+    assertTrue(compressed.length < plain.length);
+    assertEquals(head.entries, RamCloudAdjacency.decodeHead(compressed).entries);
+    assertTrue(Arrays.equals(head.properties, RamCloudAdjacency.decodeProperties(compressed)));
+    assertFalse(RamCloudAdjacency.decodeHeadSummary(compressed).isPaged());
+  }
+
+  public void testCompressedPageRoundTrip() {
+    TreeSet<Entry> entries = new TreeSet<Entry>();
+    for(int i = 0; i < 200; i++)
+      entries.add(new Entry(i, true, "likes"));
+
+    byte[] small = RamCloudAdjacency.encodePage(entries, RamCloudCompression.DISABLED);
+    byte[] compressed = RamCloudAdjacency.encodePage(entries, 64);
+    assertTrue(compressed.length < small.length);
+    assertEquals(entries, RamCloudAdjacency.decodePage(small));
+    assertEquals(entries, RamCloudAdjacency.decodePage(compressed));
+  }
+
+  public void testRemoveInlineKeepsCountsAndProperties() {
+    Head head = new Head();
+    head.properties = new byte[] {1, 2, 3};
+    Entry[] entries = { new Entry(1, true, "knows"), new Entry(2, false, "knows"), new Entry(3, true, "likes") };
+    for(Entry entry: entries) {
+      head.entries.add(entry);
+      head.count(entry, 1);
+    }
+
+    assertFalse(RamCloudAdjacency.removeInline(head, Arrays.asList(new Entry(1, false, "knows"))));
+    assertTrue(RamCloudAdjacency.removeInline(head, Arrays.asList(new Entry(2, false, "knows"), new Entry(3, true, "likes"))));
+
+    Head decoded = RamCloudAdjacency.decodeHead(RamCloudAdjacency.encodeHead(head));
+    assertEquals(1, decoded.entries.size());
+    assertEquals(1L, decoded.getDegree(Direction.BOTH));
+    assertFalse(decoded.labelCounts.containsKey("likes"));
+    assertTrue(decoded.bloomFilter.mightContain(entries[0]));
+    assertTrue(Arrays.equals(head.properties, decoded.properties));
+  }
+
+  /*
+   * An adjacency list whose pages and head are kept in memory.
+   */
+  private static class MemoryAdjacency extends RamCloudAdjacency {
+    Map<Integer, TreeSet<Entry>> pages = new HashMap<Integer, TreeSet<Entry>>();
+    Head head;
+
+    MemoryAdjacency() {
+      super(1, new byte[8], null);
+    }
+
+    @Override
+    protected TreeSet<Entry> readPage(Page page) {
+      return new TreeSet<Entry>(pages.get(page.pageId));
+    }
+
+    @Override
+    protected void writePage(Page page, Collection<Entry> entries) {
+      page.bytes = encodedSize(entries);
+      page.count = entries.size();
+      page.first = entries.iterator().next();
+      pages.put(page.pageId, new TreeSet<Entry>(entries));
+    }
+
+    @Override
+    protected void removePage(Page page) {
+      pages.remove(page.pageId);
+    }
+
+    @Override
+    protected void writeHead(Head head) {
+      this.head = head;
+    }
+  }
+
+  public void testFoldingIntoOnePageKeepsPagesSmall() {
+    MemoryAdjacency adjacency = new MemoryAdjacency();
+    Head head = new Head();
+    head.format = RamCloudAdjacency.FORMAT_PAGED;
+    Page page = new Page(head.nextPageId++);
+    adjacency.writePage(page, Arrays.asList(new Entry(0, true, "knows")));
+    head.pages.add(page);
+    head.count(new Entry(0, true, "knows"), 1);
+
+    // All additions fall into the only page, at well over twice its size
+    List<Entry> entries = new ArrayList<Entry>();
+    for(int i = 1; entries.size() * 40 < 3 * RamCloudAdjacency.MAX_PAGE_BYTES; i++)
+      entries.add(new Entry(i, true, "a-label-long-enough-to-fill-pages"));
+    assertTrue(RamCloudAdjacency.encodedSize(entries) > 2 * RamCloudAdjacency.MAX_PAGE_BYTES);
+    assertTrue(adjacency.apply(head, entries, new ArrayList<Entry>(), new ArrayList<Delta>(), false));
+
+    Head written = adjacency.head;
+    assertTrue(written.isPaged());
+    assertTrue(written.pages.size() > 2);
+    TreeSet<Entry> all = new TreeSet<Entry>();
+    Entry previousFirst = null;
+    for(Page writtenPage: written.pages) {
+      TreeSet<Entry> pageEntries = adjacency.pages.get(writtenPage.pageId);
+      assertTrue(RamCloudAdjacency.encodedSize(pageEntries) <= RamCloudAdjacency.MAX_PAGE_BYTES);
+      assertEquals(pageEntries.first(), writtenPage.first);
+      if(previousFirst != null)
+        assertTrue(previousFirst.compareTo(writtenPage.first) < 0);
+      previousFirst = writtenPage.first;
+      all.addAll(pageEntries);
+    }
+    assertEquals(entries.size() + 1, all.size());
+    assertEquals(written.pages.size(), adjacency.pages.size());
+    assertEquals((long) entries.size() + 1, written.getDegree(Direction.OUT));
+  }
+}
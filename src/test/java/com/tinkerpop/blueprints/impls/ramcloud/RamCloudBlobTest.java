@@ -0,0 +1,71 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Which values go out of line, and the chunk keys they are stored under.
+ */
+public class RamCloudBlobTest extends TestCase {
+
+  public void testSmallValuesStayInline() {
+    assertNull(RamCloudBlob.toLargeValueBytes(new byte[100], 100));
+    assertNull(RamCloudBlob.toLargeValueBytes("short", 100));
+    assertNull(RamCloudBlob.toLargeValueBytes(Long.valueOf(42), 0));
+    assertNull(RamCloudBlob.toLargeValueBytes(new ArrayList<String>(), 1000));
+  }
+
+  public void testLargeValuesGoOutOfLine() {
+    byte[] bytes = new byte[101];
+    assertSame(bytes, RamCloudBlob.toLargeValueBytes(bytes, 100));
+
+    char[] chars = new char[100];
+    Arrays.fill(chars, 'x');
+    assertNotNull(RamCloudBlob.toLargeValueBytes(new String(chars), 100));
+
+    List<String> list = new ArrayList<String>();
+    for(int i = 0; i < 100; i++)
+      list.add("element " + i);
+    assertNotNull(RamCloudBlob.toLargeValueBytes(list, 100));
+  }
+
+  public void testChunkCount() {
+    assertEquals(0, new RamCloudBlob(new byte[0], 0, false).getChunkCount());
+    assertEquals(1, new RamCloudBlob(new byte[0], 1, false).getChunkCount());
+    assertEquals(1, new RamCloudBlob(new byte[0], RamCloudBlob.CHUNK_BYTES, false).getChunkCount());
+    assertEquals(2, new RamCloudBlob(new byte[0], RamCloudBlob.CHUNK_BYTES + 1, false).getChunkCount());
+  }
+
+  public void testBlobKeysDoNotCollide() {
+    byte[] a = RamCloudBlob.blobKey(1, new byte[] {1, 2}, "photo");
+    byte[] b = RamCloudBlob.blobKey(1, new byte[] {1}, "\u0002photo");
+    byte[] c = RamCloudBlob.blobKey(2, new byte[] {1, 2}, "photo");
+    assertFalse(Arrays.equals(a, b));
+    assertFalse(Arrays.equals(a, c));
+    assertFalse(Arrays.equals(RamCloudBlob.chunkKey(a, 0), RamCloudBlob.chunkKey(a, 1)));
+  }
+
+  public void testEachValueGetsItsOwnKey() {
+    byte[] a = RamCloudBlob.blobKey(1, new byte[] {1, 2}, "photo");
+    byte[] b = RamCloudBlob.blobKey(1, new byte[] {1, 2}, "photo");
+    assertFalse(Arrays.equals(a, b));
+  }
+}
@@ -0,0 +1,77 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudAdjacency.Entry;
+
+/**
+ * False negatives, false positive rate and encoding of adjacency Bloom filters.
+ */
+public class RamCloudBloomFilterTest extends TestCase {
+
+  public void testNoFalseNegatives() {
+    List<Entry> entries = new ArrayList<Entry>();
+    for(int i = 0; i < 1000; i++)
+      entries.add(new Entry(i, i % 2 == 0, "label" + (i % 7)));
+
+    RamCloudBloomFilter bloomFilter = RamCloudBloomFilter.build(entries);
+    for(Entry entry: entries)
+      assertTrue(bloomFilter.mightContain(entry));
+  }
+
+  public void testFalsePositiveRate() {
+    List<Entry> entries = new ArrayList<Entry>();
+    for(int i = 0; i < 1000; i++)
+      entries.add(new Entry(i, true, "knows"));
+
+    RamCloudBloomFilter bloomFilter = RamCloudBloomFilter.build(entries);
+    int falsePositives = 0;
+    for(int i = 1000; i < 11000; i++) {
+      if(bloomFilter.mightContain(new Entry(i, true, "knows")))
+        falsePositives++;
+    }
+    assertTrue("false positives: " + falsePositives, falsePositives < 200);
+  }
+
+  public void testDirectionAndLabelAreHashed() {
+    RamCloudBloomFilter bloomFilter = new RamCloudBloomFilter(0);
+    bloomFilter.add(new Entry(42, true, "knows"));
+
+    assertTrue(bloomFilter.mightContain(new Entry(42, true, "knows")));
+    assertFalse(bloomFilter.mightContain(new Entry(42, false, "knows")));
+    assertFalse(bloomFilter.mightContain(new Entry(42, true, "likes")));
+  }
+
+  public void testRoundTrip() {
+    RamCloudBloomFilter bloomFilter = new RamCloudBloomFilter(100);
+    bloomFilter.add(new Entry(7, true, "knows"));
+
+    ByteBuffer buffer = ByteBuffer.allocate(bloomFilter.encodedSize());
+    bloomFilter.encode(buffer);
+    buffer.flip();
+    RamCloudBloomFilter decoded = RamCloudBloomFilter.decode(buffer);
+
+    assertEquals(100, decoded.getCapacity());
+    assertTrue(decoded.mightContain(new Entry(7, true, "knows")));
+    assertEquals(0, buffer.remaining());
+  }
+}
@@ -0,0 +1,61 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import junit.framework.TestCase;
+
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudColumn.Block;
+
+/**
+ * Column block encoding and the blocks vertex ids fall into.
+ */
+public class RamCloudColumnTest extends TestCase {
+
+  public void testBlockRoundTrip() {
+    Block block = new Block(3);
+    block.set(0, 42);
+    block.set(1000, Long.MAX_VALUE);
+
+    Block decoded = RamCloudColumn.decodeBlock(3, RamCloudColumn.encodeBlock(block));
+    assertFalse(decoded.isDouble());
+    assertEquals(2, decoded.getCount());
+    assertEquals(Long.valueOf(42), decoded.get(0));
+    assertEquals(Long.MAX_VALUE, decoded.getLong(1000));
+    assertNull(decoded.get(1));
+    assertEquals(3L * RamCloudColumn.BLOCK_SIZE, decoded.getFirstVertexId());
+  }
+
+  public void testBlockSwitchesToDoubles() {
+    Block block = new Block(0);
+    block.set(5, 7);
+    block.set(6, 0.5);
+    block.clear(5);
+    block.clear(5);
+
+    Block decoded = RamCloudColumn.decodeBlock(0, RamCloudColumn.encodeBlock(block));
+    assertTrue(decoded.isDouble());
+    assertEquals(1, decoded.getCount());
+    assertFalse(decoded.isPresent(5));
+    assertEquals(0.5, decoded.getDouble(6));
+  }
+
+  public void testNegativeIdsRoundDown() {
+    assertEquals(-1L, RamCloudColumn.blockNumber(-1));
+    assertEquals(RamCloudColumn.BLOCK_SIZE - 1, RamCloudColumn.blockIndex(-1));
+    assertEquals(1L, RamCloudColumn.blockNumber(RamCloudColumn.BLOCK_SIZE));
+    assertEquals(0, RamCloudColumn.blockIndex(RamCloudColumn.BLOCK_SIZE));
+  }
+}
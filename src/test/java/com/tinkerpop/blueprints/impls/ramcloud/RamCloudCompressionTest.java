@@ -0,0 +1,61 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Compression round trips, values left as they are, and reading either kind.
+ */
+public class RamCloudCompressionTest extends TestCase {
+
+  public void testRoundTrip() {
+    byte[] value = new byte[4096];
+    for(int i = 0; i < value.length; i++)
+      value[i] = (byte) (i % 7);
+
+    byte[] compressed = RamCloudCompression.compress(value, 1024);
+    assertTrue(RamCloudCompression.isCompressed(compressed));
+    assertTrue(compressed.length < value.length);
+    assertTrue(Arrays.equals(value, RamCloudCompression.decompress(compressed)));
+  }
+
+  public void testSmallOrIncompressibleValuesPassThrough() {
+    byte[] small = new byte[100];
+    assertSame(small, RamCloudCompression.compress(small, 1024));
+
+    byte[] random = new byte[4096];
+    new Random(1).nextBytes(random);
+    assertSame(random, RamCloudCompression.compress(random, 1024));
+    assertSame(small, RamCloudCompression.decompress(small));
+  }
+
+  public void testPropertyMapsReadBothWays() {
+    Map<String, Object> map = new HashMap<String, Object>();
+    for(int i = 0; i < 50; i++)
+      map.put("key" + i, "value " + i);
+
+    byte[] plain = RamCloudElement.getPropertyMapBytes(map);
+    assertFalse(RamCloudCompression.isCompressed(plain));
+    assertEquals(map, RamCloudElement.getPropertyMap(plain));
+    assertEquals(map, RamCloudElement.getPropertyMap(RamCloudCompression.compress(plain, 0)));
+  }
+}
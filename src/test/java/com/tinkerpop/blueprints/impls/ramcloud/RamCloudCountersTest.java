@@ -0,0 +1,67 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import junit.framework.TestCase;
+
+import com.tinkerpop.blueprints.impls.ramcloud.RamCloudCounters.Counts;
+
+/**
+ * Counter shard encoding, and totals summed over shards.
+ */
+public class RamCloudCountersTest extends TestCase {
+
+  public void testCountsRoundTrip() {
+    Counts counts = new Counts();
+    counts.vertices = 3;
+    counts.addEdges("knows", 2);
+    counts.addEdges("\u00e9crit", 1);
+
+    Counts decoded = RamCloudCounters.decodeCounts(RamCloudCounters.encodeCounts(counts));
+    assertEquals(3, decoded.getVertexCount());
+    assertEquals(3, decoded.getEdgeCount());
+    assertEquals(2, decoded.getEdgeCount("knows"));
+    assertEquals(1, decoded.getEdgeCount("\u00e9crit"));
+    assertEquals(0, decoded.getEdgeCount("likes"));
+  }
+
+  public void testShardsSumUp() {
+    Counts shard = new Counts();
+    shard.vertices = 1;
+    shard.addEdges("knows", 1);
+
+    Counts removal = new Counts();
+    removal.vertices = -1;
+    removal.addEdges("knows", -1);
+
+    Counts total = new Counts();
+    total.add(shard);
+    total.add(shard);
+    total.add(removal);
+    assertEquals(1, total.getVertexCount());
+    assertEquals(1, total.getEdgeCount("knows"));
+
+    // Labels whose edges are all gone drop out
+    total.add(removal);
+    assertEquals(0, total.getEdgeCount());
+    assertTrue(total.getEdgeLabels().isEmpty());
+  }
+
+  public void testShardsCoverNegativeIds() {
+    assertTrue(RamCloudCounters.shard(-1) >= 0);
+    assertTrue(RamCloudCounters.shard(Long.MIN_VALUE) < RamCloudCounters.SHARDS);
+  }
+}
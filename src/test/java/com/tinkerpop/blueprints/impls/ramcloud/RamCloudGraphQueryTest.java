@@ -0,0 +1,54 @@
+/* Copyright (c) 2013 Stanford University
+ *
+ * Permission to use, copy, modify, and distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR(S) DISCLAIM ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL AUTHORS BE LIABLE FOR
+ * ANY SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
+ * OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.tinkerpop.blueprints.impls.ramcloud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Byte searches that queries use to skip raw property maps.
+ */
+public class RamCloudGraphQueryTest extends TestCase {
+
+  public void testIndexOf() {
+    byte[] haystack = new byte[] {1, 2, 3, 1, 2, 4};
+    assertEquals(0, RamCloudGraphQuery.indexOf(haystack, new byte[] {1, 2}));
+    assertEquals(3, RamCloudGraphQuery.indexOf(haystack, new byte[] {1, 2, 4}));
+    assertEquals(-1, RamCloudGraphQuery.indexOf(haystack, new byte[] {2, 4, 5}));
+    assertEquals(0, RamCloudGraphQuery.indexOf(haystack, new byte[0]));
+  }
+
+  public void testSerializedMapsContainTheirStrings() {
+    Map<String, Object> map = new HashMap<String, Object>();
+    String value = "Zo\u00eb \u0000 \ud83d\ude00";
+    map.put("name", value);
+    map.put("nickname", "name");
+    byte[] bytes = RamCloudElement.getPropertyMapBytes(map);
+
+    List<byte[]> needles = new ArrayList<byte[]>();
+    needles.add(RamCloudGraphQuery.toModifiedUtf8("name"));
+    needles.add(RamCloudGraphQuery.toModifiedUtf8("nickname"));
+    needles.add(RamCloudGraphQuery.toModifiedUtf8(value));
+    assertTrue(RamCloudGraphQuery.containsAll(bytes, needles));
+
+    needles.add(RamCloudGraphQuery.toModifiedUtf8("age"));
+    assertFalse(RamCloudGraphQuery.containsAll(bytes, needles));
+  }
+}